@@ -62,7 +62,7 @@ public class BigQueryHome {
     for (TimeSeriesSummary metric : values) {
       sb.append("<tr>");
       addColumn(sb, metric.getName());
-      addColumn(sb, metric.getValues().size());
+      addColumn(sb, metric.getCount());
       addColumn(sb, metric.getMostRecentRunTime());
       addColumn(sb, metric.getMostRecentValue());
       addColumn(sb, metric.getAverage());
@@ -21,6 +21,7 @@ package com.example.appengine.bigquerylogging;
 
 import com.google.api.Metric;
 import com.google.api.MetricDescriptor;
+import com.google.api.core.ApiFuture;
 import com.google.cloud.ServiceOptions;
 import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.BigQueryOptions;
@@ -43,15 +44,20 @@ import com.google.monitoring.v3.Point;
 import com.google.monitoring.v3.TimeInterval;
 import com.google.monitoring.v3.TimeSeries;
 import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.Timestamp;
 import com.google.protobuf.util.Timestamps;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 // [END bigquery_logging_deps]
 
 public class BigQueryRunner {
@@ -83,6 +89,10 @@ public class BigQueryRunner {
   );
   // [END bigquery_logging_metrics]
 
+  private static final long WINDOW_MILLIS = TimeUnit.DAYS.toMillis(30);
+  private static final long SUMMARY_TTL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final long REBUILD_MILLIS = TimeUnit.DAYS.toMillis(1);
+
   private static TableResult mostRecentRunResult;
   private static Set<String> existingMetrics = Sets.newHashSet();
 
@@ -90,6 +100,7 @@ public class BigQueryRunner {
   private final BigQuery bigquery;
   private final String projectName;
   private PrintStream os;
+  private final Map<String, CachedSummary> summaries = new HashMap<>();
 
   // Retrieve a singleton instance
   public static synchronized BigQueryRunner getInstance() throws IOException {
@@ -206,35 +217,85 @@ public class BigQueryRunner {
   }
 
   //  [START bigquery_logging_list_time_series]
-  public List<TimeSeriesSummary> getTimeSeriesValues() {
-    List<TimeSeriesSummary> summaries = Lists.newArrayList();
+  /**
+   * Returns a summary of each required metric over the last 30 days. Summaries are cached for
+   * {@link #SUMMARY_TTL_MILLIS}; stale ones are refreshed concurrently, asking only for the points
+   * newer than the ones already summarized, and rebuilt from scratch once a day so that points
+   * older than 30 days drop out.
+   */
+  public synchronized List<TimeSeriesSummary> getTimeSeriesValues() {
     createMetricsIfNeeded();
+    long now = System.currentTimeMillis();
+    Map<String, ApiFuture<ListTimeSeriesPagedResponse>> fetches = new LinkedHashMap<>();
     for (MetricDescriptor metric : REQUIRED_METRICS) {
+      CachedSummary cached = summaries.get(metric.getType());
+      if (cached != null && now - cached.fetchedAtMillis < SUMMARY_TTL_MILLIS) {
+        continue;
+      }
+      Timestamp startTime = Timestamps.fromMillis(now - WINDOW_MILLIS);
+      if (cached != null && cached.summary != null && now - cached.builtAtMillis < REBUILD_MILLIS) {
+        startTime = cached.summary.getMostRecentRunTime();
+      }
       ListTimeSeriesRequest listTimeSeriesRequest = ListTimeSeriesRequest
           .newBuilder()
           .setName(projectName)
           .setFilter(String.format("metric.type = \"%s\"", metric.getType()))
           .setInterval(TimeInterval.newBuilder()
-              .setStartTime(Timestamps.subtract(Timestamps.fromMillis(System.currentTimeMillis()),
-                  com.google.protobuf.Duration.newBuilder()
-                      .setSeconds(60L * 60L * 24L * 30L)  //  30 days ago
-                      .build()))
-              .setEndTime(Timestamps.fromMillis(System.currentTimeMillis()))
+              .setStartTime(startTime)
+              .setEndTime(Timestamps.fromMillis(now))
               .build())
           .build();
+      // Start every query before waiting on any of them.
+      fetches.put(
+          metric.getType(), client.listTimeSeriesPagedCallable().futureCall(listTimeSeriesRequest));
+    }
+
+    for (Map.Entry<String, ApiFuture<ListTimeSeriesPagedResponse>> fetch : fetches.entrySet()) {
+      CachedSummary cached = summaries.get(fetch.getKey());
+      boolean rebuild =
+          cached == null || cached.summary == null || now - cached.builtAtMillis >= REBUILD_MILLIS;
+      // Extend a copy, so that summaries already returned to other callers do not change.
+      TimeSeriesSummary summary = rebuild ? null : cached.summary.copyForNewerPoints();
       try {
-        ListTimeSeriesPagedResponse listTimeSeriesResponse = client.listTimeSeries(
-            listTimeSeriesRequest);
-        ArrayList<TimeSeries> timeSeries = Lists.newArrayList(listTimeSeriesResponse.iterateAll());
-        summaries.addAll(timeSeries
-            .stream()
-            .map(TimeSeriesSummary::fromTimeSeries)
-            .collect(Collectors.toList()));
-      } catch (RuntimeException ex) {
+        for (TimeSeries timeSeries : fetch.getValue().get().iterateAll()) {
+          if (summary == null) {
+            summary = TimeSeriesSummary.fromTimeSeries(timeSeries);
+          } else {
+            summary.add(timeSeries);
+          }
+        }
+        summaries.put(
+            fetch.getKey(),
+            new CachedSummary(summary, now, rebuild ? now : cached.builtAtMillis));
+      } catch (ExecutionException | RuntimeException ex) {
         os.println("MetricDescriptors not yet synced. Please try again in a moment.");
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        break;
       }
     }
-    return summaries;
+
+    List<TimeSeriesSummary> values = Lists.newArrayList();
+    for (MetricDescriptor metric : REQUIRED_METRICS) {
+      CachedSummary cached = summaries.get(metric.getType());
+      if (cached != null && cached.summary != null) {
+        values.add(cached.summary);
+      }
+    }
+    return values;
+  }
+
+  private static class CachedSummary {
+    // Null if the metric has no points yet.
+    final TimeSeriesSummary summary;
+    final long fetchedAtMillis;
+    final long builtAtMillis;
+
+    CachedSummary(TimeSeriesSummary summary, long fetchedAtMillis, long builtAtMillis) {
+      this.summary = summary;
+      this.fetchedAtMillis = fetchedAtMillis;
+      this.builtAtMillis = builtAtMillis;
+    }
   }
   //  [END bigquery_logging_list_time_series]
 
@@ -16,45 +16,81 @@
 
 package com.example.appengine.bigquerylogging;
 
-import com.google.common.collect.Collections2;
-import com.google.common.collect.Lists;
 import com.google.monitoring.v3.Point;
 import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
 import com.google.protobuf.Timestamp;
+import com.google.protobuf.util.Timestamps;
 
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
-import java.util.stream.Collectors;
-
+/**
+ * Summarizes the points of a metric as they are read, without keeping the points themselves. A
+ * summary can be extended with points fetched later through {@link #copyForNewerPoints()}.
+ */
 public abstract class TimeSeriesSummary<T> {
-  private String name;
+  private final String name;
   private Timestamp mostRecentRunTime;
+  // Points ending at or before this time are already counted.
+  private Timestamp watermark;
   T mostRecentValue;
-  List<T> values;
+  private long count;
 
   public static TimeSeriesSummary fromTimeSeries(TimeSeries timeSeries) {
+    TimeSeriesSummary summary;
     switch (timeSeries.getValueType()) {
       case STRING:
-        return new StringTimeSeriesSummary(timeSeries);
+        summary = new StringTimeSeriesSummary(timeSeries.getMetric().getType());
+        break;
       case INT64:
-        return new Int64TimeSeriesSummary(timeSeries);
+        summary = new Int64TimeSeriesSummary(timeSeries.getMetric().getType());
+        break;
       default:
         return null;
     }
+    summary.add(timeSeries);
+    return summary;
   }
 
-  private TimeSeriesSummary(TimeSeries timeSeries) {
-    name = timeSeries.getMetric().getType();
+  private TimeSeriesSummary(String name) {
+    this.name = name;
   }
 
-  Point getMostRecentPoint(TimeSeries timeSeries) {
-    Point max = Collections.max(timeSeries.getPointsList(),
-        Comparator.comparingLong(p -> p.getInterval().getEndTime().getSeconds()));
-    mostRecentRunTime = max.getInterval().getEndTime();
-    return max;
+  private TimeSeriesSummary(TimeSeriesSummary<T> other) {
+    name = other.name;
+    mostRecentRunTime = other.mostRecentRunTime;
+    watermark = other.mostRecentRunTime;
+    mostRecentValue = other.mostRecentValue;
+    count = other.count;
   }
 
+  /**
+   * Returns a copy of this summary that only counts points newer than the ones it has seen, so
+   * that the result of a query starting at {@link #getMostRecentRunTime()} can be added to it.
+   */
+  public abstract TimeSeriesSummary<T> copyForNewerPoints();
+
+  /**
+   * Counts the points of {@code timeSeries}, one at a time.
+   */
+  public void add(TimeSeries timeSeries) {
+    for (Point point : timeSeries.getPointsList()) {
+      Timestamp endTime = point.getInterval().getEndTime();
+      if (watermark != null && Timestamps.comparator().compare(endTime, watermark) <= 0) {
+        continue;
+      }
+      count++;
+      accumulate(point.getValue());
+      if (mostRecentRunTime == null
+          || Timestamps.comparator().compare(endTime, mostRecentRunTime) > 0) {
+        mostRecentRunTime = endTime;
+        mostRecentValue = valueOf(point.getValue());
+      }
+    }
+  }
+
+  abstract void accumulate(TypedValue value);
+
+  abstract T valueOf(TypedValue value);
+
   public String getName() {
     return name;
   }
@@ -67,49 +103,79 @@ public abstract class TimeSeriesSummary<T> {
     return mostRecentRunTime;
   }
 
-  public List<T> getValues() {
-    return values;
+  public long getCount() {
+    return count;
   }
 
   public abstract T getAverage();
 
   public static class StringTimeSeriesSummary extends TimeSeriesSummary<String> {
-    private StringTimeSeriesSummary(TimeSeries timeSeries) {
-      super(timeSeries);
-      Point max = getMostRecentPoint(timeSeries);
-      if (max == null) {
-        return;
+    private final StringBuilder values;
+
+    private StringTimeSeriesSummary(String name) {
+      super(name);
+      values = new StringBuilder();
+    }
+
+    private StringTimeSeriesSummary(StringTimeSeriesSummary other) {
+      super(other);
+      values = new StringBuilder(other.values);
+    }
+
+    @Override
+    public StringTimeSeriesSummary copyForNewerPoints() {
+      return new StringTimeSeriesSummary(this);
+    }
+
+    @Override
+    void accumulate(TypedValue value) {
+      if (values.length() > 0) {
+        values.append(',');
       }
-      mostRecentValue = max
-          .getValue()
-          .getStringValue();
-      values = Lists.newArrayList(Collections2.transform(timeSeries.getPointsList(),
-          point -> point.getValue().getStringValue()));
+      values.append(value.getStringValue());
+    }
+
+    @Override
+    String valueOf(TypedValue value) {
+      return value.getStringValue();
     }
 
     @Override
     public String getAverage() {
-      return values.stream().collect(Collectors.joining(","));
+      return values.toString();
     }
   }
 
   public static class Int64TimeSeriesSummary extends TimeSeriesSummary<Long> {
-    private Int64TimeSeriesSummary(TimeSeries timeSeries) {
-      super(timeSeries);
-      Point max = getMostRecentPoint(timeSeries);
-      if (max == null) {
-        return;
-      }
-      mostRecentValue = max
-          .getValue()
-          .getInt64Value();
-      values = Lists.newArrayList(Collections2.transform(timeSeries.getPointsList(),
-          point -> point.getValue().getInt64Value()));
+    private long sum;
+
+    private Int64TimeSeriesSummary(String name) {
+      super(name);
+    }
+
+    private Int64TimeSeriesSummary(Int64TimeSeriesSummary other) {
+      super(other);
+      sum = other.sum;
+    }
+
+    @Override
+    public Int64TimeSeriesSummary copyForNewerPoints() {
+      return new Int64TimeSeriesSummary(this);
+    }
+
+    @Override
+    void accumulate(TypedValue value) {
+      sum += value.getInt64Value();
+    }
+
+    @Override
+    Long valueOf(TypedValue value) {
+      return value.getInt64Value();
     }
 
     @Override
     public Long getAverage() {
-      return values.stream().collect(Collectors.averagingLong(Long::longValue)).longValue();
+      return getCount() == 0 ? 0L : (long) ((double) sum / getCount());
     }
   }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.bigquerylogging;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.Metric;
+import com.google.api.MetricDescriptor;
+import com.google.monitoring.v3.Point;
+import com.google.monitoring.v3.TimeInterval;
+import com.google.monitoring.v3.TimeSeries;
+import com.google.monitoring.v3.TypedValue;
+import com.google.protobuf.util.Timestamps;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link TimeSeriesSummary}.
+ */
+@RunWith(JUnit4.class)
+public class TimeSeriesSummaryTest {
+  private static final String METRIC = "custom.googleapis.com/queryDuration";
+
+  private static Point point(long endMillis, long value) {
+    return Point.newBuilder()
+        .setInterval(TimeInterval.newBuilder().setEndTime(Timestamps.fromMillis(endMillis)))
+        .setValue(TypedValue.newBuilder().setInt64Value(value))
+        .build();
+  }
+
+  private static TimeSeries series(Point... points) {
+    TimeSeries.Builder builder = TimeSeries.newBuilder()
+        .setMetric(Metric.newBuilder().setType(METRIC))
+        .setValueType(MetricDescriptor.ValueType.INT64);
+    for (Point point : points) {
+      builder.addPoints(point);
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void fromTimeSeries_summarizesPoints() {
+    // Points are listed most recent first.
+    TimeSeriesSummary summary =
+        TimeSeriesSummary.fromTimeSeries(series(point(3000, 30), point(2000, 20), point(1000, 7)));
+
+    assertThat(summary.getName()).isEqualTo(METRIC);
+    assertThat(summary.getCount()).isEqualTo(3);
+    assertThat(summary.getMostRecentValue()).isEqualTo(30L);
+    assertThat(summary.getMostRecentRunTime()).isEqualTo(Timestamps.fromMillis(3000));
+    assertThat(summary.getAverage()).isEqualTo(19L);
+  }
+
+  @Test
+  public void copyForNewerPoints_skipsPointsAlreadyCounted() {
+    TimeSeriesSummary summary =
+        TimeSeriesSummary.fromTimeSeries(series(point(2000, 20), point(1000, 10)));
+
+    TimeSeriesSummary newer = summary.copyForNewerPoints();
+    newer.add(series(point(4000, 60), point(2000, 20)));
+
+    assertThat(newer.getCount()).isEqualTo(3);
+    assertThat(newer.getMostRecentValue()).isEqualTo(60L);
+    assertThat(newer.getAverage()).isEqualTo(30L);
+    assertThat(summary.getCount()).isEqualTo(2);
+    assertThat(summary.getAverage()).isEqualTo(15L);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.firetactoe;
+
+/**
+ * An immutable Tic Tac Toe board held as two 9-bit masks, one per player, where bit {@code i} is
+ * cell {@code i} of the board string. Wins are found with a single table lookup on a player's
+ * mask rather than by matching patterns against the string.
+ */
+final class Board {
+
+  static final int CELLS = 9;
+  static final char EMPTY = ' ';
+  static final int FULL = (1 << CELLS) - 1;
+
+  // Rows, columns and diagonals, in the order the game has always checked them.
+  private static final int[] LINES = {
+      0b000_000_111, 0b000_111_000, 0b111_000_000,
+      0b001_001_001, 0b010_010_010, 0b100_100_100,
+      0b100_010_001, 0b001_010_100
+  };
+
+  // For every mask, the last line in LINES that it completes, or 0 if it completes none.
+  private static final short[] WINNING_LINE = new short[FULL + 1];
+
+  static {
+    for (int mask = 0; mask <= FULL; mask++) {
+      for (int line : LINES) {
+        if ((mask & line) == line) {
+          WINNING_LINE[mask] = (short) line;
+        }
+      }
+    }
+  }
+
+  private static final Board EMPTY_BOARD = new Board(0, 0);
+
+  private final int xs;
+  private final int os;
+
+  private Board(int xs, int os) {
+    this.xs = xs;
+    this.os = os;
+  }
+
+  static Board empty() {
+    return EMPTY_BOARD;
+  }
+
+  /**
+   * Parses a board string such as {@code "X O  X   "}. Any character other than X or O is an
+   * empty cell.
+   */
+  static Board parse(String board) {
+    if (board.length() != CELLS) {
+      throw new IllegalArgumentException("A board has " + CELLS + " cells: '" + board + "'");
+    }
+    int xs = 0;
+    int os = 0;
+    for (int i = 0; i < CELLS; i++) {
+      char cell = board.charAt(i);
+      if (cell == 'X') {
+        xs |= 1 << i;
+      } else if (cell == 'O') {
+        os |= 1 << i;
+      }
+    }
+    return new Board(xs, os);
+  }
+
+  /**
+   * Returns this board with {@code player} in cell {@code position}, replacing whatever was there.
+   */
+  Board place(int position, char player) {
+    if (position < 0 || position >= CELLS) {
+      throw new IllegalArgumentException("No such cell: " + position);
+    }
+    int cell = 1 << position;
+    switch (player) {
+      case 'X':
+        return new Board(xs | cell, os & ~cell);
+      case 'O':
+        return new Board(xs & ~cell, os | cell);
+      default:
+        throw new IllegalArgumentException("No such player: " + player);
+    }
+  }
+
+  /**
+   * Returns the mask of a line completed by {@code player}, or 0 if they have not won.
+   */
+  int winningLine(char player) {
+    return WINNING_LINE[mask(player)];
+  }
+
+  /**
+   * Returns the mask of the empty cells.
+   */
+  int emptyCells() {
+    return FULL & ~(xs | os);
+  }
+
+  boolean isFull() {
+    return (xs | os) == FULL;
+  }
+
+  private int mask(char player) {
+    switch (player) {
+      case 'X':
+        return xs;
+      case 'O':
+        return os;
+      default:
+        throw new IllegalArgumentException("No such player: " + player);
+    }
+  }
+
+  /**
+   * Renders a winning line the way the clients expect it, such as {@code "XXX......"}.
+   */
+  static String linePattern(int line, char player) {
+    char[] cells = new char[CELLS];
+    for (int i = 0; i < CELLS; i++) {
+      cells[i] = (line & (1 << i)) != 0 ? player : '.';
+    }
+    return new String(cells);
+  }
+
+  @Override
+  public String toString() {
+    char[] cells = new char[CELLS];
+    for (int i = 0; i < CELLS; i++) {
+      int cell = 1 << i;
+      cells[i] = (xs & cell) != 0 ? 'X' : (os & cell) != 0 ? 'O' : EMPTY;
+    }
+    return new String(cells);
+  }
+}
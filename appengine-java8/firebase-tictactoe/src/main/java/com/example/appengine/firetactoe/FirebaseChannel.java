@@ -16,7 +16,6 @@
 
 package com.example.appengine.firetactoe;
 
-import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.extensions.appengine.http.UrlFetchTransport;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
 import com.google.api.client.http.ByteArrayContent;
@@ -24,8 +23,10 @@ import com.google.api.client.http.GenericUrl;
 import com.google.api.client.http.HttpRequestFactory;
 import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.HttpTransport;
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.appidentity.AppIdentityService;
 import com.google.appengine.api.appidentity.AppIdentityServiceFactory;
+import com.google.common.base.Throwables;
 import com.google.common.io.BaseEncoding;
 import com.google.common.io.CharStreams;
 import com.google.gson.Gson;
@@ -34,10 +35,21 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Utility functions for communicating with the realtime communication channel using Firebase. In
@@ -55,10 +67,30 @@ public class FirebaseChannel {
   private static final String IDENTITY_ENDPOINT =
       "https://identitytoolkit.googleapis.com/google.identity.identitytoolkit.v1.IdentityToolkit";
 
+  private static final Gson GSON = new Gson();
+
   private String firebaseDbUrl;
   private GoogleCredential credential;
   // Keep this a package-private member variable, so that it can be mocked for unit tests
   HttpTransport httpTransport;
+  // Runs the pushes to all but the first channel of an update; package-private for unit tests
+  Executor pushExecutor = FirebaseChannel::startRequestThread;
+  private HttpRequestFactory requestFactory;
+  private HttpTransport requestFactoryTransport;
+  private final AtomicLong versions = new AtomicLong();
+  private final ConcurrentMap<String, ChannelState> channels = new ConcurrentHashMap<>();
+
+  /**
+   * The pushes to one channel: sends are serialized, and the newest waiting update wins. The state
+   * is shared by every push that holds it, and is only removed from {@code channels} when the last
+   * one is done.
+   */
+  private static final class ChannelState {
+    final ReentrantLock lock = new ReentrantLock();
+    final AtomicLong latestVersion = new AtomicLong();
+    // Pushes holding this state; only changed inside channels.compute for this channel's key
+    int holders;
+  }
 
   private static FirebaseChannel instance;
 
@@ -122,21 +154,90 @@ public class FirebaseChannel {
    * @throws IOException .
    */
   public void sendFirebaseMessage(String channelKey, Game game) throws IOException {
-    // Make requests auth'ed using Application Default Credentials
-    HttpRequestFactory requestFactory = httpTransport.createRequestFactory(credential);
+    sendFirebaseMessages(Collections.singletonList(channelKey), game);
+  }
+
+  /**
+   * Sends the state of {@code game}, or deletes the channels if it is null, to every channel in
+   * {@code channelKeys} at once, and waits for them all. The game is serialized once for all of
+   * the channels. An update that is still waiting for an earlier one to the same channel is
+   * dropped if a newer update to that channel arrives meanwhile, so only the latest state is
+   * sent.
+   */
+  public void sendFirebaseMessages(Collection<String> channelKeys, Game game)
+      throws IOException {
+    byte[] gameJson = game == null ? null : GSON.toJson(game).getBytes(StandardCharsets.UTF_8);
+    long version = versions.incrementAndGet();
+    List<CompletableFuture<Void>> pushes = new ArrayList<>();
+    String callerKey = null;
+    for (String channelKey : channelKeys) {
+      if (callerKey == null) {
+        // The calling thread sends to the first channel itself.
+        callerKey = channelKey;
+        continue;
+      }
+      CompletableFuture<Void> pending = new CompletableFuture<>();
+      pushExecutor.execute(() -> {
+        try {
+          push(channelKey, gameJson, version);
+          pending.complete(null);
+        } catch (IOException | RuntimeException e) {
+          pending.completeExceptionally(e);
+        }
+      });
+      pushes.add(pending);
+    }
+    try {
+      if (callerKey != null) {
+        push(callerKey, gameJson, version);
+      }
+    } finally {
+      for (CompletableFuture<Void> pending : pushes) {
+        try {
+          pending.join();
+        } catch (CompletionException e) {
+          Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+          Throwables.throwIfUnchecked(e.getCause());
+          throw e;
+        }
+      }
+    }
+  }
+
+  private void push(String channelKey, byte[] gameJson, long version) throws IOException {
+    ChannelState state = channels.compute(channelKey, (key, current) -> {
+      ChannelState held = current == null ? new ChannelState() : current;
+      held.holders++;
+      return held;
+    });
+    state.latestVersion.accumulateAndGet(version, Math::max);
+    state.lock.lock();
+    try {
+      if (state.latestVersion.get() > version) {
+        // A newer update to this channel is waiting, and will be sent instead.
+        return;
+      }
+      send(channelKey, gameJson);
+    } finally {
+      state.lock.unlock();
+      channels.computeIfPresent(
+          channelKey, (key, current) -> --current.holders == 0 ? null : current);
+    }
+  }
+
+  private void send(String channelKey, byte[] gameJson) throws IOException {
+    HttpRequestFactory requestFactory = requestFactory();
     GenericUrl url =
         new GenericUrl(String.format("%s/channels/%s.json", firebaseDbUrl, channelKey));
     HttpResponse response = null;
 
     try {
-      if (null == game) {
+      if (null == gameJson) {
         response = requestFactory.buildDeleteRequest(url).execute();
       } else {
-        String gameJson = new Gson().toJson(game);
         response =
             requestFactory
-                .buildPatchRequest(
-                    url, new ByteArrayContent("application/json", gameJson.getBytes()))
+                .buildPatchRequest(url, new ByteArrayContent("application/json", gameJson))
                 .execute();
       }
 
@@ -152,6 +253,35 @@ public class FirebaseChannel {
     }
   }
 
+  /**
+   * Returns a request factory authorized with the cached credential, built once per transport.
+   */
+  private synchronized HttpRequestFactory requestFactory() {
+    if (requestFactory == null || requestFactoryTransport != httpTransport) {
+      requestFactory = httpTransport.createRequestFactory(credential);
+      requestFactoryTransport = httpTransport;
+    }
+    return requestFactory;
+  }
+
+  /**
+   * Runs {@code command} on a new request thread, which may make URL Fetch calls. Without a
+   * request environment to create one in, the command runs on the calling thread.
+   */
+  private static void startRequestThread(Runnable command) {
+    ThreadFactory threadFactory;
+    try {
+      threadFactory = ThreadManager.currentRequestThreadFactory();
+    } catch (RuntimeException e) {
+      threadFactory = null;
+    }
+    if (threadFactory == null) {
+      command.run();
+    } else {
+      threadFactory.newThread(command).start();
+    }
+  }
+
   /**
    * Create a secure JWT token for the given userId.
    */
@@ -175,7 +305,7 @@ public class FirebaseChannel {
     claims.put("iat", epochTime);
     claims.put("exp", expire);
 
-    String payload = base64.encode(new Gson().toJson(claims).getBytes());
+    String payload = base64.encode(GSON.toJson(claims).getBytes());
     String toSign = String.format("%s.%s", header, payload);
     AppIdentityService.SigningResult result = appIdentity.signForApp(toSign.getBytes());
     return String.format("%s.%s", toSign, base64.encode(result.getSignature()));
@@ -192,11 +322,10 @@ public class FirebaseChannel {
    * @throws IOException .
    */
   public HttpResponse firebasePut(String path, Object object) throws IOException {
-    // Make requests auth'ed using Application Default Credentials
-    Credential credential = GoogleCredential.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory = httpTransport.createRequestFactory(credential);
+    // Make requests auth'ed using the cached Application Default Credentials
+    HttpRequestFactory requestFactory = requestFactory();
 
-    String json = new Gson().toJson(object);
+    String json = GSON.toJson(object);
     GenericUrl url = new GenericUrl(path);
 
     return requestFactory
@@ -212,11 +341,10 @@ public class FirebaseChannel {
    * @throws IOException .
    */
   public HttpResponse firebasePatch(String path, Object object) throws IOException {
-    // Make requests auth'ed using Application Default Credentials
-    Credential credential = GoogleCredential.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory = httpTransport.createRequestFactory(credential);
+    // Make requests auth'ed using the cached Application Default Credentials
+    HttpRequestFactory requestFactory = requestFactory();
 
-    String json = new Gson().toJson(object);
+    String json = GSON.toJson(object);
     GenericUrl url = new GenericUrl(path);
 
     return requestFactory
@@ -232,11 +360,10 @@ public class FirebaseChannel {
    * @throws IOException .
    */
   public HttpResponse firebasePost(String path, Object object) throws IOException {
-    // Make requests auth'ed using Application Default Credentials
-    Credential credential = GoogleCredential.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory = httpTransport.createRequestFactory(credential);
+    // Make requests auth'ed using the cached Application Default Credentials
+    HttpRequestFactory requestFactory = requestFactory();
 
-    String json = new Gson().toJson(object);
+    String json = GSON.toJson(object);
     GenericUrl url = new GenericUrl(path);
 
     return requestFactory
@@ -251,9 +378,8 @@ public class FirebaseChannel {
    * @throws IOException .
    */
   public HttpResponse firebaseGet(String path) throws IOException {
-    // Make requests auth'ed using Application Default Credentials
-    Credential credential = GoogleCredential.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory = httpTransport.createRequestFactory(credential);
+    // Make requests auth'ed using the cached Application Default Credentials
+    HttpRequestFactory requestFactory = requestFactory();
 
     GenericUrl url = new GenericUrl(path);
 
@@ -267,9 +393,8 @@ public class FirebaseChannel {
    * @throws IOException .
    */
   public HttpResponse firebaseDelete(String path) throws IOException {
-    // Make requests auth'ed using Application Default Credentials
-    Credential credential = GoogleCredential.getApplicationDefault().createScoped(FIREBASE_SCOPES);
-    HttpRequestFactory requestFactory = httpTransport.createRequestFactory(credential);
+    // Make requests auth'ed using the cached Application Default Credentials
+    HttpRequestFactory requestFactory = requestFactory();
 
     GenericUrl url = new GenericUrl(path);
 
@@ -18,11 +18,15 @@ package com.example.appengine.firetactoe;
 
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.OnSave;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
 
 /**
  * The datastore-persisted Game object. This holds the entire game state - from a representation of
@@ -34,27 +38,6 @@ import java.util.regex.Pattern;
 @Entity
 public class Game {
 
-  static final Pattern[] XWins = {
-      Pattern.compile("XXX......"),
-      Pattern.compile("...XXX..."),
-      Pattern.compile("......XXX"),
-      Pattern.compile("X..X..X.."),
-      Pattern.compile(".X..X..X."),
-      Pattern.compile("..X..X..X"),
-      Pattern.compile("X...X...X"),
-      Pattern.compile("..X.X.X..")
-  };
-  static final Pattern[] OWins = {
-      Pattern.compile("OOO......"),
-      Pattern.compile("...OOO..."),
-      Pattern.compile("......OOO"),
-      Pattern.compile("O..O..O.."),
-      Pattern.compile(".O..O..O."),
-      Pattern.compile("..O..O..O"),
-      Pattern.compile("O...O...O"),
-      Pattern.compile("..O.O.O..")
-  };
-
   @Id
   public String id;
   public String userX;
@@ -64,6 +47,11 @@ public class Game {
   public String winner;
   public String winningBoard;
 
+  // The board as bitmasks while the game is being played. It is converted to and from the board
+  // string only when the game is saved or sent to the clients, and when it is first needed.
+  @Ignore
+  private transient Board bitboard;
+
   private static final Logger LOGGER = Logger.getLogger(Game.class.getName());
 
   Game() {
@@ -99,11 +87,27 @@ public class Game {
   }
 
   public String getBoard() {
+    syncBoard();
     return board;
   }
 
   public void setBoard(String board) {
     this.board = board;
+    this.bitboard = null;
+  }
+
+  private Board bitboard() {
+    if (bitboard == null) {
+      bitboard = Board.parse(board);
+    }
+    return bitboard;
+  }
+
+  @OnSave
+  void syncBoard() {
+    if (bitboard != null) {
+      board = bitboard.toString();
+    }
   }
 
   public boolean getMoveX() {
@@ -131,20 +135,19 @@ public class Game {
     }
   }
 
-  private void sendUpdateToUser(String userId) throws IOException {
-    if (userId != null) {
-      String channelKey = getChannelKey(userId);
-      FirebaseChannel.getInstance().sendFirebaseMessage(channelKey, this);
-    }
-  }
-
   /**
-   * sendUpdateToClients.
+   * sendUpdateToClients. Both players' channels are updated at once.
    * @throws IOException if we had some kind of network issue.
    */
   public void sendUpdateToClients() throws IOException {
-    sendUpdateToUser(userX);
-    sendUpdateToUser(userO);
+    syncBoard();
+    List<String> channelKeys = new ArrayList<>();
+    for (String userId : Arrays.asList(userX, userO)) {
+      if (userId != null) {
+        channelKeys.add(getChannelKey(userId));
+      }
+    }
+    FirebaseChannel.getInstance().sendFirebaseMessages(channelKeys, this);
   }
   // [END send_updates]
 
@@ -152,22 +155,11 @@ public class Game {
    * checkWin - has anyone won.
    */
   public void checkWin() {
-    final Pattern[] wins;
-    if (moveX) {
-      wins = XWins;
-    } else {
-      wins = OWins;
-    }
-
-    for (Pattern winPattern : wins) {
-      if (winPattern.matcher(board).matches()) {
-        if (moveX) {
-          winner = userX;
-        } else {
-          winner = userO;
-        }
-        winningBoard = winPattern.toString();
-      }
+    char player = moveX ? 'X' : 'O';
+    int line = bitboard().winningLine(player);
+    if (line != 0) {
+      winner = moveX ? userX : userO;
+      winningBoard = Board.linePattern(line, player);
     }
   }
 
@@ -189,9 +181,7 @@ public class Game {
     }
 
     if (currentMovePlayer.equals(userId)) {
-      char[] boardBytes = getBoard().toCharArray();
-      boardBytes[position] = value;
-      setBoard(new String(boardBytes));
+      bitboard = bitboard().place(position, value);
       checkWin();
       setMoveX(!getMoveX());
       try {
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.firetactoe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.regex.Pattern;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Board}. */
+@RunWith(JUnit4.class)
+public class BoardTest {
+  // The win patterns the game used to match against the board string.
+  private static final String[] WIN_PATTERNS = {
+      "PPP......", "...PPP...", "......PPP",
+      "P..P..P..", ".P..P..P.", "..P..P..P",
+      "P...P...P", "..P.P.P.."
+  };
+
+  @Test
+  public void parse_roundTrips() {
+    assertThat(Board.parse("X O  X  O").toString()).isEqualTo("X O  X  O");
+    assertThat(Board.empty().toString()).isEqualTo("         ");
+  }
+
+  @Test
+  public void place_replacesCell() {
+    Board board = Board.empty().place(4, 'X').place(0, 'O').place(4, 'O');
+
+    assertThat(board.toString()).isEqualTo("O   O    ");
+    assertThat(board.emptyCells()).isEqualTo(Board.FULL & ~0b000_010_001);
+  }
+
+  @Test
+  public void winningLine_matchesPatternsForEveryBoard() {
+    char[] cells = new char[Board.CELLS];
+    for (int code = 0; code < 19683; code++) { // 3^9 boards
+      int rest = code;
+      for (int i = 0; i < Board.CELLS; i++) {
+        cells[i] = " XO".charAt(rest % 3);
+        rest /= 3;
+      }
+      String text = new String(cells);
+      Board board = Board.parse(text);
+      for (char player : new char[] {'X', 'O'}) {
+        String expected = null;
+        for (String pattern : WIN_PATTERNS) {
+          String playerPattern = pattern.replace('P', player);
+          if (Pattern.matches(playerPattern, text)) {
+            expected = playerPattern;
+          }
+        }
+
+        int line = board.winningLine(player);
+
+        if (expected == null) {
+          assertThat(line).isEqualTo(0);
+        } else {
+          assertThat(Board.linePattern(line, player)).isEqualTo(expected);
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void parse_wrongLength_throws() {
+    Board.parse("XO");
+  }
+}
@@ -30,6 +30,16 @@ import com.google.appengine.tools.development.testing.LocalAppIdentityServiceTes
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -123,6 +133,111 @@ public class FirebaseChannelTest {
         .buildRequest("DELETE", FIREBASE_DB_URL + "/channels/my_key.json");
   }
 
+  @Test
+  public void sendFirebaseMessages_patchesEveryChannel() throws Exception {
+    MockHttpTransport mockHttpTransport =
+        spy(
+            new MockHttpTransport() {
+              @Override
+              public LowLevelHttpRequest buildRequest(String method, String url)
+                  throws IOException {
+                return new MockLowLevelHttpRequest() {
+                  @Override
+                  public LowLevelHttpResponse execute() throws IOException {
+                    MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+                    response.setStatusCode(200);
+                    return response;
+                  }
+                };
+              }
+            });
+    FirebaseChannel.getInstance().httpTransport = mockHttpTransport;
+    Executor previousExecutor = firebaseChannel.pushExecutor;
+    firebaseChannel.pushExecutor = Runnable::run;
+
+    try {
+      firebaseChannel.sendFirebaseMessages(Arrays.asList("key_x", "key_o"), new Game());
+    } finally {
+      firebaseChannel.pushExecutor = previousExecutor;
+    }
+
+    verify(mockHttpTransport, times(1))
+        .buildRequest("PATCH", FIREBASE_DB_URL + "/channels/key_x.json");
+    verify(mockHttpTransport, times(1))
+        .buildRequest("PATCH", FIREBASE_DB_URL + "/channels/key_o.json");
+  }
+
+  @Test
+  public void sendFirebaseMessages_serializesPushesToOneChannel() throws Exception {
+    final String sharedUrl = FIREBASE_DB_URL + "/channels/shared_key.json";
+    final int callers = 8;
+    final AtomicInteger inFlight = new AtomicInteger();
+    final AtomicInteger maxInFlight = new AtomicInteger();
+    Executor previousExecutor = firebaseChannel.pushExecutor;
+    // Every push but the caller's own runs on a thread of its own, like on App Engine
+    firebaseChannel.pushExecutor = command -> new Thread(command).start();
+    ExecutorService callerPool = Executors.newFixedThreadPool(callers);
+
+    try {
+      for (int round = 0; round < 20; round++) {
+        final CountDownLatch sharedBlocked = new CountDownLatch(1);
+        final CountDownLatch callersSent = new CountDownLatch(callers);
+        final CountDownLatch release = new CountDownLatch(1);
+        FirebaseChannel.getInstance().httpTransport =
+            new MockHttpTransport() {
+              @Override
+              public LowLevelHttpRequest buildRequest(String method, final String url) {
+                return new MockLowLevelHttpRequest() {
+                  @Override
+                  public LowLevelHttpResponse execute() throws IOException {
+                    if (url.equals(sharedUrl)) {
+                      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                      try {
+                        // Hold the first push to the shared channel until every caller has
+                        // queued behind it, then keep each push in flight for a moment.
+                        sharedBlocked.countDown();
+                        release.await();
+                        Thread.sleep(2);
+                      } catch (InterruptedException e) {
+                        throw new IOException(e);
+                      } finally {
+                        inFlight.decrementAndGet();
+                      }
+                    } else {
+                      callersSent.countDown();
+                    }
+                    MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+                    response.setStatusCode(200);
+                    return response;
+                  }
+                };
+              }
+            };
+
+        List<Future<?>> sends = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+          final String callerKey = "caller_" + i;
+          sends.add(callerPool.submit(() -> {
+            firebaseChannel.sendFirebaseMessages(
+                Arrays.asList(callerKey, "shared_key"), new Game());
+            return null;
+          }));
+        }
+        assertThat(sharedBlocked.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(callersSent.await(10, TimeUnit.SECONDS)).isTrue();
+        release.countDown();
+        for (Future<?> send : sends) {
+          send.get(10, TimeUnit.SECONDS);
+        }
+      }
+    } finally {
+      firebaseChannel.pushExecutor = previousExecutor;
+      callerPool.shutdownNow();
+    }
+
+    assertThat(maxInFlight.get()).isEqualTo(1);
+  }
+
   @Test
   public void createFirebaseToken() throws Exception {
     Game game = new Game();
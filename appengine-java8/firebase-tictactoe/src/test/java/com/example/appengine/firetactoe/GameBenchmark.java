@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.firetactoe;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares a move and win check on the board string, matched against regular expressions as the
+ * game used to do, with the same move on a {@link Board}.
+ *
+ * <p>Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.appengine.firetactoe.GameBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameBenchmark {
+  private static final int POSITIONS = 1024;
+  private static final Pattern[] X_WINS = {
+      Pattern.compile("XXX......"),
+      Pattern.compile("...XXX..."),
+      Pattern.compile("......XXX"),
+      Pattern.compile("X..X..X.."),
+      Pattern.compile(".X..X..X."),
+      Pattern.compile("..X..X..X"),
+      Pattern.compile("X...X...X"),
+      Pattern.compile("..X.X.X..")
+  };
+
+  private String[] strings;
+  private Board[] boards;
+  private int[] moves;
+  private int next;
+
+  @Setup
+  public void setUp() {
+    // Positions a few moves into random games, each with a free cell for X to play next.
+    Random random = new Random(42);
+    strings = new String[POSITIONS];
+    boards = new Board[POSITIONS];
+    moves = new int[POSITIONS];
+    for (int i = 0; i < POSITIONS; i++) {
+      Board board = Board.empty();
+      char player = 'X';
+      for (int turn = random.nextInt(7); turn > 0; turn--) {
+        board = board.place(GameSimulation.randomMove(board, random), player);
+        player = player == 'X' ? 'O' : 'X';
+      }
+      strings[i] = board.toString();
+      boards[i] = board;
+      moves[i] = GameSimulation.randomMove(board, random);
+    }
+  }
+
+  @Benchmark
+  public String regex() {
+    int i = nextPosition();
+    char[] cells = strings[i].toCharArray();
+    cells[moves[i]] = 'X';
+    String board = new String(cells);
+    String winningBoard = null;
+    for (Pattern win : X_WINS) {
+      if (win.matcher(board).matches()) {
+        winningBoard = win.toString();
+      }
+    }
+    return winningBoard;
+  }
+
+  @Benchmark
+  public int bitboard() {
+    int i = nextPosition();
+    return boards[i].place(moves[i], 'X').winningLine('X');
+  }
+
+  private int nextPosition() {
+    next = (next + 1) & (POSITIONS - 1);
+    return next;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(GameBenchmark.class.getSimpleName()).build()).run();
+  }
+}
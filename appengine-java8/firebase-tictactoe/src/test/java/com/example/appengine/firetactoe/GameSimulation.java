@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.firetactoe;
+
+import java.util.Random;
+
+/**
+ * Plays many games between two random players on {@link Board}s, the way tournament replays and
+ * load tests drive the game engine, and reports the outcomes and the rate they were played at.
+ *
+ * <p>Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.appengine.firetactoe.GameSimulation -Dexec.args="[games] [seed]"}.
+ */
+public class GameSimulation {
+
+  /**
+   * Runs the simulation.
+   */
+  public static void main(String[] args) {
+    if (args.length > 2) {
+      System.err.println("Usage:");
+      System.err.printf(
+          "\tjava %s [games] [seed]\n", GameSimulation.class.getCanonicalName());
+      System.exit(1);
+    }
+    int games = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    long seed = args.length > 1 ? Long.parseLong(args[1]) : 42;
+
+    Random random = new Random(seed);
+    // Warm up the engine before timing it.
+    for (int i = 0; i < Math.min(games, 100_000); i++) {
+      play(random);
+    }
+
+    long[] outcomes = new long[3];
+    long moves = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < games; i++) {
+      int result = play(random);
+      outcomes[result & 3]++;
+      moves += result >>> 2;
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.printf(
+        "%d games (X won %d, O won %d, %d drawn), %d moves in %.3f s: "
+            + "%.0f games/s, %.0f moves/s\n",
+        games, outcomes[1], outcomes[2], outcomes[0], moves, seconds,
+        games / seconds, moves / seconds);
+  }
+
+  /**
+   * Plays one game and returns the number of moves shifted left by two, or'ed with 1 if X won, 2
+   * if O won and 0 for a draw.
+   */
+  static int play(Random random) {
+    Board board = Board.empty();
+    char player = 'X';
+    for (int moves = 1; ; moves++) {
+      board = board.place(randomMove(board, random), player);
+      if (board.winningLine(player) != 0) {
+        return moves << 2 | (player == 'X' ? 1 : 2);
+      }
+      if (board.isFull()) {
+        return moves << 2;
+      }
+      player = player == 'X' ? 'O' : 'X';
+    }
+  }
+
+  /**
+   * Returns a random empty cell of a board that is not full.
+   */
+  static int randomMove(Board board, Random random) {
+    int empty = board.emptyCells();
+    for (int skip = random.nextInt(Integer.bitCount(empty)); skip > 0; skip--) {
+      empty &= empty - 1;
+    }
+    return Integer.numberOfTrailingZeros(empty);
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.memcache;
+
+import com.google.appengine.api.memcache.AsyncMemcacheService;
+import com.google.appengine.api.memcache.ErrorHandlers;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Does the same work as {@link MemcacheBestPracticeServlet} through a {@link NearCache}: the
+ * increment is started first and runs while "who" is read, usually from the local cache.
+ */
+@SuppressWarnings("serial")
+// With @WebServlet annotation the webapp/WEB-INF/web.xml is no longer required.
+@WebServlet(name = "MemcacheNearCache", description = "Memcache: Near Cache",
+    urlPatterns = "/memcache/nearcache")
+public class MemcacheNearCacheServlet extends HttpServlet {
+  private static final int MAX_LOCAL_ENTRIES = 1000;
+  private static final long LOCAL_TTL_MILLIS = 5000;
+
+  private NearCache cache;
+
+  @Override
+  public void init() throws ServletException {
+    AsyncMemcacheService asyncCache = MemcacheServiceFactory.getAsyncMemcacheService();
+    asyncCache.setErrorHandler(ErrorHandlers.getConsistentLogAndContinue(Level.INFO));
+    cache = new NearCache(asyncCache, MAX_LOCAL_ENTRIES, LOCAL_TTL_MILLIS);
+  }
+
+  @Override
+  public void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException,
+      ServletException {
+    String path = req.getRequestURI();
+    if (path.startsWith("/favicon.ico")) {
+      return; // ignore the request for favicon.ico
+    }
+
+    Future<Long> count = cache.increment("count", 1L, 0L);
+    byte[] who = (byte[]) cache.get("who");
+    String whoString = who == null ? "nobody" : new String(who);
+    resp.getWriter().print("Previously incremented by " + whoString + "\n");
+    cache.put("who", "Java".getBytes());
+    try {
+      resp.getWriter().print("Count incremented by Java = " + count.get() + "\n");
+    } catch (InterruptedException | ExecutionException e) {
+      throw new ServletException("Error when waiting for the increment", e);
+    }
+    resp.getWriter().print(cache.stats() + "\n");
+  }
+}
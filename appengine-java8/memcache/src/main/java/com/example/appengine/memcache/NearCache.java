@@ -0,0 +1,273 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.memcache;
+
+import com.google.appengine.api.memcache.AsyncMemcacheService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A two-level cache: a bounded, in-process LRU map in front of memcache.
+ *
+ * <p>Reads are served from the local map while an entry is younger than the TTL, and otherwise
+ * fetched from memcache through {@link AsyncMemcacheService}, several keys at a time with a
+ * single {@code getAll}. Writes go to both levels; memcache writes are not waited for. Because
+ * other instances may change memcache, the TTL bounds how stale a local read can be, so use this
+ * for keys that are read far more often than they change. Keys must have value equality, such as
+ * strings rather than byte arrays, and cached values are shared, so callers must not modify them.
+ *
+ * <p>Hits, misses and memcache latency are counted per level; see {@link #stats()}.
+ */
+public class NearCache {
+  private final AsyncMemcacheService memcache;
+  private final long ttlNanos;
+  private final Map<Object, Entry> local;
+
+  private final AtomicLong localHits = new AtomicLong();
+  private final AtomicLong localMisses = new AtomicLong();
+  private final AtomicLong memcacheHits = new AtomicLong();
+  private final AtomicLong memcacheMisses = new AtomicLong();
+  private final AtomicLong memcacheCalls = new AtomicLong();
+  private final AtomicLong memcacheNanos = new AtomicLong();
+
+  private static final class Entry {
+    final Object value;
+    final long expiresNanos;
+
+    Entry(Object value, long expiresNanos) {
+      this.value = value;
+      this.expiresNanos = expiresNanos;
+    }
+  }
+
+  /**
+   * Creates a cache that keeps up to {@code maxEntries} values locally for {@code ttlMillis}.
+   */
+  public NearCache(AsyncMemcacheService memcache, int maxEntries, long ttlMillis) {
+    if (maxEntries < 1 || ttlMillis < 0) {
+      throw new IllegalArgumentException("maxEntries must be positive and the TTL non-negative");
+    }
+    this.memcache = memcache;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.local = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns the value of {@code key}, or null if neither level has it.
+   */
+  public Object get(Object key) {
+    Object value = getLocal(key);
+    if (value != null) {
+      return value;
+    }
+    long start = System.nanoTime();
+    value = await(memcache.get(key));
+    recordMemcacheCall(start);
+    if (value == null) {
+      memcacheMisses.incrementAndGet();
+    } else {
+      memcacheHits.incrementAndGet();
+      putLocal(key, value);
+    }
+    return value;
+  }
+
+  /**
+   * Returns the values of those {@code keys} that either level has, fetching all of the local
+   * misses with one memcache call.
+   */
+  public <K> Map<K, Object> getAll(Collection<K> keys) {
+    Map<K, Object> values = new HashMap<>();
+    List<K> misses = new ArrayList<>();
+    for (K key : keys) {
+      Object value = getLocal(key);
+      if (value != null) {
+        values.put(key, value);
+      } else {
+        misses.add(key);
+      }
+    }
+    if (misses.isEmpty()) {
+      return values;
+    }
+    long start = System.nanoTime();
+    Map<K, Object> fetched = await(memcache.getAll(misses));
+    recordMemcacheCall(start);
+    if (fetched != null) {
+      for (Map.Entry<K, Object> entry : fetched.entrySet()) {
+        values.put(entry.getKey(), entry.getValue());
+        putLocal(entry.getKey(), entry.getValue());
+      }
+    }
+    int hits = fetched == null ? 0 : fetched.size();
+    memcacheHits.addAndGet(hits);
+    memcacheMisses.addAndGet(misses.size() - hits);
+    return values;
+  }
+
+  /**
+   * Stores {@code value} locally and starts writing it to memcache.
+   */
+  public Future<Void> put(Object key, Object value) {
+    putLocal(key, value);
+    return memcache.put(key, value);
+  }
+
+  /**
+   * Stores {@code values} locally and starts writing them to memcache with one call.
+   */
+  public Future<Void> putAll(Map<?, ?> values) {
+    for (Map.Entry<?, ?> entry : values.entrySet()) {
+      putLocal(entry.getKey(), entry.getValue());
+    }
+    return memcache.putAll(values);
+  }
+
+  /**
+   * Starts incrementing {@code key} in memcache, where the count lives, and drops any local
+   * copy.
+   */
+  public Future<Long> increment(Object key, long delta, long initialValue) {
+    synchronized (local) {
+      local.remove(key);
+    }
+    return memcache.increment(key, delta, initialValue);
+  }
+
+  private Object getLocal(Object key) {
+    Entry entry;
+    synchronized (local) {
+      entry = local.get(key);
+      if (entry != null && System.nanoTime() - entry.expiresNanos >= 0) {
+        local.remove(key);
+        entry = null;
+      }
+    }
+    if (entry == null) {
+      localMisses.incrementAndGet();
+      return null;
+    }
+    localHits.incrementAndGet();
+    return entry.value;
+  }
+
+  private void putLocal(Object key, Object value) {
+    Entry entry = new Entry(value, System.nanoTime() + ttlNanos);
+    synchronized (local) {
+      local.put(key, entry);
+    }
+  }
+
+  private void recordMemcacheCall(long startNanos) {
+    memcacheCalls.incrementAndGet();
+    memcacheNanos.addAndGet(System.nanoTime() - startNanos);
+  }
+
+  private static <T> T await(Future<T> future) {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for memcache", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Memcache call failed", e.getCause());
+    }
+  }
+
+  public Stats stats() {
+    return new Stats(this);
+  }
+
+  /**
+   * A snapshot of the hit, miss and latency counters of a {@link NearCache}.
+   */
+  public static class Stats {
+    private final long localHits;
+    private final long localMisses;
+    private final long memcacheHits;
+    private final long memcacheMisses;
+    private final long memcacheCalls;
+    private final long memcacheNanos;
+
+    Stats(NearCache cache) {
+      localHits = cache.localHits.get();
+      localMisses = cache.localMisses.get();
+      memcacheHits = cache.memcacheHits.get();
+      memcacheMisses = cache.memcacheMisses.get();
+      memcacheCalls = cache.memcacheCalls.get();
+      memcacheNanos = cache.memcacheNanos.get();
+    }
+
+    public long localHits() {
+      return localHits;
+    }
+
+    public long localMisses() {
+      return localMisses;
+    }
+
+    public long memcacheHits() {
+      return memcacheHits;
+    }
+
+    public long memcacheMisses() {
+      return memcacheMisses;
+    }
+
+    public double localHitRate() {
+      return rate(localHits, localMisses);
+    }
+
+    public double memcacheHitRate() {
+      return rate(memcacheHits, memcacheMisses);
+    }
+
+    /**
+     * Returns the mean time spent waiting for a memcache read, in milliseconds.
+     */
+    public double meanMemcacheMillis() {
+      return memcacheCalls == 0 ? 0 : memcacheNanos / 1e6 / memcacheCalls;
+    }
+
+    private static double rate(long hits, long misses) {
+      return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "local: %d hits, %d misses (%.1f%%); memcache: %d hits, %d misses (%.1f%%), %d reads"
+              + " averaging %.2f ms",
+          localHits, localMisses, 100 * localHitRate(), memcacheHits, memcacheMisses,
+          100 * memcacheHitRate(), memcacheCalls, meanMemcacheMillis());
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.memcache;
+
+import com.google.appengine.api.memcache.MemcacheService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A counter that spreads increments over several memcache keys and batches them in-process.
+ *
+ * <p>Each increment is added to a randomly chosen in-process shard, so concurrent requests
+ * rarely touch the same memory, let alone the same memcache key. The shards are written with one
+ * {@code incrementAll} call at most once per flush interval, by whichever request finds the
+ * interval elapsed; memcache increments are atomic, so no request ever retries. Reading the total
+ * costs one {@code getAll} over the shard keys.
+ *
+ * <p>Memcache may evict a shard, and increments that haven't been flushed are lost if the
+ * instance shuts down, so like any memcache counter the total is best effort.
+ */
+public class ShardedCounter {
+  private final MemcacheService memcache;
+  private final List<String> shardKeys;
+  private final AtomicLong[] pending;
+  private final long flushIntervalNanos;
+  private final AtomicLong nextFlushNanos;
+  private final ReentrantLock flushLock = new ReentrantLock();
+
+  /**
+   * Creates a counter named {@code name} with {@code shards} memcache keys, which writes
+   * increments at most every {@code flushIntervalMillis}; 0 writes every increment.
+   */
+  public ShardedCounter(MemcacheService memcache, String name, int shards,
+      long flushIntervalMillis) {
+    if (shards < 1 || flushIntervalMillis < 0) {
+      throw new IllegalArgumentException("shards must be positive and the interval non-negative");
+    }
+    this.memcache = memcache;
+    List<String> keys = new ArrayList<>(shards);
+    this.pending = new AtomicLong[shards];
+    for (int i = 0; i < shards; i++) {
+      keys.add(name + "-shard-" + i);
+      pending[i] = new AtomicLong();
+    }
+    this.shardKeys = Collections.unmodifiableList(keys);
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.nextFlushNanos = new AtomicLong(System.nanoTime() + flushIntervalNanos);
+  }
+
+  public List<String> shardKeys() {
+    return shardKeys;
+  }
+
+  public void increment() {
+    increment(1);
+  }
+
+  /**
+   * Adds {@code delta} to the counter, and writes the pending increments if the flush interval
+   * has elapsed and no other request is writing them.
+   */
+  public void increment(long delta) {
+    pending[ThreadLocalRandom.current().nextInt(pending.length)].addAndGet(delta);
+    if (System.nanoTime() - nextFlushNanos.get() >= 0 && flushLock.tryLock()) {
+      try {
+        if (System.nanoTime() - nextFlushNanos.get() >= 0) {
+          flushPending();
+        }
+      } finally {
+        flushLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * Writes the pending increments now.
+   */
+  public void flush() {
+    flushLock.lock();
+    try {
+      flushPending();
+    } finally {
+      flushLock.unlock();
+    }
+  }
+
+  private void flushPending() {
+    nextFlushNanos.set(System.nanoTime() + flushIntervalNanos);
+    Map<String, Long> offsets = new HashMap<>();
+    for (int i = 0; i < pending.length; i++) {
+      long delta = pending[i].getAndSet(0);
+      if (delta != 0) {
+        offsets.put(shardKeys.get(i), delta);
+      }
+    }
+    if (offsets.isEmpty()) {
+      return;
+    }
+    Map<String, Long> written = memcache.incrementAll(offsets, 0L);
+    for (int i = 0; i < pending.length; i++) {
+      Long delta = offsets.get(shardKeys.get(i));
+      if (delta != null && (written == null || written.get(shardKeys.get(i)) == null)) {
+        // Keep increments that memcache didn't take for the next flush.
+        pending[i].addAndGet(delta);
+      }
+    }
+  }
+
+  /**
+   * Returns the flushed total of all instances plus this instance's pending increments.
+   */
+  public long total() {
+    long total = 0;
+    for (Object value : memcache.getAll(shardKeys).values()) {
+      if (value instanceof Number) {
+        total += ((Number) value).longValue();
+      }
+    }
+    for (AtomicLong delta : pending) {
+      total += delta.get();
+    }
+    return total;
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.memcache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.appengine.api.memcache.AsyncMemcacheService;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.Arrays;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.AdditionalAnswers;
+
+/** Unit tests for {@link NearCache}. */
+@RunWith(JUnit4.class)
+public class NearCacheTest {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+  private MemcacheService memcache;
+  private AsyncMemcacheService asyncMemcache;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    memcache = MemcacheServiceFactory.getMemcacheService();
+    asyncMemcache =
+        mock(
+            AsyncMemcacheService.class,
+            AdditionalAnswers.delegatesTo(MemcacheServiceFactory.getAsyncMemcacheService()));
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  @Test
+  public void get_withinTtl_servesLocalCopy() throws Exception {
+    NearCache cache = new NearCache(asyncMemcache, 10, 60_000);
+
+    cache.put("key", "local").get();
+    memcache.put("key", "changed");
+
+    assertThat(cache.get("key")).isEqualTo("local");
+    assertThat(cache.stats().localHits()).isEqualTo(1L);
+    assertThat(cache.stats().memcacheHits()).isEqualTo(0L);
+  }
+
+  @Test
+  public void get_afterTtl_readsMemcache() throws Exception {
+    NearCache cache = new NearCache(asyncMemcache, 10, 100);
+
+    cache.put("key", "local").get();
+    memcache.put("key", "changed");
+    Thread.sleep(150);
+
+    assertThat(cache.get("key")).isEqualTo("changed");
+    assertThat(cache.stats().localMisses()).isEqualTo(1L);
+    assertThat(cache.stats().memcacheHits()).isEqualTo(1L);
+    // The value read from memcache is cached locally again.
+    assertThat(cache.get("key")).isEqualTo("changed");
+    assertThat(cache.stats().localHits()).isEqualTo(1L);
+  }
+
+  @Test
+  public void get_full_evictsLeastRecentlyUsed() throws Exception {
+    NearCache cache = new NearCache(asyncMemcache, 2, 60_000);
+
+    cache.put("a", "a1").get();
+    cache.put("b", "b1").get();
+    cache.get("a");
+    cache.put("c", "c1").get();
+    memcache.put("a", "a2");
+    memcache.put("b", "b2");
+
+    // "b" was the least recently used when "c" was added, so only it has left the local map.
+    assertThat(cache.get("a")).isEqualTo("a1");
+    assertThat(cache.get("b")).isEqualTo("b2");
+  }
+
+  @Test
+  public void getAll_fetchesOnlyLocalMissesInOneCall() throws Exception {
+    NearCache cache = new NearCache(asyncMemcache, 10, 60_000);
+    cache.put("a", "a1").get();
+    cache.put("b", "b1").get();
+    memcache.put("c", "c1");
+    memcache.put("d", "d1");
+
+    Map<String, Object> values = cache.getAll(Arrays.asList("a", "b", "c", "d", "e"));
+
+    assertThat(values).containsExactly("a", "a1", "b", "b1", "c", "c1", "d", "d1");
+    verify(asyncMemcache, times(1)).getAll(anyCollectionOf(String.class));
+    verify(asyncMemcache).getAll(Arrays.asList("c", "d", "e"));
+    NearCache.Stats stats = cache.stats();
+    assertThat(stats.localHits()).isEqualTo(2L);
+    assertThat(stats.localMisses()).isEqualTo(3L);
+    assertThat(stats.memcacheHits()).isEqualTo(2L);
+    assertThat(stats.memcacheMisses()).isEqualTo(1L);
+  }
+
+  @Test
+  public void getAll_allLocal_doesNotCallMemcache() throws Exception {
+    NearCache cache = new NearCache(asyncMemcache, 10, 60_000);
+    cache.put("a", "a1").get();
+    cache.put("b", "b1").get();
+
+    Map<String, Object> values = cache.getAll(Arrays.asList("a", "b"));
+
+    assertThat(values).containsExactly("a", "a1", "b", "b1");
+    verify(asyncMemcache, times(0)).getAll(anyCollectionOf(String.class));
+  }
+
+  @Test
+  public void increment_dropsLocalCopy() throws Exception {
+    NearCache cache = new NearCache(asyncMemcache, 10, 60_000);
+    cache.put("count", 5L).get();
+
+    assertThat(cache.increment("count", 2, 0).get()).isEqualTo(7L);
+
+    assertThat(cache.get("count")).isEqualTo(7L);
+    assertThat(cache.stats().localMisses()).isEqualTo(1L);
+    assertThat(cache.stats().memcacheHits()).isEqualTo(1L);
+  }
+
+  @Test
+  public void get_missingKey_countsMissOnBothLevels() {
+    NearCache cache = new NearCache(asyncMemcache, 10, 60_000);
+
+    assertThat(cache.get("missing")).isNull();
+
+    NearCache.Stats stats = cache.stats();
+    assertThat(stats.localHits()).isEqualTo(0L);
+    assertThat(stats.localMisses()).isEqualTo(1L);
+    assertThat(stats.memcacheHits()).isEqualTo(0L);
+    assertThat(stats.memcacheMisses()).isEqualTo(1L);
+    assertThat(stats.localHitRate()).isEqualTo(0.0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_noEntries_throws() {
+    new NearCache(asyncMemcache, 0, 1000);
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.memcache;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.apphosting.api.ApiProxy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares a single-key compare-and-set counter, as in {@link MemcacheConcurrentServlet}, with a
+ * {@link ShardedCounter}, at increasing numbers of concurrent threads, against the local memcache
+ * stub.
+ *
+ * <p>Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.appengine.memcache.ShardedCounterBenchmark
+ * -Dexec.args="16 500"}, where the arguments are the most threads and the increments per thread.
+ */
+public class ShardedCounterBenchmark {
+  private static final String SINGLE_KEY = "benchmark-single";
+  private static final int SHARDS = 16;
+
+  /**
+   * Runs the benchmark.
+   */
+  public static void main(String[] args) throws Exception {
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+    int increments = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+    LocalServiceTestHelper helper =
+        new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+    helper.setUp();
+    try {
+      MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+      System.out.printf(
+          "%-8s %-8s %12s %10s %10s%n", "threads", "counter", "incr/s", "retries", "total");
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+        memcache.delete(SINGLE_KEY);
+        AtomicLong retries = new AtomicLong();
+        long nanos = run(threads, increments, () -> incrementSingleKey(memcache, retries));
+        report(threads, "single", threads * increments, nanos, retries.get(),
+            (Long) memcache.get(SINGLE_KEY));
+
+        // Flush every 10ms so that the run includes memcache writes.
+        ShardedCounter counter = new ShardedCounter(memcache, "benchmark-sharded", SHARDS, 10);
+        memcache.deleteAll(counter.shardKeys());
+        nanos = run(threads, increments, counter::increment);
+        counter.flush();
+        report(threads, "sharded", threads * increments, nanos, 0, counter.total());
+      }
+    } finally {
+      helper.tearDown();
+    }
+  }
+
+  /**
+   * Runs {@code increments} calls of {@code increment} on each of {@code threads} threads, and
+   * returns the elapsed nanoseconds.
+   */
+  private static long run(int threads, int increments, Runnable increment)
+      throws InterruptedException, ExecutionException {
+    // The local services are reached through the API environment of the thread that set them up.
+    ApiProxy.Environment environment = ApiProxy.getCurrentEnvironment();
+    ThreadFactory threadFactory = command -> new Thread(() -> {
+      ApiProxy.setEnvironmentForCurrentThread(environment);
+      command.run();
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> workers = new ArrayList<>();
+      for (int i = 0; i < threads; i++) {
+        workers.add(executor.submit(() -> {
+          for (int j = 0; j < increments; j++) {
+            increment.run();
+          }
+        }));
+      }
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+      return System.nanoTime() - start;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Increments {@link #SINGLE_KEY} with getIdentifiable and putIfUntouched, backing off like
+   * {@link MemcacheConcurrentServlet}.
+   */
+  private static void incrementSingleKey(MemcacheService memcache, AtomicLong retries) {
+    for (long delayMs = 1; ; delayMs = Math.min(delayMs * 2, 512)) {
+      IdentifiableValue oldValue = memcache.getIdentifiable(SINGLE_KEY);
+      if (oldValue == null) {
+        if (memcache.put(SINGLE_KEY, 1L, null, MemcacheService.SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+          return;
+        }
+      } else if (memcache.putIfUntouched(SINGLE_KEY, oldValue, (Long) oldValue.getValue() + 1)) {
+        return;
+      }
+      retries.incrementAndGet();
+      try {
+        Thread.sleep(delayMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while backing off", e);
+      }
+    }
+  }
+
+  private static void report(int threads, String counter, long increments, long nanos,
+      long retries, Long total) {
+    System.out.printf("%-8d %-8s %12.0f %10d %10d%n", threads, counter,
+        increments / (nanos / 1e9), retries, total == null ? 0 : total);
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.memcache;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.AdditionalAnswers;
+
+/** Unit tests for {@link ShardedCounter}. */
+@RunWith(JUnit4.class)
+public class ShardedCounterTest {
+  private final LocalServiceTestHelper helper =
+      new LocalServiceTestHelper(new LocalMemcacheServiceTestConfig());
+
+  private MemcacheService memcache;
+
+  @Before
+  public void setUp() {
+    helper.setUp();
+    memcache = MemcacheServiceFactory.getMemcacheService();
+  }
+
+  @After
+  public void tearDown() {
+    helper.tearDown();
+  }
+
+  /** The sum of the shards in memcache, without any instance's pending increments. */
+  private long flushed(ShardedCounter counter) {
+    long total = 0;
+    for (Object value : memcache.getAll(counter.shardKeys()).values()) {
+      total += (Long) value;
+    }
+    return total;
+  }
+
+  @Test
+  public void increment_beforeInterval_isNotWritten() {
+    ShardedCounter counter = new ShardedCounter(memcache, "count", 4, 60_000);
+
+    for (int i = 0; i < 10; i++) {
+      counter.increment();
+    }
+
+    assertThat(flushed(counter)).isEqualTo(0L);
+    assertThat(counter.total()).isEqualTo(10L);
+  }
+
+  @Test
+  public void increment_afterInterval_writesPending() throws Exception {
+    ShardedCounter counter = new ShardedCounter(memcache, "count", 4, 200);
+
+    for (int i = 0; i < 10; i++) {
+      counter.increment();
+    }
+    Thread.sleep(250);
+    counter.increment(5);
+
+    assertThat(flushed(counter)).isEqualTo(15L);
+    assertThat(counter.total()).isEqualTo(15L);
+  }
+
+  @Test
+  public void increment_zeroInterval_writesEveryIncrement() {
+    ShardedCounter counter = new ShardedCounter(memcache, "count", 4, 0);
+
+    for (int i = 0; i < 10; i++) {
+      counter.increment();
+      assertThat(flushed(counter)).isEqualTo(i + 1L);
+    }
+  }
+
+  @Test
+  public void flush_rejectedShards_keepsTheirIncrements() {
+    final AtomicBoolean rejecting = new AtomicBoolean(true);
+    final String acceptedKey = "count-shard-0";
+    MemcacheService flaky =
+        mock(MemcacheService.class, AdditionalAnswers.delegatesTo(memcache));
+    // While rejecting, memcache only takes the offset for the first shard.
+    doAnswer(invocation -> {
+      @SuppressWarnings("unchecked")
+      Map<String, Long> offsets = (Map<String, Long>) invocation.getArguments()[0];
+      Long initialValue = (Long) invocation.getArguments()[1];
+      if (!rejecting.get()) {
+        return memcache.incrementAll(offsets, initialValue);
+      }
+      return offsets.containsKey(acceptedKey)
+          ? memcache.incrementAll(
+              Collections.singletonMap(acceptedKey, offsets.get(acceptedKey)), initialValue)
+          : Collections.emptyMap();
+    }).when(flaky).incrementAll(anyMapOf(String.class, Long.class), anyLong());
+    ShardedCounter counter = new ShardedCounter(flaky, "count", 4, 60_000);
+
+    for (int i = 0; i < 100; i++) {
+      counter.increment();
+    }
+    counter.flush();
+    long firstShard = memcache.get(acceptedKey) == null ? 0 : (Long) memcache.get(acceptedKey);
+
+    assertThat(flushed(counter)).isEqualTo(firstShard);
+    assertThat(counter.total()).isEqualTo(100L);
+
+    rejecting.set(false);
+    counter.flush();
+
+    assertThat(flushed(counter)).isEqualTo(100L);
+    assertThat(counter.total()).isEqualTo(100L);
+  }
+
+  @Test
+  public void flush_memcacheUnavailable_keepsAllIncrements() {
+    MemcacheService unavailable =
+        mock(MemcacheService.class, AdditionalAnswers.delegatesTo(memcache));
+    doAnswer(invocation -> null)
+        .when(unavailable).incrementAll(anyMapOf(String.class, Long.class), anyLong());
+    ShardedCounter counter = new ShardedCounter(unavailable, "count", 4, 60_000);
+
+    counter.increment(7);
+    counter.flush();
+
+    assertThat(flushed(counter)).isEqualTo(0L);
+    assertThat(counter.total()).isEqualTo(7L);
+  }
+
+  @Test
+  public void total_addsOtherInstancesFlushedIncrements() {
+    ShardedCounter other = new ShardedCounter(memcache, "count", 4, 60_000);
+    ShardedCounter counter = new ShardedCounter(memcache, "count", 4, 60_000);
+
+    other.increment(5);
+    other.flush();
+    counter.increment(3);
+
+    assertThat(counter.total()).isEqualTo(8L);
+    assertThat(other.total()).isEqualTo(5L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_noShards_throws() {
+    new ShardedCounter(memcache, "count", 0, 1000);
+  }
+}
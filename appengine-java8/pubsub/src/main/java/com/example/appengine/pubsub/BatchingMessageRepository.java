@@ -0,0 +1,282 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.pubsub;
+
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.KeyFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Storage for Message objects that groups the messages saved by concurrent push requests into
+ * multi-entity Datastore puts.
+ *
+ * <p>The first request to arrive while no batch is open waits up to {@code maxDelayMillis}, or
+ * until {@code maxBatchSize} messages have been queued, then writes them all in one put with
+ * incomplete keys, so Datastore allocates their ids in the same call. Every request still
+ * returns from {@link #save} only once its own message is stored, so a push is only
+ * acknowledged after it is persisted.
+ */
+public class BatchingMessageRepository implements MessageRepository {
+
+  private static final Logger LOGGER = Logger.getLogger(BatchingMessageRepository.class.getName());
+  // Datastore accepts at most this many entities in one commit.
+  private static final int MAX_ENTITIES_PER_PUT = 500;
+  private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+  private static final long DEFAULT_MAX_DELAY_MILLIS = 20;
+
+  private static BatchingMessageRepository instance;
+
+  private final Datastore datastore;
+  private final KeyFactory keyFactory;
+  private final MessageRepositoryImpl store;
+  private final int maxBatchSize;
+  private final long maxDelayMillis;
+
+  private final Object lock = new Object();
+  private List<Pending> queue = new ArrayList<>();
+  private boolean batchOpen;
+  private final Stats stats = new Stats();
+
+  BatchingMessageRepository(
+      Datastore datastore, MessageRepositoryImpl store, int maxBatchSize, long maxDelayMillis) {
+    if (maxBatchSize < 1 || maxBatchSize > MAX_ENTITIES_PER_PUT) {
+      throw new IllegalArgumentException(
+          "maxBatchSize must be between 1 and " + MAX_ENTITIES_PER_PUT);
+    }
+    this.datastore = datastore;
+    this.keyFactory = datastore.newKeyFactory().setKind(MessageRepositoryImpl.MESSAGES_KIND);
+    this.store = store;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayMillis = maxDelayMillis;
+  }
+
+  // retrieve a singleton instance, sized by the PUBSUB_BATCH_SIZE and PUBSUB_BATCH_DELAY_MS
+  // environment variables
+  public static synchronized BatchingMessageRepository getInstance() {
+    if (instance == null) {
+      MessageRepositoryImpl store = MessageRepositoryImpl.getInstance();
+      instance =
+          new BatchingMessageRepository(
+              store.getDatastoreInstance(),
+              store,
+              intEnv("PUBSUB_BATCH_SIZE", DEFAULT_MAX_BATCH_SIZE),
+              intEnv("PUBSUB_BATCH_DELAY_MS", (int) DEFAULT_MAX_DELAY_MILLIS));
+    }
+    return instance;
+  }
+
+  private static int intEnv(String name, int defaultValue) {
+    String value = System.getenv(name);
+    return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+  }
+
+  @Override
+  public void save(Message message) {
+    Pending pending = new Pending(message, MessageRepositoryImpl.newEntity(keyFactory, message));
+    boolean leader;
+    synchronized (lock) {
+      queue.add(pending);
+      leader = !batchOpen;
+      batchOpen = true;
+      if (queue.size() >= maxBatchSize) {
+        lock.notifyAll();
+      }
+    }
+    if (leader) {
+      flush(awaitBatch());
+    }
+    try {
+      pending.stored.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Waits until the open batch is full or has waited {@code maxDelayMillis}, then closes it.
+   */
+  private List<Pending> awaitBatch() {
+    synchronized (lock) {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+      long remaining;
+      while (queue.size() < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0) {
+        try {
+          TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      List<Pending> batch = queue;
+      queue = new ArrayList<>();
+      batchOpen = false;
+      return batch;
+    }
+  }
+
+  private void flush(List<Pending> batch) {
+    long start = System.nanoTime();
+    for (int from = 0; from < batch.size(); from += MAX_ENTITIES_PER_PUT) {
+      List<Pending> chunk =
+          batch.subList(from, Math.min(batch.size(), from + MAX_ENTITIES_PER_PUT));
+      FullEntity<?>[] entities = new FullEntity<?>[chunk.size()];
+      for (int i = 0; i < entities.length; i++) {
+        entities[i] = chunk.get(i).entity;
+      }
+      try {
+        datastore.put(entities);
+        for (Pending pending : chunk) {
+          store.stored(pending.message);
+          pending.stored.complete(null);
+        }
+      } catch (RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Failed to store a batch of " + entities.length + " messages", e);
+        chunk.forEach(pending -> pending.stored.completeExceptionally(e));
+      }
+    }
+    long end = System.nanoTime();
+    stats.record(batch, start, end);
+    LOGGER.fine(() -> String.format(
+        "Stored %d messages in %.1f ms", batch.size(), (end - start) / 1e6));
+  }
+
+  @Override
+  public List<Message> retrieve(int limit) {
+    return store.retrieve(limit);
+  }
+
+  /**
+   * Returns a snapshot of the batch sizes and latencies so far.
+   */
+  public Stats.Snapshot stats() {
+    return stats.snapshot();
+  }
+
+  private static class Pending {
+    final Message message;
+    final FullEntity<?> entity;
+    final long queuedNanos = System.nanoTime();
+    final CompletableFuture<Void> stored = new CompletableFuture<>();
+
+    Pending(Message message, FullEntity<?> entity) {
+      this.message = message;
+      this.entity = entity;
+    }
+  }
+
+  /**
+   * Batch sizes, flush latencies and the time messages spend waiting for their batch.
+   */
+  public static class Stats {
+    private long batches;
+    private long messages;
+    private int maxBatchSize;
+    private long flushNanos;
+    private long maxFlushNanos;
+    private long waitNanos;
+
+    private synchronized void record(List<Pending> batch, long start, long end) {
+      batches++;
+      messages += batch.size();
+      maxBatchSize = Math.max(maxBatchSize, batch.size());
+      flushNanos += end - start;
+      maxFlushNanos = Math.max(maxFlushNanos, end - start);
+      for (Pending pending : batch) {
+        waitNanos += end - pending.queuedNanos;
+      }
+    }
+
+    private synchronized Snapshot snapshot() {
+      return new Snapshot(batches, messages, maxBatchSize, flushNanos, maxFlushNanos, waitNanos);
+    }
+
+    /**
+     * The stats at one point in time.
+     */
+    public static class Snapshot {
+      private final long batches;
+      private final long messages;
+      private final int maxBatchSize;
+      private final long flushNanos;
+      private final long maxFlushNanos;
+      private final long waitNanos;
+
+      Snapshot(
+          long batches,
+          long messages,
+          int maxBatchSize,
+          long flushNanos,
+          long maxFlushNanos,
+          long waitNanos) {
+        this.batches = batches;
+        this.messages = messages;
+        this.maxBatchSize = maxBatchSize;
+        this.flushNanos = flushNanos;
+        this.maxFlushNanos = maxFlushNanos;
+        this.waitNanos = waitNanos;
+      }
+
+      public long batches() {
+        return batches;
+      }
+
+      public long messages() {
+        return messages;
+      }
+
+      public int maxBatchSize() {
+        return maxBatchSize;
+      }
+
+      public double averageBatchSize() {
+        return batches == 0 ? 0 : (double) messages / batches;
+      }
+
+      public double averageFlushMillis() {
+        return batches == 0 ? 0 : flushNanos / 1e6 / batches;
+      }
+
+      public double maxFlushMillis() {
+        return maxFlushNanos / 1e6;
+      }
+
+      /** The average time from a message being queued to it being stored. */
+      public double averageSaveMillis() {
+        return messages == 0 ? 0 : waitNanos / 1e6 / messages;
+      }
+
+      @Override
+      public String toString() {
+        return String.format(
+            "%d messages in %d batches (avg %.1f, max %d); flush avg %.1f ms, max %.1f ms; "
+                + "save avg %.1f ms",
+            messages, batches, averageBatchSize(), maxBatchSize, averageFlushMillis(),
+            maxFlushMillis(), averageSaveMillis());
+      }
+    }
+  }
+}
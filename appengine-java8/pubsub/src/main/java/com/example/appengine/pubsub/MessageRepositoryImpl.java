@@ -20,30 +20,62 @@ package com.example.appengine.pubsub;
 import com.google.cloud.datastore.Datastore;
 import com.google.cloud.datastore.DatastoreOptions;
 import com.google.cloud.datastore.Entity;
-import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.EntityQuery;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.IncompleteKey;
 import com.google.cloud.datastore.KeyFactory;
 import com.google.cloud.datastore.Query;
 import com.google.cloud.datastore.QueryResults;
 import com.google.cloud.datastore.StructuredQuery;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
-/** Storage for Message objects using Cloud Datastore. */
+/**
+ * Storage for Message objects using Cloud Datastore.
+ *
+ * <p>The most recent messages are also kept in memory, filled as messages are saved, so that
+ * showing them does not need a Datastore query. The buffer is loaded from Datastore the first time
+ * it is read, and then topped up at most every {@code PUBSUB_CACHE_REFRESH_MS} milliseconds to pick
+ * up messages saved by other instances. A top-up reads back to the oldest message the buffer
+ * holds, since other instances may save messages out of publish time order, and messages the
+ * buffer already holds are skipped by id.
+ */
 public class MessageRepositoryImpl implements MessageRepository {
 
   private static MessageRepositoryImpl instance;
 
-  private String messagesKind = "messages";
-  private KeyFactory keyFactory = getDatastoreInstance().newKeyFactory().setKind(messagesKind);
+  static final String MESSAGES_KIND = "messages";
+  private static final int RECENT_MESSAGES = 100;
+  private static final long DEFAULT_REFRESH_MILLIS = 30_000;
+
+  private final Datastore datastore;
+  private String messagesKind = MESSAGES_KIND;
+  private KeyFactory keyFactory;
+
+  private final RecentMessages recent = new RecentMessages(RECENT_MESSAGES);
+  private final long refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis());
+  private final Object refreshLock = new Object();
+  private volatile boolean loaded;
+  private volatile long refreshedAtNanos;
 
   @Override
   public void save(Message message) {
-    // Save message to "messages"
+    // Save message to "messages", letting Datastore allocate its id as part of the put
     Datastore datastore = getDatastoreInstance();
-    Key key = datastore.allocateId(keyFactory.newKey());
+    datastore.put(newEntity(keyFactory, message));
+    stored(message);
+  }
+
+  /** Record a message that has been written to Datastore, such as by a batched put. */
+  void stored(Message message) {
+    recent.add(message);
+  }
 
-    Entity.Builder messageEntityBuilder = Entity.newBuilder(key)
-        .set("messageId", message.getMessageId());
+  /** Builds the entity for a message, with an incomplete key from {@code keyFactory}. */
+  static FullEntity<IncompleteKey> newEntity(KeyFactory keyFactory, Message message) {
+    FullEntity.Builder<IncompleteKey> messageEntityBuilder =
+        FullEntity.newBuilder(keyFactory.newKey()).set("messageId", message.getMessageId());
 
     if (message.getData() != null) {
       messageEntityBuilder = messageEntityBuilder.set("data", message.getData());
@@ -52,20 +84,70 @@ public class MessageRepositoryImpl implements MessageRepository {
     if (message.getPublishTime() != null) {
       messageEntityBuilder = messageEntityBuilder.set("publishTime", message.getPublishTime());
     }
-    datastore.put(messageEntityBuilder.build());
+    return messageEntityBuilder.build();
   }
 
   @Override
   public List<Message> retrieve(int limit) {
+    refreshIfStale();
+    List<Message> messages = recent.newest(limit);
+    if (messages.size() < limit && recent.size() == recent.capacity() && !messages.isEmpty()) {
+      // Datastore may hold older messages than the buffer; continue from the oldest one shown
+      String oldest = messages.get(messages.size() - 1).getPublishTime();
+      if (oldest != null) {
+        messages.addAll(retrieveOlderThan(oldest, limit - messages.size()));
+      }
+    }
+    return messages;
+  }
+
+  /**
+   * Retrieve the stored messages published before {@code publishTime}, most recent first. The
+   * publish time of the last message of one call is the cursor for the next.
+   * @param publishTime exclusive upper bound on the publish time
+   * @param limit number of messages
+   * @return list of messages
+   */
+  public List<Message> retrieveOlderThan(String publishTime, int limit) {
+    return query(StructuredQuery.PropertyFilter.lt("publishTime", publishTime), limit);
+  }
+
+  private void refreshIfStale() {
+    if (loaded && (refreshNanos <= 0 || System.nanoTime() - refreshedAtNanos < refreshNanos)) {
+      return;
+    }
+    synchronized (refreshLock) {
+      if (!loaded) {
+        recent.reset(query(null, recent.capacity()));
+        loaded = true;
+      } else if (refreshNanos > 0 && System.nanoTime() - refreshedAtNanos >= refreshNanos) {
+        // Until the buffer is full, anything Datastore returns belongs in it
+        String oldest = recent.size() < recent.capacity() ? null : recent.oldestPublishTime();
+        StructuredQuery.Filter window =
+            oldest == null ? null : StructuredQuery.PropertyFilter.ge("publishTime", oldest);
+        List<Message> messages = query(window, recent.capacity());
+        for (int i = messages.size() - 1; i >= 0; i--) {
+          recent.add(messages.get(i));
+        }
+      } else {
+        return;
+      }
+      refreshedAtNanos = System.nanoTime();
+    }
+  }
+
+  private List<Message> query(StructuredQuery.Filter filter, int limit) {
     // Get Message saved in Datastore
     Datastore datastore = getDatastoreInstance();
-    Query<Entity> query =
+    EntityQuery.Builder queryBuilder =
         Query.newEntityQueryBuilder()
             .setKind(messagesKind)
             .setLimit(limit)
-            .addOrderBy(StructuredQuery.OrderBy.desc("publishTime"))
-            .build();
-    QueryResults<Entity> results = datastore.run(query);
+            .addOrderBy(StructuredQuery.OrderBy.desc("publishTime"));
+    if (filter != null) {
+      queryBuilder.setFilter(filter);
+    }
+    QueryResults<Entity> results = datastore.run(queryBuilder.build());
 
     List<Message> messages = new ArrayList<>();
     while (results.hasNext()) {
@@ -84,11 +166,22 @@ public class MessageRepositoryImpl implements MessageRepository {
     return messages;
   }
 
-  private Datastore getDatastoreInstance() {
-    return DatastoreOptions.getDefaultInstance().getService();
+  Datastore getDatastoreInstance() {
+    return datastore;
+  }
+
+  private static long refreshMillis() {
+    String value = System.getenv("PUBSUB_CACHE_REFRESH_MS");
+    return value == null || value.isEmpty() ? DEFAULT_REFRESH_MILLIS : Long.parseLong(value);
   }
 
   private MessageRepositoryImpl() {
+    this(DatastoreOptions.getDefaultInstance().getService());
+  }
+
+  MessageRepositoryImpl(Datastore datastore) {
+    this.datastore = datastore;
+    this.keyFactory = datastore.newKeyFactory().setKind(messagesKind);
   }
 
   // retrieve a singleton instance
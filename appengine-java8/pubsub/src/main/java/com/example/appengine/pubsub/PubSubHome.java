@@ -33,6 +33,15 @@ public class PubSubHome {
     return convertToHtmlTable(messageList);
   }
 
+  /**
+   * Describe how this instance has batched the messages it stored.
+   *
+   * @return batch sizes and flush latencies since the instance started
+   */
+  public static String getIngestStats() {
+    return BatchingMessageRepository.getInstance().stats().toString();
+  }
+
   private static String convertToHtmlTable(List<Message> messages) {
     StringBuilder sb = new StringBuilder();
     for (Message message : messages) {
@@ -16,12 +16,12 @@
 
 package com.example.appengine.pubsub;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
-import java.util.stream.Collectors;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
@@ -53,22 +53,62 @@ public class PubSubPush extends HttpServlet {
   }
 
   private Message getMessage(HttpServletRequest request) throws IOException {
-    String requestBody = request.getReader().lines().collect(Collectors.joining("\n"));
-    JsonElement jsonRoot = jsonParser.parse(requestBody);
-    String messageStr = jsonRoot.getAsJsonObject().get("message").toString();
-    Message message = gson.fromJson(messageStr, Message.class);
-    // decode from base64
-    String decoded = decode(message.getData());
-    message.setData(decoded);
+    return readMessage(request.getReader());
+  }
+
+  /**
+   * Reads the "message" field of a push request body in one streaming pass, decoding its data
+   * from base64 as it goes.
+   */
+  static Message readMessage(Reader body) throws IOException {
+    JsonReader reader = new JsonReader(body);
+    Message message = null;
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if ("message".equals(reader.nextName()) && reader.peek() != JsonToken.NULL) {
+        message = readMessageFields(reader);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+    if (message == null) {
+      throw new IOException("Push request has no message");
+    }
+    return message;
+  }
+
+  private static Message readMessageFields(JsonReader reader) throws IOException {
+    Message message = new Message(null);
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (reader.peek() == JsonToken.NULL) {
+        reader.nextNull();
+        continue;
+      }
+      switch (name) {
+        case "messageId":
+          message.setMessageId(reader.nextString());
+          break;
+        case "publishTime":
+          message.setPublishTime(reader.nextString());
+          break;
+        case "data":
+          message.setData(decode(reader.nextString()));
+          break;
+        default:
+          reader.skipValue();
+      }
+    }
+    reader.endObject();
     return message;
   }
 
-  private String decode(String data) {
-    return new String(Base64.getDecoder().decode(data));
+  private static String decode(String data) {
+    return new String(Base64.getDecoder().decode(data), StandardCharsets.UTF_8);
   }
 
-  private final Gson gson = new Gson();
-  private final JsonParser jsonParser = new JsonParser();
   private MessageRepository messageRepository;
 
   PubSubPush(MessageRepository messageRepository) {
@@ -76,6 +116,6 @@ public class PubSubPush extends HttpServlet {
   }
 
   public PubSubPush() {
-    this.messageRepository = MessageRepositoryImpl.getInstance();
+    this.messageRepository = BatchingMessageRepository.getInstance();
   }
 }
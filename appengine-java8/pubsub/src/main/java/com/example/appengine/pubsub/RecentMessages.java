@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.pubsub;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * A bounded buffer of the most recently published messages stored, ordered by publish time.
+ * When the buffer is full the message published first is evicted, and a message published before
+ * every buffered one is not added. Each message id is held at most once.
+ */
+class RecentMessages {
+  // Least recent first; messages without a publish time sort first, and ties by message id.
+  private static final Comparator<Message> OLDEST_FIRST =
+      Comparator.comparing(
+          Message::getPublishTime, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+          .thenComparing(
+              Message::getMessageId, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+
+  private final int capacity;
+  private final TreeSet<Message> messages = new TreeSet<>(OLDEST_FIRST);
+  private final Set<String> messageIds = new HashSet<>();
+
+  RecentMessages(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.capacity = capacity;
+  }
+
+  int capacity() {
+    return capacity;
+  }
+
+  synchronized int size() {
+    return messages.size();
+  }
+
+  /**
+   * Add a message, evicting the least recently published one if the buffer is full. A message
+   * whose id is already in the buffer, or that was published before every message in a full
+   * buffer, is ignored.
+   */
+  synchronized void add(Message message) {
+    String messageId = message.getMessageId();
+    if (messageId != null && messageIds.contains(messageId)) {
+      return;
+    }
+    if (messages.size() == capacity) {
+      if (OLDEST_FIRST.compare(message, messages.first()) < 0) {
+        return;
+      }
+      forget(messages.pollFirst());
+    }
+    if (messages.add(message) && messageId != null) {
+      messageIds.add(messageId);
+    }
+  }
+
+  private void forget(Message message) {
+    if (message.getMessageId() != null) {
+      messageIds.remove(message.getMessageId());
+    }
+  }
+
+  /** Replace the contents of the buffer with {@code messages}. */
+  synchronized void reset(List<Message> messages) {
+    this.messages.clear();
+    messageIds.clear();
+    for (Message message : messages) {
+      add(message);
+    }
+  }
+
+  /** The least recent publish time in the buffer, or null if there is none. */
+  synchronized String oldestPublishTime() {
+    for (Message message : messages) {
+      if (message.getPublishTime() != null) {
+        return message.getPublishTime();
+      }
+    }
+    return null;
+  }
+
+  /** The {@code limit} most recent messages in the buffer, most recent first. */
+  synchronized List<Message> newest(int limit) {
+    List<Message> newest = new ArrayList<>(Math.min(limit, messages.size()));
+    for (Iterator<Message> it = messages.descendingIterator(); it.hasNext()
+        && newest.size() < limit; ) {
+      newest.add(it.next());
+    }
+    return newest;
+  }
+}
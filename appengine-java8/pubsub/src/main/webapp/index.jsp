@@ -20,5 +20,6 @@
       </tr>
       <%= PubSubHome.getReceivedMessages() %>
     </table>
+    <p>Ingest on this instance: <%= PubSubHome.getIngestStats() %></p>
   </body>
 </html>
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.pubsub;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.FullEntity;
+import com.google.cloud.datastore.KeyFactory;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link BatchingMessageRepository}. */
+@RunWith(JUnit4.class)
+public class BatchingMessageRepositoryTest {
+
+  private final List<List<FullEntity<?>>> puts = Collections.synchronizedList(new ArrayList<>());
+  private volatile RuntimeException putFailure;
+  private Datastore datastore;
+  private MessageRepositoryImpl store;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    // A Datastore that records the entities of each multi-entity put, or throws putFailure.
+    datastore = (Datastore) Proxy.newProxyInstance(
+        Datastore.class.getClassLoader(),
+        new Class<?>[] {Datastore.class},
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "newKeyFactory":
+              return new KeyFactory("test-project");
+            case "put":
+              if (putFailure != null) {
+                throw putFailure;
+              }
+              puts.add(Arrays.asList((FullEntity<?>[]) args[0]));
+              return Collections.emptyList();
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+    store = new MessageRepositoryImpl(datastore);
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private List<Future<?>> saveConcurrently(BatchingMessageRepository repository, int count) {
+    List<Future<?>> saves = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Message message = new Message("id-" + i);
+      message.setData("data-" + i);
+      saves.add(executor.submit(() -> repository.save(message)));
+    }
+    return saves;
+  }
+
+  @Test
+  public void save_batchFull_writesOnePutWithoutWaitingForDelay() throws Exception {
+    BatchingMessageRepository repository =
+        new BatchingMessageRepository(datastore, store, 3, 60_000);
+
+    for (Future<?> save : saveConcurrently(repository, 3)) {
+      save.get(10, TimeUnit.SECONDS);
+    }
+
+    assertThat(puts).hasSize(1);
+    assertThat(puts.get(0)).hasSize(3);
+    assertThat(repository.stats().batches()).isEqualTo(1L);
+    assertThat(repository.stats().messages()).isEqualTo(3L);
+  }
+
+  @Test
+  public void save_batchNotFull_writesAfterDelay() throws Exception {
+    BatchingMessageRepository repository =
+        new BatchingMessageRepository(datastore, store, 100, 100);
+
+    long start = System.nanoTime();
+    repository.save(new Message("id-0"));
+    long elapsedNanos = System.nanoTime() - start;
+
+    assertThat(elapsedNanos >= TimeUnit.MILLISECONDS.toNanos(100)).isTrue();
+    assertThat(puts).hasSize(1);
+    assertThat(puts.get(0)).hasSize(1);
+    assertThat(puts.get(0).get(0).getString("messageId")).isEqualTo("id-0");
+  }
+
+  @Test
+  public void save_putFails_failsEveryCallerInBatch() throws Exception {
+    RuntimeException failure = new IllegalStateException("Datastore unavailable");
+    putFailure = failure;
+    BatchingMessageRepository repository =
+        new BatchingMessageRepository(datastore, store, 3, 60_000);
+
+    for (Future<?> save : saveConcurrently(repository, 3)) {
+      try {
+        save.get(10, TimeUnit.SECONDS);
+        throw new AssertionError("save should have failed");
+      } catch (ExecutionException e) {
+        assertThat(e.getCause()).isSameAs(failure);
+      }
+    }
+    assertThat(puts).isEmpty();
+
+    // The failed batch is closed, so the next save starts a new one.
+    putFailure = null;
+    for (Future<?> save : saveConcurrently(repository, 3)) {
+      save.get(10, TimeUnit.SECONDS);
+    }
+    assertThat(puts).hasSize(1);
+    assertThat(repository.stats().batches()).isEqualTo(2L);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_batchLargerThanOnePut_throws() {
+    new BatchingMessageRepository(datastore, store, 501, 20);
+  }
+}
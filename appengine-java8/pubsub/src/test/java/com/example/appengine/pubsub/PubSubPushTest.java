@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.pubsub;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PubSubPush}. */
+@RunWith(JUnit4.class)
+public class PubSubPushTest {
+
+  private static Message read(String body) throws IOException {
+    return PubSubPush.readMessage(new StringReader(body));
+  }
+
+  private static String base64(String data) {
+    return Base64.getEncoder().encodeToString(data.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void readMessage_pushRequest_readsFields() throws Exception {
+    Message message = read("{\"message\":{\"messageId\":\"42\","
+        + "\"publishTime\":\"2018-06-01T00:00:00Z\",\"data\":\"" + base64("hello") + "\"},"
+        + "\"subscription\":\"projects/p/subscriptions/s\"}");
+
+    assertThat(message.getMessageId()).isEqualTo("42");
+    assertThat(message.getPublishTime()).isEqualTo("2018-06-01T00:00:00Z");
+    assertThat(message.getData()).isEqualTo("hello");
+  }
+
+  @Test
+  public void readMessage_utf8Data_decodesAsUtf8() throws Exception {
+    String data = "héllo wörld ✓ 😀";
+
+    Message message = read("{\"message\":{\"messageId\":\"1\",\"data\":\"" + base64(data) + "\"}}");
+
+    assertThat(message.getData()).isEqualTo(data);
+  }
+
+  @Test
+  public void readMessage_nullFields_areLeftUnset() throws Exception {
+    Message message = read(
+        "{\"message\":{\"messageId\":\"1\",\"publishTime\":null,\"data\":null}}");
+
+    assertThat(message.getMessageId()).isEqualTo("1");
+    assertThat(message.getPublishTime()).isNull();
+    assertThat(message.getData()).isNull();
+  }
+
+  @Test
+  public void readMessage_unknownFields_areSkipped() throws Exception {
+    Message message = read("{\"subscription\":\"s\",\"deliveryAttempt\":3,"
+        + "\"message\":{\"attributes\":{\"messageId\":\"not-this\",\"nested\":[1,{\"a\":null}]},"
+        + "\"messageId\":\"7\",\"message_id\":\"7\",\"orderingKey\":\"\","
+        + "\"data\":\"" + base64("payload") + "\"},"
+        + "\"trailing\":[{\"message\":\"not-this\"}]}");
+
+    assertThat(message.getMessageId()).isEqualTo("7");
+    assertThat(message.getPublishTime()).isNull();
+    assertThat(message.getData()).isEqualTo("payload");
+  }
+
+  @Test(expected = IOException.class)
+  public void readMessage_noMessage_throws() throws Exception {
+    read("{\"subscription\":\"projects/p/subscriptions/s\"}");
+  }
+
+  @Test(expected = IOException.class)
+  public void readMessage_nullMessage_throws() throws Exception {
+    read("{\"message\":null}");
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.appengine.pubsub;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link RecentMessages}. */
+@RunWith(JUnit4.class)
+public class RecentMessagesTest {
+
+  private static Message message(String messageId, String publishTime) {
+    Message message = new Message(messageId);
+    message.setPublishTime(publishTime);
+    return message;
+  }
+
+  private static List<String> ids(List<Message> messages) {
+    List<String> ids = new ArrayList<>();
+    for (Message message : messages) {
+      ids.add(message.getMessageId());
+    }
+    return ids;
+  }
+
+  @Test
+  public void newest_outOfOrderAdds_areOrderedByPublishTime() {
+    RecentMessages recent = new RecentMessages(5);
+
+    recent.add(message("b", "2018-06-01T00:00:02Z"));
+    recent.add(message("d", "2018-06-01T00:00:04Z"));
+    recent.add(message("a", "2018-06-01T00:00:01Z"));
+    recent.add(message("c", "2018-06-01T00:00:03Z"));
+
+    assertThat(ids(recent.newest(10))).containsExactly("d", "c", "b", "a").inOrder();
+    assertThat(ids(recent.newest(2))).containsExactly("d", "c").inOrder();
+    assertThat(recent.oldestPublishTime()).isEqualTo("2018-06-01T00:00:01Z");
+  }
+
+  @Test
+  public void add_full_evictsLeastRecentlyPublished() {
+    RecentMessages recent = new RecentMessages(3);
+    recent.add(message("c", "2018-06-01T00:00:03Z"));
+    recent.add(message("e", "2018-06-01T00:00:05Z"));
+    recent.add(message("f", "2018-06-01T00:00:06Z"));
+
+    // Added last, but published before "e" and "f", so "c" is the one evicted.
+    recent.add(message("d", "2018-06-01T00:00:04Z"));
+
+    assertThat(ids(recent.newest(10))).containsExactly("f", "e", "d").inOrder();
+    assertThat(recent.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void add_full_dropsMessagesOlderThanTheBuffer() {
+    RecentMessages recent = new RecentMessages(3);
+    recent.add(message("c", "2018-06-01T00:00:03Z"));
+    recent.add(message("d", "2018-06-01T00:00:04Z"));
+    recent.add(message("e", "2018-06-01T00:00:05Z"));
+
+    // A redelivered old push, or a top-up reaching back past the buffer.
+    recent.add(message("a", "2018-06-01T00:00:01Z"));
+
+    assertThat(ids(recent.newest(10))).containsExactly("e", "d", "c").inOrder();
+    assertThat(recent.oldestPublishTime()).isEqualTo("2018-06-01T00:00:03Z");
+  }
+
+  @Test
+  public void add_sameId_isIgnored() {
+    RecentMessages recent = new RecentMessages(3);
+
+    recent.add(message("a", "2018-06-01T00:00:01Z"));
+    recent.add(message("a", "2018-06-01T00:00:01Z"));
+    recent.add(message("a", "2018-06-01T00:00:09Z"));
+
+    assertThat(recent.size()).isEqualTo(1);
+    assertThat(recent.newest(10).get(0).getPublishTime()).isEqualTo("2018-06-01T00:00:01Z");
+  }
+
+  @Test
+  public void add_noPublishTime_sortsOldest() {
+    RecentMessages recent = new RecentMessages(2);
+    recent.add(message("x", null));
+    recent.add(message("a", "2018-06-01T00:00:01Z"));
+
+    assertThat(recent.oldestPublishTime()).isEqualTo("2018-06-01T00:00:01Z");
+
+    recent.add(message("b", "2018-06-01T00:00:02Z"));
+
+    assertThat(ids(recent.newest(10))).containsExactly("b", "a").inOrder();
+  }
+
+  @Test
+  public void reset_replacesContents() {
+    RecentMessages recent = new RecentMessages(2);
+    recent.add(message("z", "2018-06-01T00:00:09Z"));
+
+    recent.reset(Arrays.asList(
+        message("c", "2018-06-01T00:00:03Z"),
+        message("b", "2018-06-01T00:00:02Z"),
+        message("a", "2018-06-01T00:00:01Z")));
+
+    assertThat(ids(recent.newest(10))).containsExactly("c", "b").inOrder();
+    assertThat(recent.oldestPublishTime()).isEqualTo("2018-06-01T00:00:02Z");
+  }
+}
@@ -16,14 +16,32 @@
 
 package com.example.dataflow;
 
+import com.google.cloud.ByteArray;
+import com.google.cloud.spanner.Mutation;
 import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.Type;
+import com.google.cloud.spanner.Value;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.apache.beam.sdk.coders.DefaultCoder;
+import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.transforms.Combine;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 
 /**
- * Estimates the size of the {@code Struct}.
+ * Estimates the size of the {@code Struct}s in a collection.
+ *
+ * <p>{@link #create()} outputs one partial sum per window per bundle rather than one size per
+ * row, so summing them shuffles little. {@link #sampled(double)} estimates the total from a
+ * Bernoulli sample of the rows, with a confidence interval.
  */
 public class EstimateSize extends PTransform<PCollection<Struct>, PCollection<Long>> {
 
@@ -31,6 +49,22 @@ public class EstimateSize extends PTransform<PCollection<Struct>, PCollection<Lo
     return new EstimateSize();
   }
 
+  /**
+   * Returns a transform for rows whose first column holds the name of their table, which outputs
+   * partial sums of the sizes of the remaining columns keyed by table name.
+   */
+  public static PerTable perTable() {
+    return new PerTable();
+  }
+
+  /**
+   * Returns a transform that estimates the total size from each row with probability
+   * {@code fraction}.
+   */
+  public static Sampled sampled(double fraction) {
+    return new Sampled(fraction, true);
+  }
+
   private EstimateSize() {
   }
 
@@ -40,46 +74,406 @@ public class EstimateSize extends PTransform<PCollection<Struct>, PCollection<Lo
   }
 
   /**
-   * Estimates the size of a Spanner row. For simplicity, arrays and structs aren't supported.
+   * Returns the estimated size of a Spanner row in bytes: the encoded length of strings and
+   * bytes, and a fixed size for other scalars, summed over arrays and structs. Nulls are free.
+   */
+  public static long estimateSize(Struct row) {
+    return estimateSize(row, 0);
+  }
+
+  /**
+   * Returns the estimated size of the columns of {@code row} from {@code firstColumn} on.
+   */
+  static long estimateSize(Struct row, int firstColumn) {
+    long sum = 0;
+    for (int i = firstColumn; i < row.getColumnCount(); i++) {
+      if (row.isNull(i)) {
+        continue;
+      }
+
+      Type type = row.getColumnType(i);
+      switch (type.getCode()) {
+        case BOOL:
+          sum += 1;
+          break;
+        case INT64:
+        case FLOAT64:
+          sum += 8;
+          break;
+        case TIMESTAMP:
+        case DATE:
+          sum += 12;
+          break;
+        case BYTES:
+          sum += row.getBytes(i).length();
+          break;
+        case STRING:
+          sum += utf8Length(row.getString(i));
+          break;
+        case ARRAY:
+          sum += estimateArraySize(row, i, type.getArrayElementType());
+          break;
+        case STRUCT:
+          // Spanner only returns structs as the elements of an array.
+          throw new IllegalArgumentException("Struct columns outside arrays are not supported.");
+        default:
+          throw new IllegalArgumentException("Unsupported type: " + type);
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Returns the estimated size of the values in a write {@code mutation}, sized like the columns
+   * of a row. Array values are approximated by the length of their text.
+   */
+  static long estimateSize(Mutation mutation) {
+    long sum = 0;
+    for (Value value : mutation.getValues()) {
+      if (value.isNull()) {
+        continue;
+      }
+
+      switch (value.getType().getCode()) {
+        case BOOL:
+          sum += 1;
+          break;
+        case INT64:
+        case FLOAT64:
+          sum += 8;
+          break;
+        case TIMESTAMP:
+        case DATE:
+          sum += 12;
+          break;
+        case BYTES:
+          sum += value.getBytes().length();
+          break;
+        case STRING:
+          sum += utf8Length(value.getString());
+          break;
+        default:
+          sum += value.toString().length();
+          break;
+      }
+    }
+    return sum;
+  }
+
+  private static long estimateArraySize(Struct row, int column, Type elementType) {
+    switch (elementType.getCode()) {
+      case BOOL:
+        return countNonNull(row.getBooleanList(column));
+      case INT64:
+        return 8 * countNonNull(row.getLongList(column));
+      case FLOAT64:
+        return 8 * countNonNull(row.getDoubleList(column));
+      case TIMESTAMP:
+        return 12 * countNonNull(row.getTimestampList(column));
+      case DATE:
+        return 12 * countNonNull(row.getDateList(column));
+      case BYTES: {
+        long sum = 0;
+        for (ByteArray bytes : row.getBytesList(column)) {
+          sum += bytes == null ? 0 : bytes.length();
+        }
+        return sum;
+      }
+      case STRING: {
+        long sum = 0;
+        for (String string : row.getStringList(column)) {
+          sum += string == null ? 0 : utf8Length(string);
+        }
+        return sum;
+      }
+      case STRUCT: {
+        long sum = 0;
+        for (Struct struct : row.getStructList(column)) {
+          sum += struct == null ? 0 : estimateSize(struct);
+        }
+        return sum;
+      }
+      default:
+        throw new IllegalArgumentException("Unsupported array element type: " + elementType);
+    }
+  }
+
+  private static long countNonNull(List<?> values) {
+    long count = 0;
+    for (Object value : values) {
+      if (value != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the length of {@code string} encoded as UTF-8, without encoding it.
+   */
+  static long utf8Length(String string) {
+    long length = 0;
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        length += 1;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+          && Character.isLowSurrogate(string.charAt(i + 1))) {
+        // A surrogate pair is one code point of four bytes.
+        length += 4;
+        i++;
+      } else {
+        length += 3;
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Estimates the size of Spanner rows, and outputs the sum for each window when the bundle
+   * finishes.
    */
   public static class EstimateStructSizeFn extends DoFn<Struct, Long> {
 
+    private transient Map<BoundedWindow, Long> sums;
+
+    @StartBundle
+    public void startBundle() {
+      sums = new HashMap<>();
+    }
+
     @ProcessElement
-    public void processElement(ProcessContext c) throws Exception {
+    public void processElement(ProcessContext c, BoundedWindow window) throws Exception {
+      sums.merge(window, estimateSize(c.element()), Long::sum);
+    }
+
+    @FinishBundle
+    public void finishBundle(FinishBundleContext c) {
+      for (Map.Entry<BoundedWindow, Long> sum : sums.entrySet()) {
+        c.output(sum.getValue(), sum.getKey().maxTimestamp(), sum.getKey());
+      }
+      sums = null;
+    }
+  }
+
+  /**
+   * Estimates the size of rows tagged with their table name, keyed by table.
+   */
+  public static class PerTable
+      extends PTransform<PCollection<Struct>, PCollection<KV<String, Long>>> {
+
+    private PerTable() {
+    }
+
+    @Override
+    public PCollection<KV<String, Long>> expand(PCollection<Struct> input) {
+      return input.apply(ParDo.of(new EstimateTableSizeFn()));
+    }
+  }
+
+  /**
+   * Estimates the size of rows whose first column is their table name, and outputs the sum for
+   * each table and window when the bundle finishes.
+   */
+  static class EstimateTableSizeFn extends DoFn<Struct, KV<String, Long>> {
+
+    private transient Map<BoundedWindow, Map<String, Long>> sums;
+
+    @StartBundle
+    public void startBundle() {
+      sums = new HashMap<>();
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c, BoundedWindow window) {
       Struct row = c.element();
-      long sum = 0;
-      for (int i = 0; i < row.getColumnCount(); i++) {
-        if (row.isNull(i)) {
-          continue;
-        }
+      sums.computeIfAbsent(window, w -> new HashMap<>())
+          .merge(row.getString(0), estimateSize(row, 1), Long::sum);
+    }
 
-        switch (row.getColumnType(i).getCode()) {
-          case BOOL:
-            sum += 1;
-            break;
-          case INT64:
-          case FLOAT64:
-            sum += 8;
-            break;
-          case TIMESTAMP:
-          case DATE:
-            sum += 12;
-            break;
-          case BYTES:
-            sum += row.getBytes(i).length();
-            break;
-          case STRING:
-            sum += row.getString(i).length();
-            break;
-          case ARRAY:
-            throw new IllegalArgumentException("Arrays are not supported :(");
-          case STRUCT:
-            throw new IllegalArgumentException("Structs are not supported :(");
-          default:
-            throw new IllegalArgumentException("Unsupported type :(");
+    @FinishBundle
+    public void finishBundle(FinishBundleContext c) {
+      for (Map.Entry<BoundedWindow, Map<String, Long>> window : sums.entrySet()) {
+        for (Map.Entry<String, Long> sum : window.getValue().entrySet()) {
+          c.output(KV.of(sum.getKey(), sum.getValue()), window.getKey().maxTimestamp(),
+              window.getKey());
         }
       }
-      c.output(sum);
+      sums = null;
+    }
+  }
+
+  /**
+   * Estimates the total size of a collection from a Bernoulli sample of its rows, as a single
+   * {@link Estimate}.
+   */
+  public static class Sampled extends PTransform<PCollection<Struct>, PCollection<Estimate>> {
+
+    private final double fraction;
+    private final boolean sampleRows;
+
+    private Sampled(double fraction, boolean sampleRows) {
+      if (!(fraction > 0 && fraction <= 1)) {
+        throw new IllegalArgumentException("Sampling fraction must be in (0, 1]: " + fraction);
+      }
+      this.fraction = fraction;
+      this.sampleRows = sampleRows;
+    }
+
+    /**
+     * Returns a transform for input that is already a Bernoulli sample with this fraction, for
+     * example from a {@code TABLESAMPLE BERNOULLI} query, so Spanner doesn't send every row.
+     */
+    public Sampled alreadySampled() {
+      return new Sampled(fraction, false);
+    }
+
+    @Override
+    public PCollection<Estimate> expand(PCollection<Struct> input) {
+      return input
+          .apply(ParDo.of(new SampleStructSizeFn(fraction, sampleRows)))
+          .apply(Combine.globally(new MergeEstimatesFn(fraction)));
+    }
+  }
+
+  /**
+   * A Horvitz-Thompson estimate of a total size from a Bernoulli sample: each sampled row stands
+   * for {@code 1 / fraction} rows, and the variance of the total is estimated as
+   * {@code (1 - fraction) / fraction^2} times the sum of the squared sampled sizes.
+   */
+  @DefaultCoder(SerializableCoder.class)
+  public static class Estimate implements Serializable {
+
+    private final double fraction;
+    private long sampledRows;
+    private double sum;
+    private double sumOfSquares;
+
+    public Estimate(double fraction) {
+      this.fraction = fraction;
+    }
+
+    void add(long size) {
+      sampledRows++;
+      sum += size;
+      sumOfSquares += (double) size * size;
+    }
+
+    void merge(Estimate other) {
+      sampledRows += other.sampledRows;
+      sum += other.sum;
+      sumOfSquares += other.sumOfSquares;
+    }
+
+    public long sampledRows() {
+      return sampledRows;
+    }
+
+    /**
+     * Returns the estimated total size in bytes.
+     */
+    public double total() {
+      return sum / fraction;
+    }
+
+    /**
+     * Returns the estimated standard error of {@link #total()}.
+     */
+    public double standardError() {
+      return Math.sqrt((1 - fraction) * sumOfSquares) / fraction;
+    }
+
+    /**
+     * Returns the half-width of the 95% confidence interval around {@link #total()}.
+     */
+    public double margin95() {
+      return 1.96 * standardError();
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.0f +/- %.0f (95%% confidence, %d rows sampled at %s)",
+          total(), margin95(), sampledRows, fraction);
+    }
+  }
+
+  /**
+   * Samples rows with probability {@code fraction}, unless the input is already sampled, and
+   * outputs the {@link Estimate} of each window when the bundle finishes.
+   */
+  static class SampleStructSizeFn extends DoFn<Struct, Estimate> {
+
+    private final double fraction;
+    private final boolean sampleRows;
+    private transient Random random;
+    private transient Map<BoundedWindow, Estimate> estimates;
+
+    SampleStructSizeFn(double fraction, boolean sampleRows) {
+      this.fraction = fraction;
+      this.sampleRows = sampleRows;
+    }
+
+    @Setup
+    public void setup() {
+      random = new Random();
+    }
+
+    @StartBundle
+    public void startBundle() {
+      estimates = new HashMap<>();
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c, BoundedWindow window) {
+      if (sampleRows && random.nextDouble() >= fraction) {
+        return;
+      }
+      estimates.computeIfAbsent(window, w -> new Estimate(fraction))
+          .add(estimateSize(c.element()));
+    }
+
+    @FinishBundle
+    public void finishBundle(FinishBundleContext c) {
+      for (Map.Entry<BoundedWindow, Estimate> estimate : estimates.entrySet()) {
+        c.output(estimate.getValue(), estimate.getKey().maxTimestamp(), estimate.getKey());
+      }
+      estimates = null;
+    }
+  }
+
+  static class MergeEstimatesFn extends Combine.CombineFn<Estimate, Estimate, Estimate> {
+
+    private final double fraction;
+
+    MergeEstimatesFn(double fraction) {
+      this.fraction = fraction;
+    }
+
+    @Override
+    public Estimate createAccumulator() {
+      return new Estimate(fraction);
+    }
+
+    @Override
+    public Estimate addInput(Estimate accumulator, Estimate input) {
+      accumulator.merge(input);
+      return accumulator;
+    }
+
+    @Override
+    public Estimate mergeAccumulators(Iterable<Estimate> accumulators) {
+      Estimate merged = createAccumulator();
+      for (Estimate accumulator : accumulators) {
+        merged.merge(accumulator);
+      }
+      return merged;
+    }
+
+    @Override
+    public Estimate extractOutput(Estimate accumulator) {
+      return accumulator;
     }
   }
 
@@ -20,6 +20,7 @@ import com.google.cloud.spanner.Struct;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.TextIO;
 import org.apache.beam.sdk.io.gcp.spanner.SpannerIO;
+import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
@@ -53,6 +54,9 @@ mvn exec:java \
                  --databaseId=my-database-id \
                  --table=my_table \
                  --output=path/to/output_file"
+
+Pass --samplePercent=1 to estimate the size of a large table from a 1% TABLESAMPLE of its rows;
+the output then holds the estimate and its 95% confidence interval.
 */
 public class SpannerRead {
 
@@ -81,6 +85,12 @@ public class SpannerRead {
     String getOutput();
 
     void setOutput(String value);
+
+    @Description("Percentage of rows to sample for the size estimate, or 0 to read every row")
+    @Default.Double(0)
+    double getSamplePercent();
+
+    void setSamplePercent(double value);
   }
 
 
@@ -90,6 +100,10 @@ public class SpannerRead {
 
     String instanceId = options.getInstanceId();
     String databaseId = options.getDatabaseId();
+    if (options.getSamplePercent() > 0) {
+      estimateSampled(p, options);
+      return;
+    }
     // [START spanner_dataflow_read]
     // Query for all the columns and rows in the specified Spanner table
     PCollection<Struct> records = p.apply(
@@ -101,9 +115,9 @@ public class SpannerRead {
 
 
     PCollection<Long> tableEstimatedSize = records
-        // Estimate the size of every row
+        // Estimate the size of every row, summed per bundle
         .apply(EstimateSize.create())
-        // Sum all the row sizes to get the total estimated size of the table
+        // Sum the per-bundle sizes to get the total estimated size of the table
         .apply(Sum.longsGlobally());
 
     // Write the total size to a file
@@ -113,4 +127,25 @@ public class SpannerRead {
 
     p.run().waitUntilFinish();
   }
+
+  /**
+   * Estimates the size of the table from a Bernoulli sample that Spanner takes before sending
+   * any rows.
+   */
+  private static void estimateSampled(Pipeline p, Options options) {
+    double percent = options.getSamplePercent();
+    PCollection<Struct> sample = p.apply(
+        SpannerIO.read()
+            .withInstanceId(options.getInstanceId())
+            .withDatabaseId(options.getDatabaseId())
+            .withQuery("SELECT * FROM " + options.getTable()
+                + " TABLESAMPLE BERNOULLI (" + percent + " PERCENT)"));
+
+    sample
+        .apply(EstimateSize.sampled(percent / 100).alreadySampled())
+        .apply(ToString.elements())
+        .apply(TextIO.write().to(options.getOutput()).withoutSharding());
+
+    p.run().waitUntilFinish();
+  }
 }
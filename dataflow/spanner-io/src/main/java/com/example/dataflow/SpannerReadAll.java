@@ -16,25 +16,36 @@
 
 package com.example.dataflow;
 
+import com.google.cloud.spanner.PartitionOptions;
 import com.google.cloud.spanner.Struct;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.TextIO;
 import org.apache.beam.sdk.io.gcp.spanner.ReadOperation;
 import org.apache.beam.sdk.io.gcp.spanner.SpannerConfig;
 import org.apache.beam.sdk.io.gcp.spanner.SpannerIO;
+import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.options.Validation;
+import org.apache.beam.sdk.transforms.Combine;
 import org.apache.beam.sdk.transforms.MapElements;
 import org.apache.beam.sdk.transforms.SerializableFunction;
 import org.apache.beam.sdk.transforms.Sum;
 import org.apache.beam.sdk.transforms.ToString;
+import org.apache.beam.sdk.transforms.Values;
+import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.TypeDescriptor;
+import org.apache.beam.sdk.values.TypeDescriptors;
 
 /**
  * This sample demonstrates how to read all data from the Cloud Spanner database.
+ *
+ * <p>With {@code --tableReport}, each table is read with a partitioned query that is split into
+ * up to {@code --maxPartitions} parts, so one large table is spread across workers instead of
+ * becoming a straggler. The size estimate is then kept per table, combined with a hot key
+ * fanout of {@code --combineFanout}, and written as {@code table,bytes} lines to the report.
  */
 public class SpannerReadAll {
 
@@ -57,8 +68,28 @@ public class SpannerReadAll {
     String getOutput();
 
     void setOutput(String value);
+
+    @Description("Output filename for per-table sizes; setting it reads each table partitioned")
+    String getTableReport();
+
+    void setTableReport(String value);
+
+    @Description("Maximum number of partitions to split each table's query into")
+    @Default.Integer(1000)
+    int getMaxPartitions();
+
+    void setMaxPartitions(int value);
+
+    @Description("Number of intermediate keys to spread each table's size combine over")
+    @Default.Integer(16)
+    int getCombineFanout();
+
+    void setCombineFanout(int value);
   }
 
+  private static final String TABLES_QUERY = "SELECT t.table_name FROM information_schema.tables"
+      + " AS t WHERE t.table_catalog = '' AND t.table_schema = ''";
+
   public static void main(String[] args) {
     Options options = PipelineOptionsFactory.fromArgs(args).withValidation().as(Options.class);
     Pipeline p = Pipeline.create(options);
@@ -66,11 +97,14 @@ public class SpannerReadAll {
     SpannerConfig spannerConfig = SpannerConfig.create()
         .withInstanceId(options.getInstanceId())
         .withDatabaseId(options.getDatabaseId());
+    if (options.getTableReport() != null) {
+      readAllPerTable(p, options, spannerConfig);
+      return;
+    }
     // [START spanner_dataflow_readall]
     PCollection<Struct> allRecords = p.apply(SpannerIO.read()
         .withSpannerConfig(spannerConfig)
-        .withQuery("SELECT t.table_name FROM information_schema.tables AS t WHERE t"
-            + ".table_catalog = '' AND t.table_schema = ''")).apply(
+        .withQuery(TABLES_QUERY)).apply(
         MapElements.into(TypeDescriptor.of(ReadOperation.class))
             .via((SerializableFunction<Struct, ReadOperation>) input -> {
               String tableName = input.getString(0);
@@ -87,4 +121,40 @@ public class SpannerReadAll {
     p.run().waitUntilFinish();
   }
 
+  /**
+   * Reads every table with its own partitioned query and writes the size of each table as well
+   * as the total.
+   */
+  private static void readAllPerTable(Pipeline p, Options options, SpannerConfig spannerConfig) {
+    int maxPartitions = options.getMaxPartitions();
+    PCollection<KV<String, Long>> tableSizes = p.apply("List tables", SpannerIO.read()
+        .withSpannerConfig(spannerConfig)
+        .withQuery(TABLES_QUERY)).apply(
+        MapElements.into(TypeDescriptor.of(ReadOperation.class))
+            .via((SerializableFunction<Struct, ReadOperation>) input -> {
+              String tableName = input.getString(0);
+              // Tag every row with its table so that sizes can be keyed by table.
+              return ReadOperation.create()
+                  .withQuery("SELECT '" + tableName + "' AS _table_name, * FROM " + tableName)
+                  .withPartitionOptions(
+                      PartitionOptions.newBuilder().setMaxPartitions(maxPartitions).build());
+            }))
+        .apply(SpannerIO.readAll().withSpannerConfig(spannerConfig).withBatching(true))
+        .apply(EstimateSize.perTable())
+        .apply(Combine.<String, Long, Long>perKey(Sum.ofLongs())
+            .withHotKeyFanout(options.getCombineFanout()));
+
+    tableSizes
+        .apply(MapElements.into(TypeDescriptors.strings())
+            .via((SerializableFunction<KV<String, Long>, String>) size ->
+                size.getKey() + "," + size.getValue()))
+        .apply("Write table report",
+            TextIO.write().to(options.getTableReport()).withoutSharding());
+
+    tableSizes.apply(Values.create()).apply(Sum.longsGlobally())
+        .apply(ToString.elements())
+        .apply("Write total", TextIO.write().to(options.getOutput()).withoutSharding());
+
+    p.run().waitUntilFinish();
+  }
 }
@@ -73,9 +73,9 @@ public class SpannerReadApi {
 
 
     PCollection<Long> tableEstimatedSize = records
-        // Estimate the size of every row
+        // Estimate the size of every row, summed per bundle
         .apply(EstimateSize.create())
-        // Sum all the row sizes to get the total estimated size of the table
+        // Sum the per-bundle sizes to get the total estimated size of the table
         .apply(Sum.longsGlobally());
 
     // Write the total size to a file
@@ -16,19 +16,52 @@
 
 package com.example.dataflow;
 
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.DatabaseId;
 import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.Spanner;
+import com.google.cloud.spanner.SpannerOptions;
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.PipelineResult;
 import org.apache.beam.sdk.coders.AvroCoder;
+import org.apache.beam.sdk.coders.BigEndianLongCoder;
 import org.apache.beam.sdk.coders.DefaultCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.SerializableCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.extensions.sorter.BufferedExternalSorter;
+import org.apache.beam.sdk.extensions.sorter.SortValues;
 import org.apache.beam.sdk.io.TextIO;
+import org.apache.beam.sdk.io.gcp.spanner.MutationGroup;
 import org.apache.beam.sdk.io.gcp.spanner.SpannerIO;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.DistributionResult;
+import org.apache.beam.sdk.metrics.MetricNameFilter;
+import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.metrics.MetricsFilter;
+import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.options.Validation;
 import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.GroupByKey;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.WithKeys;
+import org.apache.beam.sdk.transforms.join.CoGbkResult;
+import org.apache.beam.sdk.transforms.join.CoGroupByKey;
+import org.apache.beam.sdk.transforms.join.KeyedPCollectionTuple;
+import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.TypeDescriptors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,10 +95,20 @@ mvn exec:java \
     -Dexec.mainClass=com.example.dataflow.SpannerWrite \
     -Dexec.args="--instanceId=my-instance-id \
                  --databaseId=my-database-id
+
+Pass --sortedImport=true for bulk loads. Each singer's albums are grouped with the singer, the
+groups are sorted by singer ID within ranges of --keyRangeSize IDs, spilling to local disk when a
+range is large, and each range is committed in batches of at most --maxBatchCells cells and
+--maxBatchBytes bytes, parents before children. A singer whose group exceeds those limits on its
+own is split across several commits, singer first, and counted as oversizedGroups; a single row
+over the limits fails the import. The number of rows, groups, batches, cells and bytes handled per
+second is logged at the end.
 */
 
 public class SpannerWrite {
 
+  private static final Logger LOG = LoggerFactory.getLogger(SpannerWrite.class);
+
   static final String DELIMITER = "\t";
 
   public interface Options extends PipelineOptions {
@@ -91,6 +134,30 @@ public class SpannerWrite {
     String getDatabaseId();
 
     void setDatabaseId(String value);
+
+    @Description("Group, sort and batch singers with their albums before writing")
+    @Default.Boolean(false)
+    boolean getSortedImport();
+
+    void setSortedImport(boolean value);
+
+    @Description("Number of consecutive singer IDs that are sorted and written together")
+    @Default.Long(1000)
+    long getKeyRangeSize();
+
+    void setKeyRangeSize(long value);
+
+    @Description("Maximum number of mutated cells in one commit of a sorted import")
+    @Default.Integer(10000)
+    int getMaxBatchCells();
+
+    void setMaxBatchCells(int value);
+
+    @Description("Maximum estimated size in bytes of one commit of a sorted import")
+    @Default.Long(1 << 20)
+    long getMaxBatchBytes();
+
+    void setMaxBatchBytes(long value);
   }
 
   @DefaultCoder(AvroCoder.class)
@@ -129,6 +196,7 @@ public class SpannerWrite {
    */
   static class ParseSinger extends DoFn<String, Singer> {
     private static final Logger LOG = LoggerFactory.getLogger(ParseSinger.class);
+    private final Counter parsed = Metrics.counter(SpannerWrite.class, "singers");
 
     @ProcessElement
     public void processElement(ProcessContext c) {
@@ -138,6 +206,7 @@ public class SpannerWrite {
         String firstName = columns[1].trim();
         String lastName = columns[2].trim();
         c.output(new Singer(singerId, firstName, lastName));
+        parsed.inc();
       } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
         LOG.info("ParseSinger: parse error on '" + c.element() + "': " + e.getMessage());
       }
@@ -150,6 +219,7 @@ public class SpannerWrite {
    */
   static class ParseAlbum extends DoFn<String, Album> {
     private static final Logger LOG = LoggerFactory.getLogger(ParseAlbum.class);
+    private final Counter parsed = Metrics.counter(SpannerWrite.class, "albums");
 
     @ProcessElement
     public void processElement(ProcessContext c) {
@@ -159,18 +229,187 @@ public class SpannerWrite {
         Long albumId = Long.parseLong(columns[1].trim());
         String albumTitle = columns[2].trim();
         c.output(new Album(singerId, albumId, albumTitle));
+        parsed.inc();
       } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
         LOG.info("ParseAlbum: parse error on '" + c.element() + "': " + e.getMessage());
       }
     }
   }
 
+  static Mutation singerMutation(Singer singer) {
+    return Mutation.newInsertOrUpdateBuilder("singers")
+        .set("singerId").to(singer.singerId)
+        .set("firstName").to(singer.firstName)
+        .set("lastName").to(singer.lastName)
+        .build();
+  }
+
+  static Mutation albumMutation(Album album) {
+    return Mutation.newInsertOrUpdateBuilder("albums")
+        .set("singerId").to(album.singerId)
+        .set("albumId").to(album.albumId)
+        .set("albumTitle").to(album.albumTitle)
+        .build();
+  }
+
+  /**
+   * Joins each singer with their albums into one {@link MutationGroup}, singer first, keyed by
+   * the range of singer IDs it belongs to. Albums whose singer isn't in the import form a group
+   * of their own.
+   */
+  static class GroupBySingerFn
+      extends DoFn<KV<Long, CoGbkResult>, KV<Long, KV<Long, MutationGroup>>> {
+    private final Counter groups = Metrics.counter(SpannerWrite.class, "groups");
+    private final TupleTag<Singer> singersTag;
+    private final TupleTag<Album> albumsTag;
+    private final long keyRangeSize;
+
+    GroupBySingerFn(TupleTag<Singer> singersTag, TupleTag<Album> albumsTag, long keyRangeSize) {
+      this.singersTag = singersTag;
+      this.albumsTag = albumsTag;
+      this.keyRangeSize = keyRangeSize;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c) {
+      long singerId = c.element().getKey();
+      List<Mutation> mutations = new ArrayList<>();
+      for (Singer singer : c.element().getValue().getAll(singersTag)) {
+        mutations.add(singerMutation(singer));
+      }
+      for (Album album : c.element().getValue().getAll(albumsTag)) {
+        mutations.add(albumMutation(album));
+      }
+      if (mutations.isEmpty()) {
+        return;
+      }
+      MutationGroup group = MutationGroup.create(mutations.get(0),
+          mutations.subList(1, mutations.size()).toArray(new Mutation[0]));
+      groups.inc();
+      c.output(KV.of(Math.floorDiv(singerId, keyRangeSize), KV.of(singerId, group)));
+    }
+  }
+
+  /**
+   * Commits the groups of one key range, sorted by singer ID, in batches bounded by cell count and
+   * estimated size. A group is only split across commits when it exceeds the bounds on its own,
+   * and then in order, so a singer is always written with or before their albums.
+   */
+  static class WriteSortedBatchesFn
+      extends DoFn<KV<Long, Iterable<KV<Long, MutationGroup>>>, Void> {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteSortedBatchesFn.class);
+    private final Counter oversizedGroups =
+        Metrics.counter(SpannerWrite.class, "oversizedGroups");
+    private final Counter batches = Metrics.counter(SpannerWrite.class, "batches");
+    private final Counter cells = Metrics.counter(SpannerWrite.class, "cells");
+    private final Counter bytes = Metrics.counter(SpannerWrite.class, "bytes");
+    private final Distribution commitMillis =
+        Metrics.distribution(SpannerWrite.class, "commitMillis");
+    private final String instanceId;
+    private final String databaseId;
+    private final int maxBatchCells;
+    private final long maxBatchBytes;
+    private transient Spanner spanner;
+    private transient DatabaseClient dbClient;
+    private transient List<Mutation> batch;
+    private transient long batchCells;
+    private transient long batchBytes;
+
+    WriteSortedBatchesFn(String instanceId, String databaseId, int maxBatchCells,
+        long maxBatchBytes) {
+      this.instanceId = instanceId;
+      this.databaseId = databaseId;
+      this.maxBatchCells = maxBatchCells;
+      this.maxBatchBytes = maxBatchBytes;
+    }
+
+    @Setup
+    public void setup() {
+      SpannerOptions spannerOptions = SpannerOptions.newBuilder().build();
+      spanner = spannerOptions.getService();
+      dbClient = spanner.getDatabaseClient(
+          DatabaseId.of(spannerOptions.getProjectId(), instanceId, databaseId));
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext c) {
+      batch = new ArrayList<>();
+      batchCells = 0;
+      batchBytes = 0;
+      for (KV<Long, MutationGroup> group : c.element().getValue()) {
+        long groupCells = 0;
+        long groupBytes = 0;
+        for (Mutation mutation : group.getValue()) {
+          groupCells += Iterables.size(mutation.getColumns());
+          groupBytes += EstimateSize.estimateSize(mutation);
+        }
+        if (groupCells <= maxBatchCells && groupBytes <= maxBatchBytes) {
+          add(group.getValue(), groupCells, groupBytes);
+          continue;
+        }
+        // The group can't be committed whole, so its mutations are committed in order instead.
+        oversizedGroups.inc();
+        LOG.warn(String.format("Singer %d has %d cells and %d bytes, more than one commit allows;"
+            + " writing it over several commits", group.getKey(), groupCells, groupBytes));
+        for (Mutation mutation : group.getValue()) {
+          long mutationCells = Iterables.size(mutation.getColumns());
+          long mutationBytes = EstimateSize.estimateSize(mutation);
+          if (mutationCells > maxBatchCells || mutationBytes > maxBatchBytes) {
+            throw new IllegalArgumentException(String.format(
+                "A %s row of singer %d has %d cells and %d bytes, which exceeds --maxBatchCells=%d"
+                    + " or --maxBatchBytes=%d", mutation.getTable(), group.getKey(),
+                mutationCells, mutationBytes, maxBatchCells, maxBatchBytes));
+          }
+          add(Collections.singletonList(mutation), mutationCells, mutationBytes);
+        }
+      }
+      flush();
+    }
+
+    private void add(Iterable<Mutation> mutations, long mutationCells, long mutationBytes) {
+      if (batchCells + mutationCells > maxBatchCells
+          || batchBytes + mutationBytes > maxBatchBytes) {
+        flush();
+      }
+      Iterables.addAll(batch, mutations);
+      batchCells += mutationCells;
+      batchBytes += mutationBytes;
+    }
+
+    private void flush() {
+      if (batch.isEmpty()) {
+        return;
+      }
+      long start = System.currentTimeMillis();
+      // Every mutation is an insert-or-update, so a retried bundle may write a batch twice.
+      dbClient.writeAtLeastOnce(batch);
+      commitMillis.update(System.currentTimeMillis() - start);
+      batches.inc();
+      cells.inc(batchCells);
+      bytes.inc(batchBytes);
+      batch = new ArrayList<>();
+      batchCells = 0;
+      batchBytes = 0;
+    }
+
+    @Teardown
+    public void teardown() {
+      if (spanner != null) {
+        spanner.close();
+      }
+    }
+  }
+
   public static void main(String[] args) {
     Options options = PipelineOptionsFactory.fromArgs(args).withValidation().as(Options.class);
     Pipeline p = Pipeline.create(options);
 
     String instanceId = options.getInstanceId();
     String databaseId = options.getDatabaseId();
+    if (options.getSortedImport()) {
+      sortedImport(p, options);
+      return;
+    }
 
     // Read singers from a tab-delimited file
     p.apply("ReadSingers", TextIO.read().from(options.getSingersFilename()))
@@ -180,12 +419,7 @@ public class SpannerWrite {
         .apply("CreateSingerMutation", ParDo.of(new DoFn<Singer, Mutation>() {
           @ProcessElement
           public void processElement(ProcessContext c) {
-            Singer singer = c.element();
-            c.output(Mutation.newInsertOrUpdateBuilder("singers")
-                .set("singerId").to(singer.singerId)
-                .set("firstName").to(singer.firstName)
-                .set("lastName").to(singer.lastName)
-                .build());
+            c.output(singerMutation(c.element()));
           }
         }))
         // Finally write the Mutations to Spanner
@@ -221,4 +455,52 @@ public class SpannerWrite {
 
     p.run().waitUntilFinish();
   }
+
+  /**
+   * Imports singers and albums as sorted, size-bounded batches of mutation groups, and logs the
+   * throughput of each stage.
+   */
+  private static void sortedImport(Pipeline p, Options options) {
+    TupleTag<Singer> singersTag = new TupleTag<>();
+    TupleTag<Album> albumsTag = new TupleTag<>();
+
+    PCollection<KV<Long, Singer>> singers = p
+        .apply("ReadSingers", TextIO.read().from(options.getSingersFilename()))
+        .apply("ParseSingers", ParDo.of(new ParseSinger()))
+        .apply("KeySingers", WithKeys.of((Singer singer) -> singer.singerId)
+            .withKeyType(TypeDescriptors.longs()));
+    PCollection<KV<Long, Album>> albums = p
+        .apply("ReadAlbums", TextIO.read().from(options.getAlbumsFilename()))
+        .apply("ParseAlbums", ParDo.of(new ParseAlbum()))
+        .apply("KeyAlbums", WithKeys.of((Album album) -> album.singerId)
+            .withKeyType(TypeDescriptors.longs()));
+
+    KeyedPCollectionTuple.of(singersTag, singers).and(albumsTag, albums)
+        .apply("JoinAlbumsToSingers", CoGroupByKey.create())
+        .apply("GroupBySinger",
+            ParDo.of(new GroupBySingerFn(singersTag, albumsTag, options.getKeyRangeSize())))
+        // SortValues orders by the encoded singer ID, which is numeric order for non-negative IDs
+        .setCoder(KvCoder.of(VarLongCoder.of(),
+            KvCoder.of(BigEndianLongCoder.of(), SerializableCoder.of(MutationGroup.class))))
+        .apply("GroupByKeyRange", GroupByKey.create())
+        .apply("SortBySinger", SortValues.create(BufferedExternalSorter.options()))
+        .apply("WriteSortedBatches", ParDo.of(new WriteSortedBatchesFn(options.getInstanceId(),
+            options.getDatabaseId(), options.getMaxBatchCells(), options.getMaxBatchBytes())));
+
+    long start = System.currentTimeMillis();
+    PipelineResult result = p.run();
+    result.waitUntilFinish();
+    double seconds = Math.max(System.currentTimeMillis() - start, 1) / 1000.0;
+
+    MetricQueryResults metrics = result.metrics().queryMetrics(MetricsFilter.builder()
+        .addNameFilter(MetricNameFilter.inNamespace(SpannerWrite.class)).build());
+    for (MetricResult<Long> counter : metrics.counters()) {
+      LOG.info(String.format("%s: %d (%.1f/s)", counter.name().name(), counter.attempted(),
+          counter.attempted() / seconds));
+    }
+    for (MetricResult<DistributionResult> distribution : metrics.distributions()) {
+      LOG.info(String.format("%s: mean %.1f, max %d", distribution.name().name(),
+          distribution.attempted().mean(), distribution.attempted().max()));
+    }
+  }
 }
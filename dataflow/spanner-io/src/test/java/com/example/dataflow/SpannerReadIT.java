@@ -145,6 +145,22 @@ public class SpannerReadIT {
     assertEquals("132", content);
   }
 
+  @Test
+  public void readDbPerTableEndToEnd() throws Exception {
+    Path outPath = Files.createTempFile("out", "txt");
+    Path reportPath = Files.createTempFile("report", "txt");
+    SpannerReadAll.main(new String[] { "--instanceId=" + instanceId, "--databaseId=" + databaseId,
+        "--output=" + outPath, "--tableReport=" + reportPath, "--maxPartitions=4",
+        "--runner=DirectRunner" });
+
+    String content = Files.readAllLines(outPath).stream().collect(Collectors.joining("\n"));
+    List<String> report = Files.readAllLines(reportPath).stream().sorted()
+        .collect(Collectors.toList());
+
+    assertEquals("132", content);
+    assertEquals(Arrays.asList("Albums,53", "Singers,79"), report);
+  }
+
   @Test
   public void readTableEndToEnd() throws Exception {
     Path outPath = Files.createTempFile("out", "txt");
@@ -156,6 +172,19 @@ public class SpannerReadIT {
     assertEquals("53", content);
   }
 
+  @Test
+  public void readTableSampledEndToEnd() throws Exception {
+    Path outPath = Files.createTempFile("out", "txt");
+    SpannerRead.main(new String[] { "--instanceId=" + instanceId, "--databaseId=" + databaseId,
+        "--output=" + outPath, "--table=albums", "--samplePercent=100",
+        "--runner=DirectRunner" });
+
+    String content = Files.readAllLines(outPath).stream().collect(Collectors.joining("\n"));
+
+    // Sampling every row gives the exact size with no uncertainty.
+    assertEquals("53 +/- 0 (95% confidence, 2 rows sampled at 1.0)", content);
+  }
+
   @Test
   public void readApiEndToEnd() throws Exception {
     Path outPath = Files.createTempFile("out", "txt");
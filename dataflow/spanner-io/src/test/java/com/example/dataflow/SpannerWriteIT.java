@@ -18,6 +18,7 @@ package com.example.dataflow;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.cloud.spanner.Database;
 import com.google.cloud.spanner.DatabaseAdminClient;
@@ -30,6 +31,7 @@ import com.google.cloud.spanner.Spanner;
 import com.google.cloud.spanner.SpannerException;
 import com.google.cloud.spanner.SpannerOptions;
 import com.google.cloud.spanner.Statement;
+import com.google.common.base.Throwables;
 import com.google.spanner.admin.database.v1.CreateDatabaseMetadata;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -127,6 +129,72 @@ public class SpannerWriteIT {
     }
   }
 
+  @Test
+  public void testSortedImportEndToEnd() {
+    SpannerWrite.main(new String[] { "--instanceId=" + instanceId, "--databaseId=" + databaseId,
+        "--singersFilename=" + singersPath, "--albumsFilename=" + albumsPath,
+        "--sortedImport=true", "--keyRangeSize=2", "--maxBatchCells=6",
+        "--runner=DirectRunner" });
+
+    DatabaseClient dbClient = getDbClient();
+    try (ReadContext context = dbClient.singleUse()) {
+      ResultSet rs = context.executeQuery(
+          Statement.of("SELECT COUNT(*) FROM singers"));
+      assertTrue(rs.next());
+      assertEquals(4, rs.getLong(0));
+    }
+    try (ReadContext context = dbClient.singleUse()) {
+      ResultSet rs = context.executeQuery(Statement.of("SELECT COUNT(*) FROM albums"));
+      assertTrue(rs.next());
+      assertEquals(3, rs.getLong(0));
+    }
+  }
+
+  @Test
+  public void testSortedImportSplitsOversizedGroup() throws Exception {
+    // John Lennon and his three albums are 12 cells, more than one commit of 6 cells allows
+    String albums = Stream
+        .of("1\t1\tImagine", "1\t2\tMind Games", "1\t3\tWalls and Bridges",
+            "2\t1\tPipes of Peace")
+        .collect(Collectors.joining("\n"));
+    Files.write(albumsPath, albums.getBytes());
+
+    SpannerWrite.main(new String[] { "--instanceId=" + instanceId, "--databaseId=" + databaseId,
+        "--singersFilename=" + singersPath, "--albumsFilename=" + albumsPath,
+        "--sortedImport=true", "--keyRangeSize=2", "--maxBatchCells=6",
+        "--runner=DirectRunner" });
+
+    DatabaseClient dbClient = getDbClient();
+    try (ReadContext context = dbClient.singleUse()) {
+      ResultSet rs = context.executeQuery(
+          Statement.of("SELECT COUNT(*) FROM singers"));
+      assertTrue(rs.next());
+      assertEquals(4, rs.getLong(0));
+    }
+    try (ReadContext context = dbClient.singleUse()) {
+      ResultSet rs = context.executeQuery(
+          Statement.of("SELECT COUNT(*) FROM albums WHERE singerId = 1"));
+      assertTrue(rs.next());
+      assertEquals(3, rs.getLong(0));
+    }
+  }
+
+  @Test
+  public void testSortedImportRejectsOversizedRow() {
+    // Every singer row is 3 cells, so no commit of 2 cells can hold one
+    try {
+      SpannerWrite.main(new String[] { "--instanceId=" + instanceId,
+          "--databaseId=" + databaseId, "--singersFilename=" + singersPath,
+          "--albumsFilename=" + albumsPath, "--sortedImport=true", "--maxBatchCells=2",
+          "--runner=DirectRunner" });
+      fail("Expected the import to fail on a row larger than --maxBatchCells");
+    } catch (RuntimeException e) {
+      Throwable cause = Throwables.getRootCause(e);
+      assertTrue(cause instanceof IllegalArgumentException);
+      assertTrue(cause.getMessage().contains("--maxBatchCells=2"));
+    }
+  }
+
   private DatabaseClient getDbClient() {
     return spanner
         .getDatabaseClient(DatabaseId.of(spannerOptions.getProjectId(), instanceId, databaseId));
@@ -14,23 +14,30 @@
 
 package com.example;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
 import java.util.List;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.AvroIO;
+import org.apache.beam.sdk.io.Compression;
+import org.apache.beam.sdk.io.FileIO;
 import org.apache.beam.sdk.io.FileSystems;
 import org.apache.beam.sdk.io.TextIO;
+import org.apache.beam.sdk.io.fs.ResourceId;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PCollection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,6 +74,20 @@ public class AvroToCsv {
     }
   }
 
+  /**
+   * Checks that {@code registry} can format every field of {@code schema}, flattening nested
+   * records, as {@link CsvRowFormatter} will.
+   */
+  public static void checkFieldTypes(Schema schema, ConverterRegistry registry)
+      throws IllegalArgumentException {
+    try {
+      registry.columns(schema);
+    } catch (IllegalArgumentException e) {
+      LOG.error("Data transformation doesn't support: " + e.getMessage());
+      throw e;
+    }
+  }
+
   public static class ConvertAvroToCsv extends DoFn<GenericRecord, String> {
 
     private String delimiter;
@@ -99,6 +120,85 @@ public class AvroToCsv {
     }
   }
 
+  /**
+   * Converts Avro records to CSV rows like {@link ConvertAvroToCsv}, but parses the schema and
+   * resolves field positions once per DoFn instance in {@code @Setup}, and formats every row in
+   * the same buffer with a {@link CsvRowFormatter}, which takes its codecs from a
+   * {@link ConverterRegistry}.
+   */
+  public static class CachedConvertAvroToCsv extends DoFn<GenericRecord, String> {
+
+    private final String delimiter;
+    private final String schemaJson;
+    private final ConverterRegistry registry;
+    private transient CsvRowFormatter formatter;
+
+    public CachedConvertAvroToCsv(String schemaJson, String delimiter) {
+      this(schemaJson, delimiter, ConverterRegistry.defaults());
+    }
+
+    public CachedConvertAvroToCsv(
+        String schemaJson, String delimiter, ConverterRegistry registry) {
+      this.schemaJson = schemaJson;
+      this.delimiter = delimiter;
+      this.registry = registry;
+    }
+
+    @Setup
+    public void setup() throws IllegalArgumentException {
+      formatter = CsvRowFormatter.forDelimiter(
+          new Schema.Parser().parse(schemaJson), delimiter, registry);
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext ctx) {
+      ctx.output(formatter.formatToString(ctx.element()));
+    }
+  }
+
+  /**
+   * A {@link FileIO} sink that writes Avro records as CSV rows straight to the output channel,
+   * without first converting each row to a string for {@link TextIO}. {@link FileIO} applies any
+   * compression to the channel.
+   */
+  public static class CsvSink implements FileIO.Sink<GenericRecord> {
+
+    private final String delimiter;
+    private final String schemaJson;
+    private final ConverterRegistry registry;
+    private transient CsvRowFormatter formatter;
+    private transient OutputStream out;
+
+    public CsvSink(String schemaJson, String delimiter) {
+      this(schemaJson, delimiter, ConverterRegistry.defaults());
+    }
+
+    public CsvSink(String schemaJson, String delimiter, ConverterRegistry registry) {
+      this.schemaJson = schemaJson;
+      this.delimiter = delimiter;
+      this.registry = registry;
+    }
+
+    @Override
+    public void open(WritableByteChannel channel) throws IOException {
+      if (formatter == null) {
+        formatter = CsvRowFormatter.forDelimiter(
+            new Schema.Parser().parse(schemaJson), delimiter, registry);
+      }
+      out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+    }
+
+    @Override
+    public void write(GenericRecord element) throws IOException {
+      formatter.writeTo(element, out);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+  }
+
   public static void runAvroToCsv(SampleOptions options)
       throws IOException, IllegalArgumentException {
     FileSystems.setDefaultPipelineOptions(options);
@@ -108,18 +208,37 @@ public class AvroToCsv {
     Schema schema = new Schema.Parser().parse(schemaJson);
 
     // Check schema field types before starting the Dataflow job
-    checkFieldTypes(schema);
+    boolean quoted = options.getDirectCsvSink() || options.getQuotedCsvOutput();
+    if (quoted) {
+      checkFieldTypes(schema, ConverterRegistry.defaults());
+    } else {
+      checkFieldTypes(schema);
+    }
 
     // Create the Pipeline object with the options we defined above.
     Pipeline pipeline = Pipeline.create(options);
 
     // Convert Avro To CSV
-    pipeline.apply("Read Avro files",
-        AvroIO.readGenericRecords(schemaJson).from(options.getInputFile()))
-        .apply("Convert Avro to CSV formatted data",
-            ParDo.of(new ConvertAvroToCsv(schemaJson, options.getCsvDelimiter())))
-        .apply("Write CSV formatted data", TextIO.write().to(options.getOutput())
-            .withSuffix(".csv"));
+    PCollection<GenericRecord> records = pipeline.apply("Read Avro files",
+        AvroIO.readGenericRecords(schemaJson).from(options.getInputFile()));
+    if (options.getDirectCsvSink()) {
+      Compression compression =
+          Compression.valueOf(options.getCsvCompression().toUpperCase());
+      ResourceId output = FileSystems.matchNewResource(options.getOutput(), false);
+      records.apply("Write CSV formatted data", FileIO.<GenericRecord>write()
+          .via(new CsvSink(schemaJson, options.getCsvDelimiter()))
+          .to(output.getCurrentDirectory().toString())
+          .withPrefix(output.getFilename())
+          .withSuffix(".csv" + compression.getSuggestedSuffix())
+          .withCompression(compression));
+    } else {
+      DoFn<GenericRecord, String> convert = quoted
+          ? new CachedConvertAvroToCsv(schemaJson, options.getCsvDelimiter())
+          : new ConvertAvroToCsv(schemaJson, options.getCsvDelimiter());
+      records.apply("Convert Avro to CSV formatted data", ParDo.of(convert))
+          .apply("Write CSV formatted data", TextIO.write().to(options.getOutput())
+              .withSuffix(".csv"));
+    }
 
     // Run the pipeline.
     pipeline.run().waitUntilFinish();
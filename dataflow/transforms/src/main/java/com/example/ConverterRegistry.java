@@ -0,0 +1,459 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.example;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.avro.Conversions;
+import org.apache.avro.LogicalType;
+import org.apache.avro.LogicalTypes;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericFixed;
+import org.apache.avro.generic.GenericRecord;
+
+/**
+ * Maps Avro schemas to the {@link FieldCodec}s that convert their values to and from CSV text,
+ * and lays a record schema out as CSV columns.
+ *
+ * <p>A codec is looked up by the schema's logical type first and then by its type, so callers
+ * can add or replace codecs with {@link #register(String, Factory)} and
+ * {@link #register(Schema.Type, Factory)}. The {@link #defaults() default} codecs handle:
+ *
+ * <ul>
+ *   <li>the primitive types, as in the original conversions;
+ *   <li>unions of {@code null} and one other type, where an empty field is null;
+ *   <li>enums, by symbol;
+ *   <li>{@code bytes} and {@code fixed}, as base64;
+ *   <li>{@code decimal}, as plain decimal text;
+ *   <li>{@code date}, {@code timestamp-millis} and {@code timestamp-micros}, as ISO-8601 text,
+ *       or as the raw number when parsing;
+ *   <li>arrays of any of these, in one field with the elements separated by
+ *       {@value #ARRAY_SEPARATOR}.
+ * </ul>
+ *
+ * <p>Nested records, nullable or not, are flattened into one column per leaf field, named with
+ * dots, e.g. {@code address.city}. All of the lookups happen in {@link #columns(Schema)}, so
+ * converting a row costs one codec call per column.
+ */
+public class ConverterRegistry implements Serializable {
+
+  public static final char ARRAY_SEPARATOR = ';';
+
+  private static final FieldCodec STRING = FieldCodec.of(
+      text -> text, (value, out) -> out.appendText((CharSequence) value));
+  private static final FieldCodec BOOLEAN = FieldCodec.of(
+      Boolean::valueOf, (value, out) -> out.appendAscii((Boolean) value ? "true" : "false"));
+  private static final FieldCodec INT = FieldCodec.of(
+      Integer::valueOf, (value, out) -> out.appendLong((Integer) value));
+  private static final FieldCodec LONG = FieldCodec.of(
+      Long::valueOf, (value, out) -> out.appendLong((Long) value));
+  // Floating point text is subtle enough to leave to the JDK.
+  private static final FieldCodec FLOAT = FieldCodec.of(
+      Float::valueOf, (value, out) -> out.appendAscii(value.toString()));
+  private static final FieldCodec DOUBLE = FieldCodec.of(
+      Double::valueOf, (value, out) -> out.appendAscii(value.toString()));
+  private static final FieldCodec BYTES = FieldCodec.of(
+      text -> ByteBuffer.wrap(Base64.getDecoder().decode(text)),
+      (value, out) -> appendBase64(toArray((ByteBuffer) value), out));
+  private static final FieldCodec DATE = FieldCodec.of(
+      text -> isNumber(text) ? Integer.valueOf(text) : (int) parseDate(text).toEpochDay(),
+      (value, out) -> out.appendAscii(LocalDate.ofEpochDay((Integer) value).toString()));
+  private static final FieldCodec TIMESTAMP_MILLIS = FieldCodec.of(
+      text -> isNumber(text) ? Long.valueOf(text) : parseInstant(text).toEpochMilli(),
+      (value, out) -> out.appendAscii(Instant.ofEpochMilli((Long) value).toString()));
+  private static final FieldCodec TIMESTAMP_MICROS = FieldCodec.of(
+      text -> isNumber(text) ? Long.valueOf(text) : toMicros(parseInstant(text)),
+      (value, out) -> out.appendAscii(fromMicros((Long) value).toString()));
+
+  /**
+   * Creates the codec for a schema. Factories are kept in the registry, which is serialized
+   * with the DoFns that use it, so they must be serializable; a lambda is.
+   */
+  public interface Factory extends Serializable {
+
+    /**
+     * Returns the codec for {@code schema}, which may use {@code registry} to look up codecs for
+     * the schemas it contains.
+     */
+    FieldCodec create(Schema schema, ConverterRegistry registry) throws IllegalArgumentException;
+  }
+
+  /**
+   * One CSV column: the path of field positions from the top-level record to a leaf field, and
+   * the codec for that field.
+   */
+  public static final class Column {
+
+    private final String name;
+    private final int[] path;
+    private final Schema[] records;
+    private final FieldCodec codec;
+
+    private Column(String name, int[] path, Schema[] records, FieldCodec codec) {
+      this.name = name;
+      this.path = path;
+      this.records = records;
+      this.codec = codec;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public FieldCodec codec() {
+      return codec;
+    }
+
+    /**
+     * Returns the value of this column in {@code record}, or null if the value or a record
+     * enclosing it is null.
+     */
+    public Object get(GenericRecord record) {
+      Object value = record.get(path[0]);
+      for (int depth = 1; depth < path.length && value != null; ++depth) {
+        value = ((GenericRecord) value).get(path[depth]);
+      }
+      return value;
+    }
+
+    /**
+     * Sets the value of this column in {@code record}, creating the records enclosing it as
+     * needed. A nested record stays null until one of its columns has a value.
+     */
+    public void put(GenericRecord record, Object value) {
+      if (path.length == 1) {
+        record.put(path[0], value);
+        return;
+      }
+      if (value == null) {
+        return;
+      }
+      GenericRecord current = record;
+      for (int depth = 0; depth < path.length - 1; ++depth) {
+        GenericRecord child = (GenericRecord) current.get(path[depth]);
+        if (child == null) {
+          child = new GenericData.Record(records[depth + 1]);
+          current.put(path[depth], child);
+        }
+        current = child;
+      }
+      current.put(path[path.length - 1], value);
+    }
+  }
+
+  private final Map<String, Factory> logicalTypes = new HashMap<>();
+  private final Map<Schema.Type, Factory> types = new EnumMap<>(Schema.Type.class);
+
+  /**
+   * Returns an empty registry; most callers want {@link #defaults()}.
+   */
+  public ConverterRegistry() {}
+
+  /**
+   * Returns a new registry holding the default codecs, which callers may extend.
+   */
+  public static ConverterRegistry defaults() {
+    return new ConverterRegistry()
+        .register(Schema.Type.STRING, (schema, registry) -> STRING)
+        .register(Schema.Type.BOOLEAN, (schema, registry) -> BOOLEAN)
+        .register(Schema.Type.INT, (schema, registry) -> INT)
+        .register(Schema.Type.LONG, (schema, registry) -> LONG)
+        .register(Schema.Type.FLOAT, (schema, registry) -> FLOAT)
+        .register(Schema.Type.DOUBLE, (schema, registry) -> DOUBLE)
+        .register(Schema.Type.BYTES, (schema, registry) -> BYTES)
+        .register(Schema.Type.ENUM, ConverterRegistry::enumCodec)
+        .register(Schema.Type.FIXED, ConverterRegistry::fixedCodec)
+        .register(Schema.Type.UNION, ConverterRegistry::unionCodec)
+        .register(Schema.Type.ARRAY, ConverterRegistry::arrayCodec)
+        .register("decimal", ConverterRegistry::decimalCodec)
+        .register("date", (schema, registry) -> requireType(schema, Schema.Type.INT, DATE))
+        .register("timestamp-millis",
+            (schema, registry) -> requireType(schema, Schema.Type.LONG, TIMESTAMP_MILLIS))
+        .register("timestamp-micros",
+            (schema, registry) -> requireType(schema, Schema.Type.LONG, TIMESTAMP_MICROS));
+  }
+
+  /**
+   * Uses {@code factory} for schemas with the logical type {@code logicalType}.
+   */
+  public ConverterRegistry register(String logicalType, Factory factory) {
+    logicalTypes.put(logicalType, factory);
+    return this;
+  }
+
+  /**
+   * Uses {@code factory} for schemas of {@code type} that have no registered logical type.
+   */
+  public ConverterRegistry register(Schema.Type type, Factory factory) {
+    types.put(type, factory);
+    return this;
+  }
+
+  /**
+   * Returns the codec for a field of {@code schema}.
+   */
+  public FieldCodec codecFor(Schema schema) throws IllegalArgumentException {
+    String logicalType = schema.getProp(LogicalType.LOGICAL_TYPE_PROP);
+    Factory factory = logicalType == null ? null : logicalTypes.get(logicalType);
+    if (factory == null) {
+      factory = types.get(schema.getType());
+    }
+    if (factory == null) {
+      throw new IllegalArgumentException(
+          "Field type " + schema.getType().getName() + " is not supported.");
+    }
+    return factory.create(schema, this);
+  }
+
+  /**
+   * Returns the CSV columns for the record {@code schema}, in field order, with nested records
+   * flattened.
+   */
+  public Column[] columns(Schema schema) throws IllegalArgumentException {
+    List<Column> columns = new ArrayList<>();
+    addColumns(schema, "", new int[0], new Schema[] {schema}, columns);
+    return columns.toArray(new Column[0]);
+  }
+
+  private void addColumns(
+      Schema record, String prefix, int[] path, Schema[] records, List<Column> columns) {
+    for (Schema.Field field : record.getFields()) {
+      int[] fieldPath = Arrays.copyOf(path, path.length + 1);
+      fieldPath[path.length] = field.pos();
+      Schema nested = nestedRecord(field.schema());
+      if (nested == null) {
+        columns.add(
+            new Column(prefix + field.name(), fieldPath, records, codecFor(field.schema())));
+      } else if (Arrays.asList(records).contains(nested)) {
+        throw new IllegalArgumentException(
+            "Recursive record " + nested.getFullName() + " cannot be flattened.");
+      } else {
+        Schema[] nestedRecords = Arrays.copyOf(records, records.length + 1);
+        nestedRecords[records.length] = nested;
+        addColumns(nested, prefix + field.name() + ".", fieldPath, nestedRecords, columns);
+      }
+    }
+  }
+
+  /**
+   * Returns the record type of a record or nullable record schema, or null for anything else.
+   */
+  private static Schema nestedRecord(Schema schema) {
+    if (schema.getType() == Schema.Type.UNION) {
+      schema = nonNullBranch(schema);
+    }
+    return schema != null && schema.getType() == Schema.Type.RECORD ? schema : null;
+  }
+
+  /**
+   * Returns the other branch of a union of null and one other type, or null for any other
+   * union.
+   */
+  private static Schema nonNullBranch(Schema union) {
+    List<Schema> branches = union.getTypes();
+    if (branches.size() != 2) {
+      return null;
+    }
+    if (branches.get(0).getType() == Schema.Type.NULL) {
+      return branches.get(1);
+    }
+    return branches.get(1).getType() == Schema.Type.NULL ? branches.get(0) : null;
+  }
+
+  private static FieldCodec unionCodec(Schema schema, ConverterRegistry registry) {
+    Schema branch = nonNullBranch(schema);
+    if (branch == null) {
+      throw new IllegalArgumentException(
+          "Only unions of null and one other type are supported, got: " + schema);
+    }
+    FieldCodec codec = registry.codecFor(branch);
+    return FieldCodec.of(
+        text -> text.isEmpty() ? null : codec.parse(text),
+        (value, out) -> {
+          if (value != null) {
+            codec.format(value, out);
+          }
+        });
+  }
+
+  private static FieldCodec arrayCodec(Schema schema, ConverterRegistry registry) {
+    Schema elementType = schema.getElementType();
+    Schema element = elementType.getType() == Schema.Type.UNION
+        ? nonNullBranch(elementType) : elementType;
+    if (element != null && (element.getType() == Schema.Type.ARRAY
+        || element.getType() == Schema.Type.RECORD)) {
+      throw new IllegalArgumentException(
+          "Arrays of " + element.getType().getName() + " are not supported.");
+    }
+    FieldCodec codec = registry.codecFor(elementType);
+    return FieldCodec.of(
+        text -> {
+          GenericData.Array<Object> array = new GenericData.Array<>(8, schema);
+          if (text.isEmpty()) {
+            return array;
+          }
+          int start = 0;
+          while (true) {
+            int end = text.indexOf(ARRAY_SEPARATOR, start);
+            if (end < 0) {
+              array.add(codec.parse(text.substring(start)));
+              return array;
+            }
+            array.add(codec.parse(text.substring(start, end)));
+            start = end + 1;
+          }
+        },
+        (value, out) -> {
+          boolean first = true;
+          for (Object item : (Collection<?>) value) {
+            if (!first) {
+              out.append((byte) ARRAY_SEPARATOR);
+            }
+            codec.format(item, out);
+            first = false;
+          }
+        });
+  }
+
+  private static FieldCodec enumCodec(Schema schema, ConverterRegistry registry) {
+    return FieldCodec.of(
+        text -> {
+          if (!schema.hasEnumSymbol(text)) {
+            throw new IllegalArgumentException(
+                "Unknown symbol " + text + " for enum " + schema.getFullName());
+          }
+          return new GenericData.EnumSymbol(schema, text);
+        },
+        (value, out) -> out.appendText(value.toString()));
+  }
+
+  private static FieldCodec fixedCodec(Schema schema, ConverterRegistry registry) {
+    int size = schema.getFixedSize();
+    return FieldCodec.of(
+        text -> {
+          byte[] bytes = Base64.getDecoder().decode(text);
+          if (bytes.length != size) {
+            throw new IllegalArgumentException("Expected " + size + " bytes for "
+                + schema.getFullName() + " but found " + bytes.length);
+          }
+          return new GenericData.Fixed(schema, bytes);
+        },
+        (value, out) -> appendBase64(((GenericFixed) value).bytes(), out));
+  }
+
+  private static FieldCodec decimalCodec(Schema schema, ConverterRegistry registry) {
+    if (!(schema.getLogicalType() instanceof LogicalTypes.Decimal)) {
+      throw new IllegalArgumentException("Invalid decimal schema: " + schema);
+    }
+    LogicalTypes.Decimal decimal = (LogicalTypes.Decimal) schema.getLogicalType();
+    Conversions.DecimalConversion conversion = new Conversions.DecimalConversion();
+    boolean fixed = schema.getType() == Schema.Type.FIXED;
+    return FieldCodec.of(
+        text -> {
+          BigDecimal value;
+          try {
+            value = new BigDecimal(text).setScale(decimal.getScale());
+          } catch (ArithmeticException e) {
+            throw new IllegalArgumentException(
+                text + " has more than " + decimal.getScale() + " decimal places", e);
+          }
+          if (value.precision() > decimal.getPrecision()) {
+            throw new IllegalArgumentException(
+                text + " has more than " + decimal.getPrecision() + " digits");
+          }
+          return fixed
+              ? conversion.toFixed(value, schema, decimal)
+              : conversion.toBytes(value, schema, decimal);
+        },
+        (value, out) -> {
+          BigDecimal decoded = fixed
+              ? conversion.fromFixed((GenericFixed) value, schema, decimal)
+              : conversion.fromBytes(((ByteBuffer) value).duplicate(), schema, decimal);
+          out.appendAscii(decoded.toPlainString());
+        });
+  }
+
+  private static FieldCodec requireType(Schema schema, Schema.Type type, FieldCodec codec) {
+    if (schema.getType() != type) {
+      throw new IllegalArgumentException("Logical type "
+          + schema.getProp(LogicalType.LOGICAL_TYPE_PROP) + " must annotate " + type.getName());
+    }
+    return codec;
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    ByteBuffer view = buffer.duplicate();
+    byte[] bytes = new byte[view.remaining()];
+    view.get(bytes);
+    return bytes;
+  }
+
+  private static void appendBase64(byte[] bytes, CsvRowFormatter out) {
+    byte[] encoded = Base64.getEncoder().encode(bytes);
+    out.append(encoded, 0, encoded.length);
+  }
+
+  private static boolean isNumber(String text) {
+    int start = text.startsWith("-") ? 1 : 0;
+    if (text.length() == start) {
+      return false;
+    }
+    for (int i = start; i < text.length(); i++) {
+      if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static LocalDate parseDate(String text) {
+    try {
+      return LocalDate.parse(text);
+    } catch (DateTimeException e) {
+      throw new IllegalArgumentException("Invalid date: " + text, e);
+    }
+  }
+
+  private static Instant parseInstant(String text) {
+    try {
+      return Instant.parse(text);
+    } catch (DateTimeException e) {
+      throw new IllegalArgumentException("Invalid timestamp: " + text, e);
+    }
+  }
+
+  private static long toMicros(Instant instant) {
+    return Math.addExact(
+        Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1000);
+  }
+
+  private static Instant fromMicros(long micros) {
+    return Instant.ofEpochSecond(
+        Math.floorDiv(micros, 1_000_000L), Math.floorMod(micros, 1_000_000L) * 1000);
+  }
+}
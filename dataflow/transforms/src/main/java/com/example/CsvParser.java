@@ -0,0 +1,104 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits CSV lines into fields following RFC 4180, without regular expressions.
+ *
+ * <p>A field may be enclosed in double quotes, in which case it may contain the delimiter and
+ * a doubled quote stands for one quote. Lines are parsed one at a time, so a quoted field cannot
+ * span lines. The parser reuses its field list between calls and is not thread-safe.
+ */
+public class CsvParser {
+
+  private final char delimiter;
+  private final List<String> fields = new ArrayList<>();
+  private final StringBuilder quoted = new StringBuilder();
+
+  public CsvParser(char delimiter) {
+    if (delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+      throw new IllegalArgumentException("Invalid CSV delimiter: " + delimiter);
+    }
+    this.delimiter = delimiter;
+  }
+
+  /**
+   * Returns a parser for a delimiter given as a one-character string, as in
+   * {@link SampleOptions#getCsvDelimiter()}.
+   */
+  public static CsvParser forDelimiter(String delimiter) {
+    if (delimiter == null || delimiter.length() != 1) {
+      throw new IllegalArgumentException(
+          "CSV delimiter must be a single character, got: " + delimiter);
+    }
+    return new CsvParser(delimiter.charAt(0));
+  }
+
+  /**
+   * Splits {@code line} into fields. The returned list is reused by the next call.
+   */
+  public List<String> parse(String line) {
+    fields.clear();
+    int length = line.length();
+    int start = 0;
+    while (true) {
+      if (start < length && line.charAt(start) == '"') {
+        start = parseQuoted(line, start + 1);
+        if (start == length) {
+          return fields;
+        }
+        if (line.charAt(start) != delimiter) {
+          throw new IllegalArgumentException(
+              "Unexpected character after quoted field at position " + start + ": " + line);
+        }
+        start++;
+      } else {
+        int end = line.indexOf(delimiter, start);
+        if (end < 0) {
+          fields.add(line.substring(start));
+          return fields;
+        }
+        fields.add(line.substring(start, end));
+        start = end + 1;
+      }
+    }
+  }
+
+  /**
+   * Adds the quoted field whose contents begin at {@code start}, and returns the position after
+   * its closing quote.
+   */
+  private int parseQuoted(String line, int start) {
+    quoted.setLength(0);
+    int position = start;
+    while (true) {
+      int quote = line.indexOf('"', position);
+      if (quote < 0) {
+        throw new IllegalArgumentException("Unterminated quoted field: " + line);
+      }
+      quoted.append(line, position, quote);
+      if (quote + 1 < line.length() && line.charAt(quote + 1) == '"') {
+        quoted.append('"');
+        position = quote + 2;
+      } else {
+        fields.add(quoted.toString());
+        return quote + 1;
+      }
+    }
+  }
+}
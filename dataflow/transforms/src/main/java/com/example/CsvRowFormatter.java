@@ -0,0 +1,213 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+
+/**
+ * Formats Avro records as UTF-8 CSV rows into a reused byte buffer.
+ *
+ * <p>The schema is laid out as columns by a {@link ConverterRegistry} once, so formatting a row
+ * is one {@link FieldCodec} call per column. The default codecs write numbers digit by digit
+ * instead of through {@code toString}, and copy Avro {@link Utf8} strings as bytes. A field
+ * whose text contains the delimiter, a quote or a line break is quoted as in RFC 4180, and a
+ * null value is written as an empty field. A formatter is not thread-safe.
+ */
+public class CsvRowFormatter {
+
+  private static final byte[] MIN_LONG =
+      Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.UTF_8);
+
+  private final byte delimiter;
+  private final ConverterRegistry.Column[] columns;
+  private final byte[] digits = new byte[20];
+  private byte[] buffer = new byte[256];
+  private int length;
+
+  public CsvRowFormatter(Schema schema, char delimiter) throws IllegalArgumentException {
+    this(schema, delimiter, ConverterRegistry.defaults());
+  }
+
+  public CsvRowFormatter(Schema schema, char delimiter, ConverterRegistry registry)
+      throws IllegalArgumentException {
+    if (delimiter >= 0x80 || delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+      throw new IllegalArgumentException("Invalid CSV delimiter: " + delimiter);
+    }
+    this.delimiter = (byte) delimiter;
+    this.columns = registry.columns(schema);
+  }
+
+  /**
+   * Returns a formatter for a delimiter given as a one-character string, as in
+   * {@link SampleOptions#getCsvDelimiter()}.
+   */
+  public static CsvRowFormatter forDelimiter(Schema schema, String delimiter) {
+    return forDelimiter(schema, delimiter, ConverterRegistry.defaults());
+  }
+
+  /**
+   * Returns a formatter that uses the codecs in {@code registry}.
+   */
+  public static CsvRowFormatter forDelimiter(
+      Schema schema, String delimiter, ConverterRegistry registry) {
+    if (delimiter == null || delimiter.length() != 1) {
+      throw new IllegalArgumentException(
+          "CSV delimiter must be a single character, got: " + delimiter);
+    }
+    return new CsvRowFormatter(schema, delimiter.charAt(0), registry);
+  }
+
+  /**
+   * Formats {@code record}, without a line terminator, as a string.
+   */
+  public String formatToString(GenericRecord record) {
+    format(record);
+    return new String(buffer, 0, length, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Writes {@code record} to {@code out} as one row ending in a newline.
+   */
+  public void writeTo(GenericRecord record, OutputStream out) throws IOException {
+    format(record);
+    append((byte) '\n');
+    out.write(buffer, 0, length);
+  }
+
+  private void format(GenericRecord record) {
+    length = 0;
+    for (int index = 0; index < columns.length; ++index) {
+      if (index > 0) {
+        append(delimiter);
+      }
+      ConverterRegistry.Column column = columns[index];
+      Object value = column.get(record);
+      if (value != null) {
+        int start = length;
+        column.codec().format(value, this);
+        quoteIfNeeded(start);
+      }
+    }
+  }
+
+  /**
+   * Quotes the field written since {@code start} in place if it contains the delimiter, a quote
+   * or a line break.
+   */
+  private void quoteIfNeeded(int start) {
+    boolean special = false;
+    int quotes = 0;
+    for (int i = start; i < length; i++) {
+      byte b = buffer[i];
+      if (b == '"') {
+        quotes++;
+        special = true;
+      } else if (b == delimiter || b == '\n' || b == '\r') {
+        special = true;
+      }
+    }
+    if (!special) {
+      return;
+    }
+    ensureCapacity(quotes + 2);
+    int quotedLength = length + quotes + 2;
+    int target = quotedLength - 1;
+    buffer[target--] = '"';
+    for (int i = length - 1; i >= start; i--) {
+      byte b = buffer[i];
+      buffer[target--] = b;
+      if (b == '"') {
+        buffer[target--] = '"';
+      }
+    }
+    buffer[target] = '"';
+    length = quotedLength;
+  }
+
+  /**
+   * Appends the UTF-8 bytes of {@code text}, copying an Avro {@link Utf8} without encoding it.
+   */
+  public void appendText(CharSequence text) {
+    if (text instanceof Utf8) {
+      append(((Utf8) text).getBytes(), 0, ((Utf8) text).getByteLength());
+    } else {
+      append(text.toString().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Appends the decimal digits of {@code value}.
+   */
+  public void appendLong(long value) {
+    if (value == Long.MIN_VALUE) {
+      append(MIN_LONG);
+      return;
+    }
+    if (value < 0) {
+      append((byte) '-');
+      value = -value;
+    }
+    int start = digits.length;
+    do {
+      digits[--start] = (byte) ('0' + value % 10);
+      value /= 10;
+    } while (value != 0);
+    append(digits, start, digits.length - start);
+  }
+
+  /**
+   * Appends {@code text}, which must be ASCII, without encoding it.
+   */
+  public void appendAscii(String text) {
+    ensureCapacity(text.length());
+    for (int i = 0; i < text.length(); i++) {
+      buffer[length++] = (byte) text.charAt(i);
+    }
+  }
+
+  /**
+   * Appends one raw byte.
+   */
+  public void append(byte b) {
+    ensureCapacity(1);
+    buffer[length++] = b;
+  }
+
+  private void append(byte[] bytes) {
+    append(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Appends {@code count} raw bytes of {@code bytes} from {@code offset}.
+   */
+  public void append(byte[] bytes, int offset, int count) {
+    ensureCapacity(count);
+    System.arraycopy(bytes, offset, buffer, length, count);
+    length += count;
+  }
+
+  private void ensureCapacity(int extra) {
+    if (length + extra > buffer.length) {
+      byte[] larger = new byte[Math.max(buffer.length * 2, length + extra)];
+      System.arraycopy(buffer, 0, larger, 0, length);
+      buffer = larger;
+    }
+  }
+}
@@ -70,6 +70,20 @@ public class CsvToAvro {
     }
   }
 
+  /**
+   * Checks that {@code registry} can convert every field of {@code schema}, flattening nested
+   * records, as {@link CompiledConvertCsvToAvro} will.
+   */
+  public static void checkFieldTypes(Schema schema, ConverterRegistry registry)
+      throws IllegalArgumentException {
+    try {
+      registry.columns(schema);
+    } catch (IllegalArgumentException e) {
+      LOG.error("Data transformation doesn't support: " + e.getMessage());
+      throw e;
+    }
+  }
+
   public static class ConvertCsvToAvro extends DoFn<String, GenericRecord> {
 
     private String delimiter;
@@ -82,8 +96,12 @@ public class CsvToAvro {
 
     @ProcessElement
     public void processElement(ProcessContext ctx) throws IllegalArgumentException {
+      ctx.output(convert(ctx.element()));
+    }
+
+    GenericRecord convert(String row) throws IllegalArgumentException {
       // Split CSV row into using delimiter
-      String[] rowValues = ctx.element().split(delimiter);
+      String[] rowValues = row.split(delimiter);
 
       Schema schema = new Schema.Parser().parse(schemaJson);
 
@@ -119,7 +137,62 @@ public class CsvToAvro {
             throw new IllegalArgumentException("Field type " + fieldType + " is not supported.");
         }
       }
-      ctx.output(genericRecord);
+      return genericRecord;
+    }
+  }
+
+  /**
+   * Converts CSV rows like {@link ConvertCsvToAvro}, but parses the schema once per DoFn instance
+   * in {@code @Setup} and converts each column with a {@link FieldCodec} from a
+   * {@link ConverterRegistry}, so it also handles nullable unions, enums, logical types, arrays
+   * and nested records. Rows are split with {@link CsvParser}, so quoted fields may contain the
+   * delimiter.
+   */
+  public static class CompiledConvertCsvToAvro extends DoFn<String, GenericRecord> {
+
+    private final String delimiter;
+    private final String schemaJson;
+    private transient Schema schema;
+    private final ConverterRegistry registry;
+    private transient ConverterRegistry.Column[] columns;
+    private transient CsvParser parser;
+
+    public CompiledConvertCsvToAvro(String schemaJson, String delimiter) {
+      this(schemaJson, delimiter, ConverterRegistry.defaults());
+    }
+
+    public CompiledConvertCsvToAvro(
+        String schemaJson, String delimiter, ConverterRegistry registry) {
+      this.schemaJson = schemaJson;
+      this.delimiter = delimiter;
+      this.registry = registry;
+    }
+
+    @Setup
+    public void setup() throws IllegalArgumentException {
+      schema = new Schema.Parser().parse(schemaJson);
+      columns = registry.columns(schema);
+      parser = CsvParser.forDelimiter(delimiter);
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext ctx) throws IllegalArgumentException {
+      ctx.output(convert(ctx.element()));
+    }
+
+    GenericRecord convert(String row) throws IllegalArgumentException {
+      List<String> rowValues = parser.parse(row);
+      if (rowValues.size() < columns.length) {
+        throw new IllegalArgumentException("Expected " + columns.length + " fields but found "
+            + rowValues.size() + ": " + row);
+      }
+
+      GenericData.Record genericRecord = new GenericData.Record(schema);
+      for (int index = 0; index < columns.length; ++index) {
+        ConverterRegistry.Column column = columns[index];
+        column.put(genericRecord, column.codec().parse(rowValues.get(index)));
+      }
+      return genericRecord;
     }
   }
 
@@ -132,15 +205,23 @@ public class CsvToAvro {
     Schema schema = new Schema.Parser().parse(schemaJson);
 
     // Check schema field types before starting the Dataflow job
-    checkFieldTypes(schema);
+    if (options.getCompiledConversion()) {
+      checkFieldTypes(schema, ConverterRegistry.defaults());
+      // Reject a delimiter the parser can't use now, rather than in every worker's @Setup
+      CsvParser.forDelimiter(options.getCsvDelimiter());
+    } else {
+      checkFieldTypes(schema);
+    }
 
     // Create the Pipeline object with the options we defined above.
     Pipeline pipeline = Pipeline.create(options);
 
     // Convert CSV to Avro
+    DoFn<String, GenericRecord> convert = options.getCompiledConversion()
+        ? new CompiledConvertCsvToAvro(schemaJson, options.getCsvDelimiter())
+        : new ConvertCsvToAvro(schemaJson, options.getCsvDelimiter());
     pipeline.apply("Read CSV files", TextIO.read().from(options.getInputFile()))
-        .apply("Convert CSV to Avro formatted data",
-            ParDo.of(new ConvertCsvToAvro(schemaJson, options.getCsvDelimiter())))
+        .apply("Convert CSV to Avro formatted data", ParDo.of(convert))
         .setCoder(AvroCoder.of(GenericRecord.class, schema))
         .apply("Write Avro formatted data", AvroIO.writeGenericRecords(schemaJson)
             .to(options.getOutput()).withCodec(CodecFactory.snappyCodec()).withSuffix(".avro"));
@@ -0,0 +1,65 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.example;
+
+/**
+ * Converts one CSV column to and from the value of an Avro field. Codecs are created by a
+ * {@link ConverterRegistry} once per schema, so they may hold anything resolved from the
+ * schema, but they must not keep state between values.
+ */
+public interface FieldCodec {
+
+  /**
+   * Returns the Avro value for the text of a CSV field.
+   */
+  Object parse(String text) throws IllegalArgumentException;
+
+  /**
+   * Appends the CSV text of {@code value}, which is never null unless the codec is for a nullable
+   * union, to {@code out}. The formatter quotes the field afterwards if the text needs it.
+   */
+  void format(Object value, CsvRowFormatter out);
+
+  /**
+   * The parsing half of a codec.
+   */
+  interface Parser {
+    Object parse(String text) throws IllegalArgumentException;
+  }
+
+  /**
+   * The formatting half of a codec.
+   */
+  interface Formatter {
+    void format(Object value, CsvRowFormatter out);
+  }
+
+  /**
+   * Returns a codec made of a parser and a formatter, which may both be lambdas.
+   */
+  static FieldCodec of(Parser parser, Formatter formatter) {
+    return new FieldCodec() {
+      @Override
+      public Object parse(String text) {
+        return parser.parse(text);
+      }
+
+      @Override
+      public void format(Object value, CsvRowFormatter out) {
+        formatter.format(value, out);
+      }
+    };
+  }
+}
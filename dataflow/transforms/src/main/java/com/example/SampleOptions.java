@@ -68,4 +68,60 @@ public interface SampleOptions extends DataflowPipelineOptions {
   String getCsvDelimiter();
 
   void setCsvDelimiter(String delimiter);
+
+  /**
+   * Set compiledConversion optional parameter to choose how CSV rows are converted to Avro. When
+   * true, the schema is compiled once per worker, rows are split following RFC 4180 and the
+   * delimiter must be a single character. Default is false, which splits rows with String.split.
+   */
+  @Description(
+      "Set compiledConversion optional parameter to choose how CSV rows are converted to Avro. "
+          + "When true, the schema is compiled once per worker, rows are split following RFC 4180 "
+          + "and the delimiter must be a single character. Default is false, which splits rows "
+          + "with String.split.")
+  @Default.Boolean(false)
+  Boolean getCompiledConversion();
+
+  void setCompiledConversion(Boolean value);
+
+  /**
+   * Set quotedCsvOutput optional parameter to write Avro to CSV output following RFC 4180: fields
+   * containing the delimiter or a quote are quoted, null fields are empty and the delimiter must
+   * be a single character. Default is false, which writes fields unquoted and nulls as "null".
+   */
+  @Description(
+      "Set quotedCsvOutput optional parameter to write Avro to CSV output following RFC 4180: "
+          + "fields containing the delimiter or a quote are quoted, null fields are empty and the "
+          + "delimiter must be a single character. Default is false, which writes fields unquoted "
+          + "and nulls as \"null\".")
+  @Default.Boolean(false)
+  Boolean getQuotedCsvOutput();
+
+  void setQuotedCsvOutput(Boolean value);
+
+  /**
+   * Set directCsvSink optional parameter to write Avro to CSV output with a FileIO sink that
+   * writes rows as bytes, instead of converting them to strings for TextIO. The sink always
+   * writes the quotedCsvOutput format.
+   */
+  @Description(
+      "Set directCsvSink optional parameter to write Avro to CSV output with a FileIO sink that "
+          + "writes rows as bytes, instead of converting them to strings for TextIO. The sink "
+          + "always writes the quotedCsvOutput format.")
+  @Default.Boolean(false)
+  Boolean getDirectCsvSink();
+
+  void setDirectCsvSink(Boolean value);
+
+  /**
+   * Set csvCompression optional parameter to compress CSV output written with directCsvSink, for
+   * example GZIP. Default is UNCOMPRESSED.
+   */
+  @Description(
+      "Set csvCompression optional parameter to compress CSV output written with directCsvSink, "
+          + "for example GZIP. Default is UNCOMPRESSED.")
+  @Default.String("UNCOMPRESSED")
+  String getCsvCompression();
+
+  void setCsvCompression(String value);
 }
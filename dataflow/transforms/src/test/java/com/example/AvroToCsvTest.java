@@ -15,19 +15,36 @@
 package com.example;
 
 import static com.example.CsvToAvro.getSchema;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertThat;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.sdk.coders.AvroCoder;
 import org.apache.beam.sdk.io.AvroIO;
+import org.apache.beam.sdk.io.Compression;
+import org.apache.beam.sdk.io.FileIO;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.testing.PAssert;
 import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.beam.sdk.values.PCollection;
 import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -37,6 +54,9 @@ public class AvroToCsvTest implements Serializable {
   @Rule
   public final transient TestPipeline pipeline = TestPipeline.create();
 
+  @Rule
+  public final transient TemporaryFolder folder = new TemporaryFolder();
+
   @BeforeClass
   public static void setUp() {
     PipelineOptionsFactory.register(SampleOptions.class);
@@ -64,4 +84,43 @@ public class AvroToCsvTest implements Serializable {
 
     pipeline.run().waitUntilFinish();
   }
+
+  @Test
+  public void testCsvSinkWritesCompressedShards() throws Exception {
+    Schema schema = new Schema.Parser().parse(CsvTestData.SCHEMA_JSON);
+    List<GenericRecord> records = new ArrayList<>();
+    for (String name : Arrays.asList("frank", "Smith, Jr.")) {
+      GenericRecord record = new GenericData.Record(schema);
+      record.put("first_name", name);
+      record.put("last_name", "natividad");
+      record.put("age", 1);
+      record.put("user_id", 2L);
+      record.put("score", 0.5);
+      record.put("active", false);
+      records.add(record);
+    }
+
+    pipeline
+        .apply(Create.of(records).withCoder(AvroCoder.of(GenericRecord.class, schema)))
+        .apply(FileIO.<GenericRecord>write()
+            .via(new AvroToCsv.CsvSink(CsvTestData.SCHEMA_JSON, ","))
+            .to(folder.getRoot().getAbsolutePath())
+            .withPrefix("output")
+            .withSuffix(".csv.gz")
+            .withCompression(Compression.GZIP));
+    pipeline.run().waitUntilFinish();
+
+    List<String> lines = new ArrayList<>();
+    for (File shard : folder.getRoot().listFiles((dir, name) -> name.endsWith(".csv.gz"))) {
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+          new GZIPInputStream(new FileInputStream(shard)), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          lines.add(line);
+        }
+      }
+    }
+    assertThat(lines, containsInAnyOrder(
+        "frank,natividad,1,2,0.5,false", "\"Smith, Jr.\",natividad,1,2,0.5,false"));
+  }
 }
@@ -0,0 +1,84 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.example;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.sdk.coders.AvroCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.testing.PAssert;
+import org.apache.beam.sdk.testing.TestPipeline;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PCollection;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CompiledCsvToAvroTest implements Serializable {
+
+  private static final int ROWS = 1000;
+
+  @Rule
+  public final transient TestPipeline pipeline = TestPipeline.create();
+
+  @Test
+  public void testQuotedFields() {
+    String schemaJson = "{\"type\": \"record\", \"name\": \"User\", \"fields\": ["
+        + "{\"name\": \"name\", \"type\": \"string\"},"
+        + "{\"name\": \"age\", \"type\": \"int\"}]}";
+    Schema schema = new Schema.Parser().parse(schemaJson);
+
+    GenericRecord expected = new GenericData.Record(schema);
+    expected.put("name", "Smith, \"Jr.\"");
+    expected.put("age", 42);
+
+    PCollection<GenericRecord> records = pipeline
+        .apply(Create.of("\"Smith, \"\"Jr.\"\"\",42"))
+        .apply(ParDo.of(new CsvToAvro.CompiledConvertCsvToAvro(schemaJson, ",")))
+        .setCoder(AvroCoder.of(GenericRecord.class, schema));
+
+    PAssert.that(records).containsInAnyOrder(expected);
+
+    pipeline.run().waitUntilFinish();
+  }
+
+  @Test
+  public void testMatchesOriginal() {
+    List<String> rows = CsvTestData.rows(ROWS);
+    CsvToAvro.ConvertCsvToAvro original =
+        new CsvToAvro.ConvertCsvToAvro(CsvTestData.SCHEMA_JSON, ",");
+    List<GenericRecord> expected = new ArrayList<>();
+    for (String row : rows) {
+      expected.add(original.convert(row));
+    }
+
+    PCollection<GenericRecord> records = pipeline
+        .apply(Create.of(rows).withCoder(StringUtf8Coder.of()))
+        .apply(ParDo.of(new CsvToAvro.CompiledConvertCsvToAvro(CsvTestData.SCHEMA_JSON, ",")))
+        .setCoder(AvroCoder.of(GenericRecord.class,
+            new Schema.Parser().parse(CsvTestData.SCHEMA_JSON)));
+
+    PAssert.that(records).containsInAnyOrder(expected);
+
+    pipeline.run().waitUntilFinish();
+  }
+}
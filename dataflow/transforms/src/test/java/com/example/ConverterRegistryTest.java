@@ -0,0 +1,110 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConverterRegistryTest {
+
+  private static final String SCHEMA_JSON = "{\"type\": \"record\", \"name\": \"Order\", "
+      + "\"fields\": ["
+      + "{\"name\": \"id\", \"type\": \"long\"},"
+      + "{\"name\": \"note\", \"type\": [\"null\", \"string\"]},"
+      + "{\"name\": \"status\", \"type\": {\"type\": \"enum\", \"name\": \"Status\", "
+      + "\"symbols\": [\"OPEN\", \"SHIPPED\"]}},"
+      + "{\"name\": \"payload\", \"type\": \"bytes\"},"
+      + "{\"name\": \"hash\", \"type\": {\"type\": \"fixed\", \"name\": \"Hash\", \"size\": 4}},"
+      + "{\"name\": \"price\", \"type\": {\"type\": \"bytes\", \"logicalType\": \"decimal\", "
+      + "\"precision\": 9, \"scale\": 2}},"
+      + "{\"name\": \"created\", \"type\": {\"type\": \"long\", "
+      + "\"logicalType\": \"timestamp-millis\"}},"
+      + "{\"name\": \"tags\", \"type\": {\"type\": \"array\", \"items\": \"string\"}},"
+      + "{\"name\": \"address\", \"type\": [\"null\", {\"type\": \"record\", "
+      + "\"name\": \"Address\", \"fields\": ["
+      + "{\"name\": \"city\", \"type\": \"string\"},"
+      + "{\"name\": \"zip\", \"type\": [\"null\", \"int\"]}]}]}]}";
+
+  private static final String ROW =
+      "7,,SHIPPED,aGk=,AQIDBA==,12.50,2018-06-01T12:00:00Z,a;b,\"Zurich, CH\",8001";
+
+  private final Schema schema = new Schema.Parser().parse(SCHEMA_JSON);
+
+  private static GenericRecord parse(String row) {
+    CsvToAvro.CompiledConvertCsvToAvro convert =
+        new CsvToAvro.CompiledConvertCsvToAvro(SCHEMA_JSON, ",");
+    convert.setup();
+    return convert.convert(row);
+  }
+
+  @Test
+  public void testColumnsFlattenNestedRecords() {
+    ConverterRegistry.Column[] columns = ConverterRegistry.defaults().columns(schema);
+    assertEquals(10, columns.length);
+    assertEquals("address.city", columns[8].name());
+    assertEquals("address.zip", columns[9].name());
+  }
+
+  @Test
+  public void testRoundTrip() {
+    GenericRecord record = parse(ROW);
+    assertNull(record.get("note"));
+    assertEquals("SHIPPED", record.get("status").toString());
+    assertEquals(1527854400000L, record.get("created"));
+    assertEquals("Zurich, CH", ((GenericRecord) record.get("address")).get("city"));
+    assertEquals(ROW, new CsvRowFormatter(schema, ',').formatToString(record));
+  }
+
+  @Test
+  public void testRawTimestampAndNullNestedRecord() {
+    GenericRecord record = parse("7,note,OPEN,,AAAAAA==,0.1,0,,Bern,");
+    assertEquals(0L, record.get("created"));
+    assertNull(((GenericRecord) record.get("address")).get("zip"));
+
+    record.put("address", null);
+    assertEquals("7,note,OPEN,,AAAAAA==,0.10,1970-01-01T00:00:00Z,,,",
+        new CsvRowFormatter(schema, ',').formatToString(record));
+  }
+
+  @Test
+  public void testRegisteredCodecOverridesDefault() {
+    ConverterRegistry registry = ConverterRegistry.defaults()
+        .register(Schema.Type.STRING, (stringSchema, unused) -> FieldCodec.of(
+            text -> text, (value, out) -> out.appendText(value.toString().toUpperCase())));
+    Schema simple = new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"R\", "
+        + "\"fields\": [{\"name\": \"s\", \"type\": [\"null\", \"string\"]}]}");
+    GenericRecord record = new GenericData.Record(simple);
+    record.put("s", "quiet");
+    assertEquals("QUIET", new CsvRowFormatter(simple, ',', registry).formatToString(record));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDecimalWithTooManyPlaces() {
+    parse("7,,OPEN,,AAAAAA==,1.234,0,,,");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownEnumSymbol() {
+    parse("7,,LOST,,AAAAAA==,1.23,0,,,");
+  }
+}
@@ -0,0 +1,64 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.example;
+
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CsvParserTest {
+
+  private final CsvParser parser = new CsvParser(',');
+
+  @Test
+  public void testUnquotedFields() {
+    assertThat(parser.parse("frank,natividad,10"), contains("frank", "natividad", "10"));
+  }
+
+  @Test
+  public void testEmptyFields() {
+    assertThat(parser.parse(",a,,"), contains("", "a", "", ""));
+  }
+
+  @Test
+  public void testQuotedFieldWithDelimiterAndEscapedQuote() {
+    assertThat(parser.parse("\"Smith, Jr.\",\"say \"\"hi\"\"\",3"),
+        contains("Smith, Jr.", "say \"hi\"", "3"));
+  }
+
+  @Test
+  public void testOtherDelimiter() {
+    assertThat(CsvParser.forDelimiter("|").parse("a|\"b|c\"|d"), contains("a", "b|c", "d"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnterminatedQuote() {
+    parser.parse("\"open,field");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTextAfterClosingQuote() {
+    parser.parse("\"a\"b,c");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMultiCharacterDelimiter() {
+    CsvParser.forDelimiter("::");
+  }
+}
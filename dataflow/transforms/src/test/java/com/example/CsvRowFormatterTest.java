@@ -0,0 +1,76 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.example;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.util.Utf8;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CsvRowFormatterTest {
+
+  private final Schema schema = new Schema.Parser().parse(CsvTestData.SCHEMA_JSON);
+
+  private GenericRecord record(Object firstName, int age, long userId, double score) {
+    GenericRecord record = new GenericData.Record(schema);
+    record.put("first_name", firstName);
+    record.put("last_name", new Utf8("hopper"));
+    record.put("age", age);
+    record.put("user_id", userId);
+    record.put("score", score);
+    record.put("active", true);
+    return record;
+  }
+
+  @Test
+  public void testMatchesOriginalFormatting() {
+    CsvRowFormatter formatter = new CsvRowFormatter(schema, ',');
+    assertEquals("Grace,hopper,85,-9223372036854775808,0.5,true",
+        formatter.formatToString(record("Grace", 85, Long.MIN_VALUE, 0.5)));
+    assertEquals("Ada,hopper,-7,1234567890123,1.0E-5,true",
+        formatter.formatToString(record(new Utf8("Ada"), -7, 1234567890123L, 1e-5)));
+  }
+
+  @Test
+  public void testQuotesFieldsWithDelimiterOrQuote() {
+    CsvRowFormatter formatter = new CsvRowFormatter(schema, ',');
+    assertEquals("\"Smith, \"\"Jr.\"\"\",hopper,1,2,3.0,true",
+        formatter.formatToString(record(new Utf8("Smith, \"Jr.\""), 1, 2, 3)));
+  }
+
+  @Test
+  public void testWriteToAppendsNewlineAndReusesBuffer() throws Exception {
+    CsvRowFormatter formatter = CsvRowFormatter.forDelimiter(schema, "|");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    formatter.writeTo(record("Zo\u00eb", 1, 2, 3), out);
+    formatter.writeTo(record("Al", 4, 5, 6), out);
+    assertEquals("Zo\u00eb|hopper|1|2|3.0|true\nAl|hopper|4|5|6.0|true\n",
+        new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsupportedFieldType() {
+    new CsvRowFormatter(new Schema.Parser().parse("{\"type\": \"record\", \"name\": \"R\", "
+        + "\"fields\": [{\"name\": \"u\", \"type\": [\"int\", \"string\"]}]}"), ',');
+  }
+}
@@ -0,0 +1,55 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic CSV rows and their schema, for conversion tests and benchmarks.
+ */
+class CsvTestData {
+
+  static final String SCHEMA_JSON = "{\"type\": \"record\", \"name\": \"User\", \"fields\": ["
+      + "{\"name\": \"first_name\", \"type\": \"string\"},"
+      + "{\"name\": \"last_name\", \"type\": \"string\"},"
+      + "{\"name\": \"age\", \"type\": \"int\"},"
+      + "{\"name\": \"user_id\", \"type\": \"long\"},"
+      + "{\"name\": \"score\", \"type\": \"double\"},"
+      + "{\"name\": \"active\", \"type\": \"boolean\"}]}";
+
+  private static final String[] FIRST_NAMES = {"frank", "Karthi", "Ada", "Grace", "Linus"};
+  private static final String[] LAST_NAMES =
+      {"natividad", "thyagarajan", "lovelace", "hopper", "torvalds"};
+
+  /**
+   * Returns {@code count} comma-separated rows matching {@link #SCHEMA_JSON}, with no quoted
+   * fields so that every converter can read them.
+   */
+  static List<String> rows(int count) {
+    Random random = new Random(42);
+    List<String> rows = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      rows.add(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + ","
+          + LAST_NAMES[random.nextInt(LAST_NAMES.length)] + ","
+          + random.nextInt(100) + ","
+          + random.nextLong() + ","
+          + random.nextDouble() + ","
+          + random.nextBoolean());
+    }
+    return rows;
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.example;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.avro.generic.GenericRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the per-row cost of the original and compiled CSV to Avro conversions.
+ *
+ * <p>Run with {@code mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.example.CsvToAvroBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvToAvroBenchmark {
+
+  private List<String> rows;
+  private int next;
+  private CsvToAvro.ConvertCsvToAvro original;
+  private CsvToAvro.CompiledConvertCsvToAvro compiled;
+
+  @Setup
+  public void setUp() {
+    rows = CsvTestData.rows(1024);
+    original = new CsvToAvro.ConvertCsvToAvro(CsvTestData.SCHEMA_JSON, ",");
+    compiled = new CsvToAvro.CompiledConvertCsvToAvro(CsvTestData.SCHEMA_JSON, ",");
+    compiled.setup();
+  }
+
+  @Benchmark
+  public GenericRecord original() {
+    return original.convert(nextRow());
+  }
+
+  @Benchmark
+  public GenericRecord compiled() {
+    return compiled.convert(nextRow());
+  }
+
+  private String nextRow() {
+    next = (next + 1) & (rows.size() - 1);
+    return rows.get(next);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(CsvToAvroBenchmark.class.getSimpleName()).build())
+        .run();
+  }
+}
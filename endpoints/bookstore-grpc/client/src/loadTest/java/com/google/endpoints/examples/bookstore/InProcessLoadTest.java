@@ -0,0 +1,68 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.endpoints.examples.bookstore;
+
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Runs the client's load generator against a bookstore served in this process, to measure
+ * BookstoreService and BookstoreData throughput without a network. Takes the same load options
+ * as {@link BookstoreClient}.
+ */
+public final class InProcessLoadTest {
+
+  public static void main(String[] args) throws Exception {
+    Options options = BookstoreClient.createOptions();
+    CommandLine params;
+    try {
+      params = new DefaultParser().parse(options, args);
+    } catch (ParseException e) {
+      System.err.println("Invalid command line: " + e.getMessage());
+      BookstoreClient.printUsage(options);
+      return;
+    }
+
+    String serverName = "bookstore-load-" + System.nanoTime();
+    try (BookstoreData data = new BookstoreData()) {
+      Server server = InProcessServerBuilder.forName(serverName)
+          .addService(new BookstoreService(data))
+          .build()
+          .start();
+      try {
+        BookstoreClient.generateLoad(params,
+            () -> InProcessChannelBuilder.forName(serverName).build(), null, null);
+      } catch (ParseException | IllegalArgumentException e) {
+        System.err.println("Invalid command line: " + e.getMessage());
+        BookstoreClient.printUsage(options);
+      } finally {
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  private InProcessLoadTest() {
+  }
+}
@@ -16,18 +16,22 @@
 
 package com.google.endpoints.examples.bookstore;
 
-import com.google.protobuf.Empty;
-
 import io.grpc.CallOptions;
 import io.grpc.Channel;
 import io.grpc.ClientCall;
 import io.grpc.ClientInterceptor;
 import io.grpc.ClientInterceptors;
 import io.grpc.ForwardingClientCall;
+import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import io.grpc.Metadata;
 import io.grpc.MethodDescriptor;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import org.apache.commons.cli.CommandLine;
@@ -44,6 +48,7 @@ import org.apache.commons.cli.ParseException;
 public final class BookstoreClient {
 
   private static final String DEFAULT_ADDRESS = "localhost:8000";
+  private static final String DEFAULT_MIX = "get_book=70,list_books=20,create_book=10";
 
   public static void main(String[] args) throws Exception {
     Options options = createOptions();
@@ -62,6 +67,16 @@ public final class BookstoreClient {
     String authToken = params.getOptionValue("auth_token");
     String operation = params.getOptionValue("operation", "list");
 
+    if ("load".equals(operation)) {
+      try {
+        generateLoad(params, address, apiKey, authToken);
+      } catch (ParseException | IllegalArgumentException e) {
+        System.err.println("Invalid command line: " + e.getMessage());
+        printUsage(options);
+      }
+      return;
+    }
+
     // Create gRPC stub.
     BookstoreGrpc.BookstoreBlockingStub bookstore = createBookstoreStub(
         address, apiKey, authToken);
@@ -72,6 +87,8 @@ public final class BookstoreClient {
       createShelf(bookstore);
     } else if ("enumerate".equals(operation)) {
       enumerate(bookstore);
+    } else if ("stream".equals(operation)) {
+      streamBooks(bookstore);
     }
   }
 
@@ -81,7 +98,7 @@ public final class BookstoreClient {
    * @param bookstore a client stub to call Bookstore service.
    */
   static void listShelves(BookstoreGrpc.BookstoreBlockingStub bookstore) {
-    ListShelvesResponse shelves = bookstore.listShelves(Empty.getDefaultInstance());
+    ListShelvesResponse shelves = bookstore.listShelves(ListShelvesRequest.getDefaultInstance());
     System.out.println(shelves);
   }
 
@@ -104,7 +121,7 @@ public final class BookstoreClient {
    */
   static void enumerate(BookstoreGrpc.BookstoreBlockingStub bookstore) {
     System.out.println("Calling listShelves");
-    ListShelvesResponse shelves = bookstore.listShelves(Empty.getDefaultInstance());
+    ListShelvesResponse shelves = bookstore.listShelves(ListShelvesRequest.getDefaultInstance());
     System.out.println(shelves);
 
     for (Shelf s : shelves.getShelvesList()) {
@@ -137,6 +154,82 @@ public final class BookstoreClient {
     }
   }
 
+  /**
+   * Streams the books on every shelf in the bookstore, a page at a time.
+   *
+   * @param bookstore a client stub to call Bookstore service.
+   */
+  static void streamBooks(BookstoreGrpc.BookstoreBlockingStub bookstore) {
+    ListShelvesResponse shelves = bookstore.listShelves(ListShelvesRequest.getDefaultInstance());
+    for (Shelf shelf : shelves.getShelvesList()) {
+      System.out.format("Streaming books from shelf %d:\n", shelf.getId());
+      ListBooksRequest request = ListBooksRequest.newBuilder()
+          .setShelf(shelf.getId())
+          .build();
+      Iterator<ListBooksResponse> pages = bookstore.streamBooks(request);
+      while (pages.hasNext()) {
+        System.out.println(pages.next());
+      }
+    }
+  }
+
+  /**
+   * Runs a {@link LoadGenerator} against the server at {@code address}.
+   */
+  static void generateLoad(CommandLine params, String address, String apiKey, String authToken)
+      throws Exception {
+    generateLoad(params,
+        () -> ManagedChannelBuilder.forTarget(address).usePlaintext(true).build(),
+        apiKey, authToken);
+  }
+
+  /**
+   * Runs a {@link LoadGenerator} over channels made by {@code newChannel}.
+   */
+  static void generateLoad(CommandLine params, Supplier<ManagedChannel> newChannel,
+      String apiKey, String authToken) throws Exception {
+    int channelCount = (int) parseLong(params, "channels", 1);
+    int concurrency = (int) parseLong(params, "concurrency", 16);
+    long qps = parseLong(params, "qps", 0);
+    long warmupSeconds = parseLong(params, "warmup", 5);
+    long durationSeconds = parseLong(params, "duration", 30);
+    int books = (int) parseLong(params, "books", 100);
+
+    List<ManagedChannel> channels = new ArrayList<>();
+    List<Channel> intercepted = new ArrayList<>();
+    try {
+      for (int i = 0; i < channelCount; i++) {
+        ManagedChannel channel = newChannel.get();
+        channels.add(channel);
+        // The interceptor logs every call, so only add it when there is something to attach.
+        intercepted.add(apiKey == null && authToken == null
+            ? channel : ClientInterceptors.intercept(channel, new Interceptor(apiKey, authToken)));
+      }
+      LoadGenerator generator = new LoadGenerator(intercepted, concurrency, qps,
+          LoadGenerator.parseMix(params.getOptionValue("mix", DEFAULT_MIX)), books);
+      System.out.format("Generating load with %d channels, %d concurrent calls, %s for %d s\n",
+          channelCount, concurrency, qps == 0 ? "unthrottled" : qps + " QPS", durationSeconds);
+      generator.run(warmupSeconds, durationSeconds);
+    } finally {
+      for (ManagedChannel channel : channels) {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+      }
+    }
+  }
+
+  private static long parseLong(CommandLine params, String option, long defaultValue)
+      throws ParseException {
+    if (!params.hasOption(option)) {
+      return defaultValue;
+    }
+    String value = params.getOptionValue(option);
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new ParseException("Invalid value for --" + option + ": " + value);
+    }
+  }
+
   private static final class Interceptor implements ClientInterceptor {
     private final String apiKey;
     private final String authToken;
@@ -188,7 +281,7 @@ public final class BookstoreClient {
     return BookstoreGrpc.newBlockingStub(channel);
   }
 
-  private static Options createOptions() {
+  static Options createOptions() {
     Options options = new Options();
 
     // bookstore
@@ -221,16 +314,80 @@ public final class BookstoreClient {
     // operation
     options.addOption(Option.builder()
         .longOpt("operation")
-        .desc("The bookstore operation to perform: list|create|enumerate")
+        .desc("The bookstore operation to perform: list|create|enumerate|stream|load")
         .hasArg()
         .argName("op")
         .type(String.class)
         .build());
 
+    // channels
+    options.addOption(Option.builder()
+        .longOpt("channels")
+        .desc("For load: the number of channels to spread calls over (default 1)")
+        .hasArg()
+        .argName("count")
+        .type(Integer.class)
+        .build());
+
+    // concurrency
+    options.addOption(Option.builder()
+        .longOpt("concurrency")
+        .desc("For load: the maximum number of outstanding calls (default 16)")
+        .hasArg()
+        .argName("count")
+        .type(Integer.class)
+        .build());
+
+    // qps
+    options.addOption(Option.builder()
+        .longOpt("qps")
+        .desc("For load: calls per second to schedule, or 0 for as fast as possible (default 0)")
+        .hasArg()
+        .argName("qps")
+        .type(Long.class)
+        .build());
+
+    // mix
+    options.addOption(Option.builder()
+        .longOpt("mix")
+        .desc("For load: relative weights of get_book, list_books, get_shelf, create_book and "
+            + "list_shelves (default " + DEFAULT_MIX + ")")
+        .hasArg()
+        .argName("rpc=weight,...")
+        .type(String.class)
+        .build());
+
+    // books
+    options.addOption(Option.builder()
+        .longOpt("books")
+        .desc("For load: the number of books to create before the run (default 100)")
+        .hasArg()
+        .argName("count")
+        .type(Integer.class)
+        .build());
+
+    // warmup
+    options.addOption(Option.builder()
+        .longOpt("warmup")
+        .desc("For load: seconds of load before recording starts (default 5)")
+        .hasArg()
+        .argName("seconds")
+        .type(Long.class)
+        .build());
+
+    // duration
+    options.addOption(Option.builder()
+        .longOpt("duration")
+        .desc("For load: seconds of load to record (default 30)")
+        .hasArg()
+        .argName("seconds")
+        .type(Long.class)
+        .build());
+
     return options;
   }
 
-  private static void printUsage(Options options) {
+  static void printUsage(Options options) {
     HelpFormatter formatter = new HelpFormatter();
     formatter.printHelp("client",
         "A simple Bookstore gRPC client for use with Endpoints.", options, "", true);
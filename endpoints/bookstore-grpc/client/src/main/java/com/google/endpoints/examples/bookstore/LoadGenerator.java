@@ -0,0 +1,275 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.endpoints.examples.bookstore;
+
+import io.grpc.Channel;
+import io.grpc.stub.StreamObserver;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Drives a mix of Bookstore RPCs through async stubs and reports latency percentiles.
+ *
+ * <p>At most {@code concurrency} calls are outstanding at once, spread round-robin over the
+ * channels. With a target QPS, calls are scheduled at fixed intervals and latency is measured
+ * from when each call was due rather than when it was sent, so a server that falls behind is
+ * charged for the queueing it causes. Without one, each completed call immediately frees its
+ * slot for the next.
+ */
+final class LoadGenerator {
+
+  /**
+   * The RPCs the generator can issue. All of them work on a shelf created for the run.
+   */
+  enum Rpc {
+    GET_BOOK {
+      @Override
+      void call(LoadGenerator generator, BookstoreGrpc.BookstoreStub stub, long startNanos) {
+        GetBookRequest request = GetBookRequest.newBuilder()
+            .setShelf(generator.shelfId)
+            .setBook(1 + ThreadLocalRandom.current().nextLong(generator.books))
+            .build();
+        stub.getBook(request, generator.<Book>completion(this, startNanos));
+      }
+    },
+    LIST_BOOKS {
+      @Override
+      void call(LoadGenerator generator, BookstoreGrpc.BookstoreStub stub, long startNanos) {
+        ListBooksRequest request = ListBooksRequest.newBuilder()
+            .setShelf(generator.shelfId)
+            .setPageSize(LIST_PAGE_SIZE)
+            .build();
+        stub.listBooks(request, generator.<ListBooksResponse>completion(this, startNanos));
+      }
+    },
+    GET_SHELF {
+      @Override
+      void call(LoadGenerator generator, BookstoreGrpc.BookstoreStub stub, long startNanos) {
+        GetShelfRequest request = GetShelfRequest.newBuilder()
+            .setShelf(generator.shelfId)
+            .build();
+        stub.getShelf(request, generator.<Shelf>completion(this, startNanos));
+      }
+    },
+    CREATE_BOOK {
+      @Override
+      void call(LoadGenerator generator, BookstoreGrpc.BookstoreStub stub, long startNanos) {
+        CreateBookRequest request = CreateBookRequest.newBuilder()
+            .setShelf(generator.shelfId)
+            .setBook(Book.newBuilder().setAuthor("Load Generator").setTitle("Load Test"))
+            .build();
+        stub.createBook(request, generator.<Book>completion(this, startNanos));
+      }
+    },
+    LIST_SHELVES {
+      @Override
+      void call(LoadGenerator generator, BookstoreGrpc.BookstoreStub stub, long startNanos) {
+        ListShelvesRequest request = ListShelvesRequest.newBuilder()
+            .setPageSize(LIST_PAGE_SIZE)
+            .build();
+        stub.listShelves(request, generator.<ListShelvesResponse>completion(this, startNanos));
+      }
+    };
+
+    abstract void call(LoadGenerator generator, BookstoreGrpc.BookstoreStub stub, long startNanos);
+  }
+
+  private static final int LIST_PAGE_SIZE = 10;
+  // Latencies are recorded in microseconds, up to a minute.
+  private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+  private final List<BookstoreGrpc.BookstoreStub> stubs = new ArrayList<>();
+  private final int concurrency;
+  private final double targetQps;
+  private final Rpc[] weightedRpcs;
+  private final int books;
+  private final Semaphore slots;
+  private final AtomicInteger nextStub = new AtomicInteger();
+  private final Map<Rpc, Histogram> latencies = new EnumMap<>(Rpc.class);
+  private final Map<Rpc, LongAdder> errors = new EnumMap<>(Rpc.class);
+  private long shelfId;
+  private volatile long recordAfterNanos;
+
+  /**
+   * Creates a generator that sends {@code mix} (relative weights per RPC) over {@code channels}.
+   *
+   * @param targetQps calls per second to schedule, or 0 to send as fast as completions allow
+   * @param books the number of books to put on the shelf before the run
+   */
+  LoadGenerator(List<? extends Channel> channels, int concurrency, double targetQps,
+      Map<Rpc, Integer> mix, int books) {
+    if (channels.isEmpty() || concurrency < 1 || targetQps < 0 || books < 1) {
+      throw new IllegalArgumentException(
+          "Need at least one channel, positive concurrency and books, and a non-negative QPS");
+    }
+    for (Channel channel : channels) {
+      stubs.add(BookstoreGrpc.newStub(channel));
+    }
+    this.concurrency = concurrency;
+    this.targetQps = targetQps;
+    this.books = books;
+    this.slots = new Semaphore(concurrency);
+    List<Rpc> weighted = new ArrayList<>();
+    for (Map.Entry<Rpc, Integer> entry : mix.entrySet()) {
+      for (int i = 0; i < entry.getValue(); i++) {
+        weighted.add(entry.getKey());
+      }
+      latencies.put(entry.getKey(), new ConcurrentHistogram(MAX_LATENCY_MICROS, 3));
+      errors.put(entry.getKey(), new LongAdder());
+    }
+    if (weighted.isEmpty()) {
+      throw new IllegalArgumentException("The RPC mix is empty");
+    }
+    this.weightedRpcs = weighted.toArray(new Rpc[0]);
+  }
+
+  /**
+   * Parses a mix such as {@code get_book=80,list_books=15,create_book=5}.
+   */
+  static Map<Rpc, Integer> parseMix(String mix) {
+    Map<Rpc, Integer> weights = new EnumMap<>(Rpc.class);
+    for (String part : mix.split(",")) {
+      String[] nameAndWeight = part.trim().split("=");
+      if (nameAndWeight.length != 2) {
+        throw new IllegalArgumentException("Expected rpc=weight, got " + part);
+      }
+      int weight = Integer.parseInt(nameAndWeight[1].trim());
+      if (weight < 0) {
+        throw new IllegalArgumentException("Negative weight for " + nameAndWeight[0]);
+      }
+      weights.put(Rpc.valueOf(nameAndWeight[0].trim().toUpperCase()), weight);
+    }
+    return weights;
+  }
+
+  /**
+   * Creates the shelf and books the run uses, then generates load for {@code warmupSeconds}
+   * without recording it and for {@code durationSeconds} more, and prints a report.
+   */
+  void run(long warmupSeconds, long durationSeconds) throws InterruptedException {
+    setUp();
+    long startNanos = System.nanoTime();
+    recordAfterNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+    long endNanos = recordAfterNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+    long intervalNanos = targetQps == 0 ? 0 : (long) (TimeUnit.SECONDS.toNanos(1) / targetQps);
+    long dueNanos = startNanos;
+    while (true) {
+      if (intervalNanos > 0) {
+        dueNanos += intervalNanos;
+        long wait = dueNanos - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+      }
+      slots.acquire();
+      long now = System.nanoTime();
+      if (now - endNanos >= 0) {
+        slots.release();
+        break;
+      }
+      Rpc rpc = weightedRpcs[ThreadLocalRandom.current().nextInt(weightedRpcs.length)];
+      BookstoreGrpc.BookstoreStub stub =
+          stubs.get((nextStub.getAndIncrement() & Integer.MAX_VALUE) % stubs.size());
+      rpc.call(this, stub, intervalNanos > 0 ? dueNanos : now);
+    }
+    // Wait for the calls still in flight.
+    slots.acquire(concurrency);
+    slots.release(concurrency);
+    report(TimeUnit.NANOSECONDS.toSeconds(endNanos - recordAfterNanos));
+  }
+
+  private void setUp() {
+    BookstoreGrpc.BookstoreBlockingStub blocking =
+        BookstoreGrpc.newBlockingStub(stubs.get(0).getChannel());
+    CreateShelfRequest.Builder shelf = CreateShelfRequest.newBuilder();
+    shelf.getShelfBuilder().setTheme("Load Test");
+    shelfId = blocking.createShelf(shelf.build()).getId();
+    for (int i = 0; i < books; i++) {
+      blocking.createBook(CreateBookRequest.newBuilder()
+          .setShelf(shelfId)
+          .setBook(Book.newBuilder().setAuthor("Load Generator").setTitle("Book " + i))
+          .build());
+    }
+  }
+
+  private <T> StreamObserver<T> completion(final Rpc rpc, final long startNanos) {
+    return new StreamObserver<T>() {
+      @Override
+      public void onNext(T value) {}
+
+      @Override
+      public void onError(Throwable t) {
+        finish(rpc, startNanos, false);
+      }
+
+      @Override
+      public void onCompleted() {
+        finish(rpc, startNanos, true);
+      }
+    };
+  }
+
+  private void finish(Rpc rpc, long startNanos, boolean ok) {
+    if (startNanos - recordAfterNanos >= 0) {
+      long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+      latencies.get(rpc).recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+      if (!ok) {
+        errors.get(rpc).increment();
+      }
+    }
+    slots.release();
+  }
+
+  private void report(long seconds) {
+    Histogram total = new Histogram(MAX_LATENCY_MICROS, 3);
+    System.out.format("%-12s %10s %10s %8s %9s %9s %9s %9s%n",
+        "rpc", "calls", "calls/s", "errors", "p50 ms", "p99 ms", "p999 ms", "max ms");
+    for (Map.Entry<Rpc, Histogram> entry : latencies.entrySet()) {
+      Histogram histogram = entry.getValue();
+      total.add(histogram);
+      printRow(entry.getKey().name().toLowerCase(), histogram, errors.get(entry.getKey()).sum(),
+          seconds);
+    }
+    long totalErrors = 0;
+    for (LongAdder count : errors.values()) {
+      totalErrors += count.sum();
+    }
+    printRow("total", total, totalErrors, seconds);
+  }
+
+  private static void printRow(String name, Histogram histogram, long errors, long seconds) {
+    long calls = histogram.getTotalCount();
+    System.out.format("%-12s %10d %10.1f %8d %9.3f %9.3f %9.3f %9.3f%n",
+        name, calls, seconds == 0 ? 0 : calls / (double) seconds, errors,
+        histogram.getValueAtPercentile(50) / 1000.0,
+        histogram.getValueAtPercentile(99) / 1000.0,
+        histogram.getValueAtPercentile(99.9) / 1000.0,
+        histogram.getMaxValue() / 1000.0);
+  }
+}
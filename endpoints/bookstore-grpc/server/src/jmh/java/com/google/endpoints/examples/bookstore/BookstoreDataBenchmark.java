@@ -0,0 +1,170 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.endpoints.examples.bookstore;
+
+import io.grpc.StatusException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures mixed read/write throughput of {@link BookstoreData} against the single-lock
+ * {@link SynchronizedBookstoreData} it replaced.
+ *
+ * <p>Run with increasing thread counts to see how each scales, for example
+ * {@code java -jar server/build/libs/server-jmh.jar BookstoreDataBenchmark -t 64}.
+ */
+@State(Scope.Benchmark)
+public class BookstoreDataBenchmark {
+  private static final int SHELVES = 16;
+  private static final int BOOKS_PER_SHELF = 100;
+
+  /**
+   * The operations the benchmark performs, implemented by both databases.
+   */
+  private interface Store {
+    void createShelf(Shelf shelf);
+
+    Iterable<Shelf> listShelves();
+
+    Shelf getShelf(long shelfId) throws StatusException;
+
+    Book createBook(long shelfId, Book book) throws StatusException;
+
+    Book getBook(long shelfId, long bookId) throws StatusException;
+
+    void deleteBook(long shelfId, long bookId) throws StatusException;
+  }
+
+  @Param({"synchronized", "concurrent"})
+  public String implementation;
+
+  /**
+   * The percentage of operations that write, each creating and then deleting a book.
+   */
+  @Param({"10"})
+  public int writePercent;
+
+  private Store store;
+
+  @Setup(Level.Trial)
+  public void setUp() throws StatusException {
+    store = "synchronized".equals(implementation) ? synchronizedStore() : concurrentStore();
+    for (int shelf = 1; shelf <= SHELVES; shelf++) {
+      store.createShelf(Shelf.newBuilder().setTheme("Theme " + shelf).build());
+      for (int book = 1; book <= BOOKS_PER_SHELF; book++) {
+        store.createBook(shelf,
+            Book.newBuilder().setAuthor("Author " + book).setTitle("Title " + book).build());
+      }
+    }
+  }
+
+  @Benchmark
+  public void mixed(Blackhole blackhole) throws StatusException {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    long shelfId = 1 + random.nextInt(SHELVES);
+    int operation = random.nextInt(100);
+    if (operation < writePercent) {
+      Book book = store.createBook(shelfId, Book.newBuilder().setTitle("New").build());
+      store.deleteBook(shelfId, book.getId());
+      blackhole.consume(book);
+    } else if (operation < writePercent + 10) {
+      blackhole.consume(store.listShelves());
+    } else if (operation < writePercent + 30) {
+      blackhole.consume(store.getShelf(shelfId));
+    } else {
+      blackhole.consume(store.getBook(shelfId, 1 + random.nextInt(BOOKS_PER_SHELF)));
+    }
+  }
+
+  private static Store synchronizedStore() {
+    final SynchronizedBookstoreData data = new SynchronizedBookstoreData();
+    return new Store() {
+      @Override
+      public void createShelf(Shelf shelf) {
+        data.createShelf(shelf);
+      }
+
+      @Override
+      public Iterable<Shelf> listShelves() {
+        return data.listShelves();
+      }
+
+      @Override
+      public Shelf getShelf(long shelfId) throws StatusException {
+        return data.getShelf(shelfId);
+      }
+
+      @Override
+      public Book createBook(long shelfId, Book book) throws StatusException {
+        return data.createBook(shelfId, book);
+      }
+
+      @Override
+      public Book getBook(long shelfId, long bookId) throws StatusException {
+        return data.getBook(shelfId, bookId);
+      }
+
+      @Override
+      public void deleteBook(long shelfId, long bookId) throws StatusException {
+        data.deleteBook(shelfId, bookId);
+      }
+    };
+  }
+
+  private static Store concurrentStore() {
+    final BookstoreData data = new BookstoreData();
+    return new Store() {
+      @Override
+      public void createShelf(Shelf shelf) {
+        data.createShelf(shelf);
+      }
+
+      @Override
+      public Iterable<Shelf> listShelves() {
+        return data.listShelves();
+      }
+
+      @Override
+      public Shelf getShelf(long shelfId) throws StatusException {
+        return data.getShelf(shelfId);
+      }
+
+      @Override
+      public Book createBook(long shelfId, Book book) throws StatusException {
+        return data.createBook(shelfId, book);
+      }
+
+      @Override
+      public Book getBook(long shelfId, long bookId) throws StatusException {
+        return data.getBook(shelfId, bookId);
+      }
+
+      @Override
+      public void deleteBook(long shelfId, long bookId) throws StatusException {
+        data.deleteBook(shelfId, bookId);
+      }
+    };
+  }
+}
@@ -16,156 +16,360 @@
 
 package com.google.endpoints.examples.bookstore;
 
-import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
 
 import io.grpc.Status;
 import io.grpc.StatusException;
+import io.grpc.StatusRuntimeException;
 
-import java.util.HashMap;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.annotation.Nullable;
 
 /**
  * The in-memory Bookstore database implementation.
+ *
+ * <p>Shelves and books are kept in concurrent maps ordered by ID, so reads never take a lock and
+ * see a consistent snapshot of each entry. Writes to a shelf's books lock only that shelf, which
+ * keeps a book from being added to a shelf that is being deleted. IDs come from atomic counters.
+ *
+ * <p>A store created with {@link #open} is also durable: every change is appended to a
+ * {@link BookstoreJournal} while it is applied, and the call returns once the change is on disk.
+ * {@link #snapshot} rolls the log and writes the current state so the older log can be dropped.
  */
-final class BookstoreData {
+final class BookstoreData implements Closeable {
   private static final class ShelfInfo {
     private final Shelf shelf;
-    private final Map<Long, Book> books;
-    private long lastBookId;
+    private final ConcurrentNavigableMap<Long, Book> books;
+    private final AtomicLong lastBookId;
+    private boolean deleted;
 
     private ShelfInfo(Shelf shelf) {
       this.shelf = shelf;
-      this.books = new HashMap<>();
-      this.lastBookId = 0;
+      this.books = new ConcurrentSkipListMap<>();
+      this.lastBookId = new AtomicLong();
     }
   }
 
-  private final Object lock;
-  private final Map<Long, ShelfInfo> shelves;
-  private long lastShelfId;
-  private final Function<ShelfInfo, Shelf> shelfInfoToShelf =
-      new Function<ShelfInfo, Shelf>() {
-        @Nullable
-        @Override
-        public Shelf apply(@Nullable ShelfInfo shelfInfo) {
-          if (shelfInfo == null) {
-            return null;
-          }
-          return shelfInfo.shelf;
-        }
-      };
+  private final ConcurrentNavigableMap<Long, ShelfInfo> shelves;
+  private final AtomicLong lastShelfId;
+  // Changes hold the read lock while they are logged and applied, so that a snapshot can roll the
+  // log between changes. Only taken when there is a journal.
+  private final ReadWriteLock rollLock;
+  @Nullable private BookstoreJournal journal;
 
   BookstoreData() {
-    lock = new Object();
-    shelves = new HashMap<>();
-    lastShelfId = 0;
+    shelves = new ConcurrentSkipListMap<>();
+    lastShelfId = new AtomicLong();
+    rollLock = new ReentrantReadWriteLock();
+  }
+
+  /**
+   * Opens a durable store in {@code directory}, recovering anything already saved there.
+   */
+  static BookstoreData open(Path directory) throws IOException {
+    final BookstoreData data = new BookstoreData();
+    data.journal = BookstoreJournal.open(directory, new BookstoreJournal.RecordHandler() {
+      @Override
+      public void handle(byte type, long shelfId, long bookId, byte[] payload)
+          throws IOException {
+        data.replay(type, shelfId, bookId, payload);
+      }
+    });
+    return data;
+  }
+
+  /**
+   * Returns how long recovery took, or {@code null} if this store is not durable.
+   */
+  @Nullable
+  BookstoreJournal.RecoveryStats recoveryStats() {
+    return journal == null ? null : journal.recoveryStats();
+  }
+
+  public boolean isEmpty() {
+    return shelves.isEmpty();
   }
 
   public ShelfEntity createShelf(Shelf shelf) {
-    synchronized (lock) {
-      lastShelfId++;
-      shelf = shelf.toBuilder()
-          .setId(lastShelfId)
-          .build();
-      shelves.put(lastShelfId, new ShelfInfo(shelf));
-      return ShelfEntity.create(lastShelfId, shelf);
+    long shelfId = lastShelfId.incrementAndGet();
+    shelf = shelf.toBuilder()
+        .setId(shelfId)
+        .build();
+    long position;
+    lockForChange();
+    try {
+      position = log(BookstoreJournal.CREATE_SHELF, shelfId, 0, shelf.toByteArray());
+      shelves.put(shelfId, new ShelfInfo(shelf));
+    } finally {
+      unlockForChange();
     }
+    sync(position);
+    return ShelfEntity.create(shelfId, shelf);
   }
 
   public Iterable<Shelf> listShelves() {
-    synchronized (lock) {
-      return Iterables.transform(ImmutableList.copyOf(shelves.values()),
-              shelfInfoToShelf);
-    }
+    return listShelves(0, Integer.MAX_VALUE);
   }
 
-  public Shelf getShelf(long shelfId) throws StatusException {
-    synchronized (lock) {
-      @Nullable Shelf shelf = shelfInfoToShelf.apply(shelves.get(shelfId));
-      if (shelf == null) {
-        throw Status.NOT_FOUND
-            .withDescription("Unknown shelf ID")
-            .asException();
+  /**
+   * Lists up to {@code limit} shelves with IDs greater than {@code afterShelfId}, in ID order.
+   */
+  public List<Shelf> listShelves(long afterShelfId, int limit) {
+    ImmutableList.Builder<Shelf> output = ImmutableList.builder();
+    int count = 0;
+    for (ShelfInfo shelfInfo : shelves.tailMap(afterShelfId, false).values()) {
+      if (count++ == limit) {
+        break;
       }
-      return shelf;
+      output.add(shelfInfo.shelf);
     }
+    return output.build();
+  }
+
+  public Shelf getShelf(long shelfId) throws StatusException {
+    return getShelfInfo(shelfId).shelf;
   }
 
   public void deleteShelf(long shelfId) throws StatusException {
-    synchronized (lock) {
-      if (shelves.remove(shelfId) == null) {
+    long position;
+    lockForChange();
+    try {
+      @Nullable ShelfInfo shelfInfo = shelves.remove(shelfId);
+      if (shelfInfo == null) {
         throw Status.NOT_FOUND
             .withDescription("Unknown shelf ID")
             .asException();
       }
+      synchronized (shelfInfo) {
+        shelfInfo.deleted = true;
+        position = log(BookstoreJournal.DELETE_SHELF, shelfId, 0, new byte[0]);
+      }
+    } finally {
+      unlockForChange();
     }
+    sync(position);
   }
 
   public Iterable<Book> listBooks(long shelfId) throws StatusException {
-    synchronized (lock) {
-      @Nullable ShelfInfo shelfInfo = shelves.get(shelfId);
-      if (shelfInfo == null) {
-        throw Status.NOT_FOUND
-            .withDescription("Unknown shelf ID")
-            .asException();
+    return ImmutableList.copyOf(getShelfInfo(shelfId).books.values());
+  }
+
+  /**
+   * Lists up to {@code limit} books on a shelf with IDs greater than {@code afterBookId}, in ID
+   * order.
+   */
+  public List<Book> listBooks(long shelfId, long afterBookId, int limit) throws StatusException {
+    ImmutableList.Builder<Book> output = ImmutableList.builder();
+    int count = 0;
+    for (Book book : getShelfInfo(shelfId).books.tailMap(afterBookId, false).values()) {
+      if (count++ == limit) {
+        break;
       }
-      return ImmutableList.copyOf(shelfInfo.books.values());
+      output.add(book);
     }
+    return output.build();
   }
 
   public Book createBook(long shelfId, Book book) throws StatusException {
-    synchronized (lock) {
-      @Nullable ShelfInfo shelfInfo = shelves.get(shelfId);
-      if (shelfInfo == null) {
-        throw Status.NOT_FOUND
-            .withDescription("Unknown shelf ID")
-            .asException();
+    ShelfInfo shelfInfo = getShelfInfo(shelfId);
+    long position;
+    lockForChange();
+    try {
+      synchronized (shelfInfo) {
+        if (shelfInfo.deleted) {
+          throw Status.NOT_FOUND
+              .withDescription("Unknown shelf ID")
+              .asException();
+        }
+        long bookId = shelfInfo.lastBookId.incrementAndGet();
+        book = book.toBuilder()
+            .setId(bookId)
+            .build();
+        position = log(BookstoreJournal.CREATE_BOOK, shelfId, bookId, book.toByteArray());
+        shelfInfo.books.put(bookId, book);
       }
-      shelfInfo.lastBookId++;
-      book = book.toBuilder()
-          .setId(shelfInfo.lastBookId)
-          .build();
-      shelfInfo.books.put(shelfInfo.lastBookId, book);
+    } finally {
+      unlockForChange();
     }
+    sync(position);
     return book;
   }
 
   public Book getBook(long shelfId, long bookId) throws StatusException {
-    synchronized (lock) {
-      @Nullable ShelfInfo shelfInfo = shelves.get(shelfId);
-      if (shelfInfo == null) {
-        throw Status.NOT_FOUND
-            .withDescription("Unknown shelf ID")
-            .asException();
-      }
-      @Nullable Book book = shelfInfo.books.get(bookId);
-      if (book == null) {
-        throw Status.NOT_FOUND
-            .withDescription("Unknown book ID")
-            .asException();
-      }
-      return book;
+    @Nullable Book book = getShelfInfo(shelfId).books.get(bookId);
+    if (book == null) {
+      throw Status.NOT_FOUND
+          .withDescription("Unknown book ID")
+          .asException();
     }
+    return book;
   }
 
   public void deleteBook(long shelfId, long bookId) throws StatusException {
-    synchronized (lock) {
-      @Nullable ShelfInfo shelfInfo = shelves.get(shelfId);
-      if (shelfInfo == null) {
-        throw Status.NOT_FOUND
-            .withDescription("Unknown shelf ID")
-            .asException();
-      }
+    ShelfInfo shelfInfo = getShelfInfo(shelfId);
+    long position;
+    lockForChange();
+    try {
       if (shelfInfo.books.remove(bookId) == null) {
         throw Status.NOT_FOUND
             .withDescription("Unknown book ID")
             .asException();
       }
+      position = log(BookstoreJournal.DELETE_BOOK, shelfId, bookId, new byte[0]);
+    } finally {
+      unlockForChange();
+    }
+    sync(position);
+  }
+
+  /**
+   * Writes a snapshot of the store and deletes the log it replaces. Changes continue while the
+   * snapshot is written; the ones it misses are still in the new log, and replaying them on top
+   * of the snapshot gives the same result.
+   */
+  public void snapshot() throws IOException {
+    if (journal == null) {
+      return;
+    }
+    long firstSegment;
+    rollLock.writeLock().lock();
+    try {
+      firstSegment = journal.roll();
+    } finally {
+      rollLock.writeLock().unlock();
+    }
+    journal.writeSnapshot(firstSegment, new BookstoreJournal.SnapshotSource() {
+      @Override
+      public void writeTo(BookstoreJournal.RecordHandler handler) throws IOException {
+        handler.handle(BookstoreJournal.SHELF_COUNTER, lastShelfId.get(), 0, new byte[0]);
+        for (Map.Entry<Long, ShelfInfo> entry : shelves.entrySet()) {
+          long shelfId = entry.getKey();
+          ShelfInfo shelfInfo = entry.getValue();
+          handler.handle(
+              BookstoreJournal.CREATE_SHELF, shelfId, 0, shelfInfo.shelf.toByteArray());
+          handler.handle(
+              BookstoreJournal.BOOK_COUNTER, shelfId, shelfInfo.lastBookId.get(), new byte[0]);
+          for (Map.Entry<Long, Book> book : shelfInfo.books.entrySet()) {
+            handler.handle(BookstoreJournal.CREATE_BOOK, shelfId, book.getKey(),
+                book.getValue().toByteArray());
+          }
+        }
+      }
+    });
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (journal != null) {
+      journal.close();
+    }
+  }
+
+  /**
+   * Applies one record from the journal. Records are replayed in the order they were logged, and
+   * each one sets or removes a single entry, so replaying a change twice is harmless.
+   */
+  private void replay(byte type, long shelfId, long bookId, byte[] payload) throws IOException {
+    @Nullable ShelfInfo shelfInfo;
+    switch (type) {
+      case BookstoreJournal.SHELF_COUNTER:
+        advance(lastShelfId, shelfId);
+        break;
+      case BookstoreJournal.CREATE_SHELF:
+        shelves.put(shelfId, new ShelfInfo(Shelf.parseFrom(payload)));
+        advance(lastShelfId, shelfId);
+        break;
+      case BookstoreJournal.DELETE_SHELF:
+        shelves.remove(shelfId);
+        break;
+      case BookstoreJournal.BOOK_COUNTER:
+        shelfInfo = shelves.get(shelfId);
+        if (shelfInfo != null) {
+          advance(shelfInfo.lastBookId, bookId);
+        }
+        break;
+      case BookstoreJournal.CREATE_BOOK:
+        shelfInfo = shelves.get(shelfId);
+        if (shelfInfo != null) {
+          shelfInfo.books.put(bookId, Book.parseFrom(payload));
+          advance(shelfInfo.lastBookId, bookId);
+        }
+        break;
+      case BookstoreJournal.DELETE_BOOK:
+        shelfInfo = shelves.get(shelfId);
+        if (shelfInfo != null) {
+          shelfInfo.books.remove(bookId);
+        }
+        break;
+      default:
+        throw new IOException("Unknown journal record type " + type);
+    }
+  }
+
+  private static void advance(AtomicLong counter, long value) {
+    if (counter.get() < value) {
+      counter.set(value);
+    }
+  }
+
+  private void lockForChange() {
+    if (journal != null) {
+      rollLock.readLock().lock();
     }
   }
-}
 
+  private void unlockForChange() {
+    if (journal != null) {
+      rollLock.readLock().unlock();
+    }
+  }
+
+  private long log(byte type, long shelfId, long bookId, byte[] payload) {
+    if (journal == null) {
+      return 0;
+    }
+    try {
+      return journal.append(type, shelfId, bookId, payload);
+    } catch (IOException e) {
+      throw journalFailure(e);
+    }
+  }
+
+  private void sync(long position) {
+    if (journal == null) {
+      return;
+    }
+    try {
+      journal.sync(position);
+    } catch (IOException e) {
+      throw journalFailure(e);
+    }
+  }
+
+  private static StatusRuntimeException journalFailure(IOException e) {
+    return Status.INTERNAL
+        .withDescription("Failed to write the bookstore journal")
+        .withCause(e)
+        .asRuntimeException();
+  }
+
+  private ShelfInfo getShelfInfo(long shelfId) throws StatusException {
+    @Nullable ShelfInfo shelfInfo = shelves.get(shelfId);
+    if (shelfInfo == null) {
+      throw Status.NOT_FOUND
+          .withDescription("Unknown shelf ID")
+          .asException();
+    }
+    return shelfInfo;
+  }
+}
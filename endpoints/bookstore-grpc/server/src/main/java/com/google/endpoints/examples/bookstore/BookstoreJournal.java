@@ -0,0 +1,332 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.endpoints.examples.bookstore;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of Bookstore changes, with snapshots that let old log segments be deleted.
+ *
+ * <p>Each record is a length, a CRC32 of the body, and a body holding the record type, a shelf
+ * ID, a book ID and an optional serialized proto. Records are appended to the current log
+ * segment; {@link #sync} makes them durable, and callers that sync at the same time share one
+ * {@code fsync}. On open, the latest snapshot and then every later segment are memory-mapped and
+ * replayed; a torn record at the end of a segment ends that segment's replay.
+ */
+final class BookstoreJournal implements Closeable {
+  static final byte CREATE_SHELF = 1;
+  static final byte DELETE_SHELF = 2;
+  static final byte CREATE_BOOK = 3;
+  static final byte DELETE_BOOK = 4;
+  static final byte SHELF_COUNTER = 5;
+  static final byte BOOK_COUNTER = 6;
+
+  private static final int HEADER_SIZE = 8;
+  private static final int MIN_BODY_SIZE = 17;
+  private static final int SNAPSHOT_MAGIC = 0x424b5331;
+  private static final String SNAPSHOT = "snapshot";
+  private static final String SEGMENT_PREFIX = "log-";
+
+  /**
+   * Receives records, either while replaying or while writing a snapshot.
+   */
+  interface RecordHandler {
+    void handle(byte type, long shelfId, long bookId, byte[] payload) throws IOException;
+  }
+
+  /**
+   * Writes the full state as records, for a snapshot.
+   */
+  interface SnapshotSource {
+    void writeTo(RecordHandler handler) throws IOException;
+  }
+
+  private final Path directory;
+  private final RecoveryStats recoveryStats;
+  private long segment;
+  private FileChannel channel;
+  // Bytes appended and bytes known durable, counted across all segments.
+  private long written;
+  private long synced;
+  private boolean syncing;
+
+  private BookstoreJournal(Path directory, long segment, RecoveryStats recoveryStats)
+      throws IOException {
+    this.directory = directory;
+    this.recoveryStats = recoveryStats;
+    openSegment(segment);
+  }
+
+  /**
+   * Replays the snapshot and log in {@code directory} into {@code replayer}, then opens a new log
+   * segment for appending.
+   */
+  static BookstoreJournal open(Path directory, RecordHandler replayer) throws IOException {
+    Files.createDirectories(directory);
+    long start = System.nanoTime();
+    RecoveryStats stats = new RecoveryStats();
+    long firstSegment = 0;
+    Path snapshot = directory.resolve(SNAPSHOT);
+    if (Files.exists(snapshot)) {
+      MappedByteBuffer buffer = map(snapshot);
+      if (buffer.getInt() != SNAPSHOT_MAGIC) {
+        throw new IOException("Not a bookstore snapshot: " + snapshot);
+      }
+      firstSegment = buffer.getLong();
+      stats.bytes += buffer.capacity();
+      replay(buffer, replayer, stats);
+    }
+    long lastSegment = firstSegment;
+    for (long segment : listSegments(directory)) {
+      if (segment >= firstSegment) {
+        MappedByteBuffer buffer = map(segmentPath(directory, segment));
+        stats.bytes += buffer.capacity();
+        replay(buffer, replayer, stats);
+      }
+      lastSegment = Math.max(lastSegment, segment);
+    }
+    stats.nanos = System.nanoTime() - start;
+    return new BookstoreJournal(directory, lastSegment + 1, stats);
+  }
+
+  RecoveryStats recoveryStats() {
+    return recoveryStats;
+  }
+
+  /**
+   * Appends a record to the log. Returns the position to pass to {@link #sync} to wait until it
+   * is durable.
+   */
+  synchronized long append(byte type, long shelfId, long bookId, byte[] payload)
+      throws IOException {
+    ByteBuffer record = encode(type, shelfId, bookId, payload);
+    while (record.hasRemaining()) {
+      written += channel.write(record);
+    }
+    return written;
+  }
+
+  /**
+   * Waits until every record up to {@code position} is on disk. If no other caller is syncing,
+   * this caller forces everything appended so far, covering the callers that arrive meanwhile.
+   */
+  void sync(long position) throws IOException {
+    FileChannel toForce;
+    long target;
+    synchronized (this) {
+      while (synced < position && syncing) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for log sync");
+        }
+      }
+      if (synced >= position) {
+        return;
+      }
+      syncing = true;
+      target = written;
+      toForce = channel;
+    }
+    boolean forced = false;
+    try {
+      toForce.force(false);
+      forced = true;
+    } finally {
+      synchronized (this) {
+        syncing = false;
+        if (forced) {
+          synced = Math.max(synced, target);
+        }
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Makes the current segment durable and starts a new one. Returns the new segment's number;
+   * a snapshot taken after this call only needs the log from that segment on.
+   */
+  synchronized long roll() throws IOException {
+    while (syncing) {
+      try {
+        wait();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for log sync");
+      }
+    }
+    channel.force(false);
+    synced = written;
+    channel.close();
+    openSegment(segment + 1);
+    return segment;
+  }
+
+  /**
+   * Writes a snapshot of {@code source}, which must include every change logged before
+   * {@code firstSegment}, and then deletes those older segments.
+   */
+  void writeSnapshot(long firstSegment, SnapshotSource source) throws IOException {
+    Path temp = directory.resolve(SNAPSHOT + ".tmp");
+    try (FileChannel snapshotChannel = FileChannel.open(temp, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            Channels.newOutputStream(snapshotChannel), 1 << 16))) {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeLong(firstSegment);
+      source.writeTo(new RecordHandler() {
+        @Override
+        public void handle(byte type, long shelfId, long bookId, byte[] payload)
+            throws IOException {
+          ByteBuffer record = encode(type, shelfId, bookId, payload);
+          out.write(record.array(), 0, record.limit());
+        }
+      });
+      out.flush();
+      snapshotChannel.force(true);
+    }
+    Files.move(temp, directory.resolve(SNAPSHOT),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    for (long old : listSegments(directory)) {
+      if (old < firstSegment) {
+        Files.delete(segmentPath(directory, old));
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.force(false);
+    channel.close();
+  }
+
+  private void openSegment(long number) throws IOException {
+    segment = number;
+    channel = FileChannel.open(segmentPath(directory, number),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  private static ByteBuffer encode(byte type, long shelfId, long bookId, byte[] payload) {
+    int bodySize = MIN_BODY_SIZE + payload.length;
+    ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodySize);
+    record.putInt(bodySize);
+    record.putInt(0);
+    record.put(type).putLong(shelfId).putLong(bookId).put(payload);
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), HEADER_SIZE, bodySize);
+    record.putInt(4, (int) crc.getValue());
+    record.flip();
+    return record;
+  }
+
+  private static void replay(ByteBuffer buffer, RecordHandler replayer, RecoveryStats stats)
+      throws IOException {
+    CRC32 crc = new CRC32();
+    while (buffer.remaining() >= HEADER_SIZE) {
+      int bodySize = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (bodySize < MIN_BODY_SIZE || bodySize > buffer.remaining()) {
+        return;
+      }
+      byte[] body = new byte[bodySize];
+      buffer.get(body);
+      crc.reset();
+      crc.update(body, 0, bodySize);
+      if ((int) crc.getValue() != checksum) {
+        return;
+      }
+      ByteBuffer fields = ByteBuffer.wrap(body);
+      byte type = fields.get();
+      long shelfId = fields.getLong();
+      long bookId = fields.getLong();
+      byte[] payload = new byte[fields.remaining()];
+      fields.get(payload);
+      replayer.handle(type, shelfId, bookId, payload);
+      stats.records++;
+    }
+  }
+
+  private static MappedByteBuffer map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  private static List<Long> listSegments(Path directory) throws IOException {
+    List<Long> segments = new ArrayList<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*")) {
+      for (Path file : files) {
+        try {
+          segments.add(Long.parseLong(file.getFileName().toString().substring(
+              SEGMENT_PREFIX.length())));
+        } catch (NumberFormatException e) {
+          // Not a log segment.
+        }
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  private static Path segmentPath(Path directory, long segment) {
+    return directory.resolve(String.format("%s%012d", SEGMENT_PREFIX, segment));
+  }
+
+  /**
+   * How much was replayed when the journal was opened, and how long it took.
+   */
+  static final class RecoveryStats {
+    private long records;
+    private long bytes;
+    private long nanos;
+
+    long records() {
+      return records;
+    }
+
+    long bytes() {
+      return bytes;
+    }
+
+    long millis() {
+      return nanos / 1000000;
+    }
+
+    double recordsPerSecond() {
+      return nanos == 0 ? 0 : records / (nanos / 1e9);
+    }
+  }
+}
@@ -16,13 +16,29 @@
 
 package com.google.endpoints.examples.bookstore;
 
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
 import io.grpc.StatusException;
+import io.grpc.netty.NettyServerBuilder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -37,33 +53,29 @@ import org.apache.commons.cli.ParseException;
 public final class BookstoreServer {
 
   private static final int DEFAULT_PORT = 8000;
+  private static final long DEFAULT_SNAPSHOT_INTERVAL_SECONDS = 300;
 
   public static void main(String[] args) throws Exception {
+    long startNanos = System.nanoTime();
     Options options = createOptions();
     CommandLineParser parser = new DefaultParser();
     CommandLine line;
+    int port;
+    long snapshotIntervalSeconds;
+    long metricsIntervalSeconds;
     try {
       line = parser.parse(options, args);
+      port = (int) parseLong(line, "port", DEFAULT_PORT);
+      snapshotIntervalSeconds =
+          parseLong(line, "snapshot_interval", DEFAULT_SNAPSHOT_INTERVAL_SECONDS);
+      metricsIntervalSeconds = parseLong(line, "metrics_interval", 0);
     } catch (ParseException e) {
       System.err.println("Invalid command line: " + e.getMessage());
       printUsage(options);
       return;
     }
 
-    int port = DEFAULT_PORT;
-
-    if (line.hasOption("port")) {
-      String portOption = line.getOptionValue("port");
-      try {
-        port =  Integer.parseInt(portOption);
-      } catch (java.lang.NumberFormatException e) {
-        System.err.println("Invalid port number: " + portOption);
-        printUsage(options);
-        return;
-      }
-    }
-
-    final BookstoreData data = initializeBookstoreData();
+    final BookstoreData data = openBookstoreData(line.getOptionValue("data_dir"));
     final BookstoreServer server = new BookstoreServer();
     Runtime.getRuntime().addShutdownHook(new Thread() {
       @Override
@@ -76,24 +88,158 @@ public final class BookstoreServer {
         }
       }
       });
-    server.start(port, data);
-    System.out.format("Bookstore service listening on %d\n", port);
+    try {
+      server.start(port, line, data, snapshotIntervalSeconds, metricsIntervalSeconds);
+    } catch (ParseException e) {
+      System.err.println("Invalid command line: " + e.getMessage());
+      printUsage(options);
+      return;
+    }
+    System.out.format("Bookstore service listening on %d, started in %d ms\n", port,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
     server.blockUntilShutdown();
   }
 
   private Server server;
+  private BookstoreData data;
+  @Nullable private ExecutorService executor;
+  @Nullable private EventLoopGroup bossGroup;
+  @Nullable private EventLoopGroup workerGroup;
+  @Nullable private MetricsInterceptor metrics;
+  @Nullable private ScheduledExecutorService scheduler;
 
-  private void start(int port, BookstoreData data) throws IOException {
-    server = ServerBuilder.forPort(port)
-        .addService(new BookstoreService(data))
-        .build().start();
+  private void start(int port, CommandLine line, final BookstoreData data,
+      long snapshotIntervalSeconds, long metricsIntervalSeconds)
+      throws IOException, ParseException {
+    this.data = data;
+    NettyServerBuilder builder = NettyServerBuilder.forPort(port);
+    configureExecutor(builder, line, data);
+    configureTransport(builder, line);
+
+    BookstoreService service = new BookstoreService(data);
+    if (line.hasOption("metrics") || metricsIntervalSeconds > 0) {
+      metrics = new MetricsInterceptor();
+      builder.addService(ServerInterceptors.intercept(service, metrics));
+    } else {
+      builder.addService(service);
+    }
+    server = builder.build().start();
+
+    scheduler = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("bookstore-scheduler").setDaemon(true).build());
+    if (data.recoveryStats() != null && snapshotIntervalSeconds > 0) {
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            data.snapshot();
+          } catch (IOException e) {
+            System.err.println("Failed to write snapshot: " + e);
+          }
+        }
+      }, snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+    }
+    if (metrics != null && metricsIntervalSeconds > 0) {
+      scheduler.scheduleAtFixedRate(new Runnable() {
+        @Override
+        public void run() {
+          System.out.print(metrics.report());
+        }
+      }, metricsIntervalSeconds, metricsIntervalSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Chooses the executor that runs service methods.
+   *
+   * <p>gRPC's default is an unbounded cached thread pool. A bounded pool caps the threads under
+   * load, and the direct executor runs each call on the transport thread that received it, which
+   * avoids a thread hop per call but must never block, so it is only allowed when the bookstore
+   * is kept in memory.
+   */
+  private void configureExecutor(NettyServerBuilder builder, CommandLine line, BookstoreData data)
+      throws ParseException {
+    String mode = line.getOptionValue("executor", "default");
+    switch (mode) {
+      case "default":
+        break;
+      case "bounded":
+        int threads = (int) parseLong(line, "threads", Runtime.getRuntime().availableProcessors());
+        executor = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setNameFormat("bookstore-%d").setDaemon(true).build());
+        builder.executor(executor);
+        break;
+      case "direct":
+        if (data.recoveryStats() != null) {
+          throw new ParseException(
+              "--executor direct would block transport threads on disk writes with --data_dir");
+        }
+        builder.directExecutor();
+        break;
+      default:
+        throw new ParseException("Unknown executor: " + mode);
+    }
+  }
+
+  /**
+   * Applies the Netty transport options: event loops (epoll where available), message size,
+   * keepalive and the HTTP/2 flow-control window.
+   */
+  private void configureTransport(NettyServerBuilder builder, CommandLine line)
+      throws ParseException {
+    int eventLoopThreads = (int) parseLong(line, "event_loop_threads", 0);
+    if (!line.hasOption("no_epoll") && Epoll.isAvailable()) {
+      bossGroup = new EpollEventLoopGroup(1);
+      workerGroup = new EpollEventLoopGroup(eventLoopThreads);
+      builder
+          .channelType(EpollServerSocketChannel.class)
+          .bossEventLoopGroup(bossGroup)
+          .workerEventLoopGroup(workerGroup);
+    } else if (eventLoopThreads > 0) {
+      bossGroup = new NioEventLoopGroup(1);
+      workerGroup = new NioEventLoopGroup(eventLoopThreads);
+      builder
+          .channelType(NioServerSocketChannel.class)
+          .bossEventLoopGroup(bossGroup)
+          .workerEventLoopGroup(workerGroup);
+    }
+    if (line.hasOption("max_message_size")) {
+      builder.maxMessageSize((int) parseLong(line, "max_message_size", 0));
+    }
+    if (line.hasOption("flow_control_window")) {
+      builder.flowControlWindow((int) parseLong(line, "flow_control_window", 0));
+    }
+    if (line.hasOption("keepalive_time")) {
+      builder.keepAliveTime(parseLong(line, "keepalive_time", 0), TimeUnit.SECONDS);
+    }
+    if (line.hasOption("keepalive_timeout")) {
+      builder.keepAliveTimeout(parseLong(line, "keepalive_timeout", 0), TimeUnit.SECONDS);
+    }
   }
 
   private void stop() throws Exception {
-    server.shutdownNow();
-    if (!server.awaitTermination(5, TimeUnit.SECONDS)) {
-      System.err.println("Timed out waiting for server shutdown");
+    if (server != null) {
+      server.shutdownNow();
+      if (!server.awaitTermination(5, TimeUnit.SECONDS)) {
+        System.err.println("Timed out waiting for server shutdown");
+      }
+    }
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler.awaitTermination(5, TimeUnit.SECONDS);
+    }
+    if (executor != null) {
+      MoreExecutors.shutdownAndAwaitTermination(executor, 5, TimeUnit.SECONDS);
+    }
+    if (bossGroup != null) {
+      bossGroup.shutdownGracefully();
+      workerGroup.shutdownGracefully();
+    }
+    if (metrics != null) {
+      System.out.print(metrics.report());
     }
+    data.snapshot();
+    data.close();
   }
 
   private void blockUntilShutdown() throws InterruptedException {
@@ -102,8 +248,24 @@ public final class BookstoreServer {
     }
   }
 
-  private static BookstoreData initializeBookstoreData() throws StatusException {
-    BookstoreData data = new BookstoreData();
+  /**
+   * Opens the durable store in {@code dataDir}, or an in-memory one if it is null, and seeds it
+   * with sample data if it is empty.
+   */
+  private static BookstoreData openBookstoreData(@Nullable String dataDir)
+      throws IOException, StatusException {
+    if (dataDir == null) {
+      return initializeBookstoreData(new BookstoreData());
+    }
+    BookstoreData data = BookstoreData.open(Paths.get(dataDir));
+    BookstoreJournal.RecoveryStats stats = data.recoveryStats();
+    System.out.format("Recovered %d records (%d bytes) from %s in %d ms, %.0f records/s\n",
+        stats.records(), stats.bytes(), dataDir, stats.millis(), stats.recordsPerSecond());
+    return data.isEmpty() ? initializeBookstoreData(data) : data;
+  }
+
+  private static BookstoreData initializeBookstoreData(BookstoreData data)
+      throws StatusException {
     ShelfEntity shelf = data.createShelf(Shelf.newBuilder().setTheme("Fiction").build());
     data.createBook(shelf.getShelfId(),
         Book.newBuilder().setAuthor("Neal Stephenson").setTitle("REAMDE").build());
@@ -125,9 +287,123 @@ public final class BookstoreServer {
         .type(Integer.class)
         .build());
 
+    // data_dir
+    options.addOption(Option.builder()
+        .longOpt("data_dir")
+        .desc("A directory in which to persist the bookstore. If unset, data is kept in memory.")
+        .hasArg()
+        .argName("dir")
+        .build());
+
+    // snapshot_interval
+    options.addOption(Option.builder()
+        .longOpt("snapshot_interval")
+        .desc("Seconds between snapshots of the persisted bookstore; 0 disables them.")
+        .hasArg()
+        .argName("seconds")
+        .type(Long.class)
+        .build());
+
+    // executor
+    options.addOption(Option.builder()
+        .longOpt("executor")
+        .desc("How service methods run: default (a cached thread pool), bounded (--threads "
+            + "threads) or direct (on the transport threads; in-memory bookstore only).")
+        .hasArg()
+        .argName("mode")
+        .build());
+
+    // threads
+    options.addOption(Option.builder()
+        .longOpt("threads")
+        .desc("Threads in the bounded executor. Defaults to the number of processors.")
+        .hasArg()
+        .argName("count")
+        .type(Integer.class)
+        .build());
+
+    // event_loop_threads
+    options.addOption(Option.builder()
+        .longOpt("event_loop_threads")
+        .desc("Netty worker event loop threads. Defaults to Netty's choice.")
+        .hasArg()
+        .argName("count")
+        .type(Integer.class)
+        .build());
+
+    // no_epoll
+    options.addOption(Option.builder()
+        .longOpt("no_epoll")
+        .desc("Use the NIO transport even where the native epoll transport is available.")
+        .build());
+
+    // max_message_size
+    options.addOption(Option.builder()
+        .longOpt("max_message_size")
+        .desc("The largest request message, in bytes, the server accepts.")
+        .hasArg()
+        .argName("bytes")
+        .type(Integer.class)
+        .build());
+
+    // flow_control_window
+    options.addOption(Option.builder()
+        .longOpt("flow_control_window")
+        .desc("The initial HTTP/2 flow-control window, in bytes.")
+        .hasArg()
+        .argName("bytes")
+        .type(Integer.class)
+        .build());
+
+    // keepalive_time
+    options.addOption(Option.builder()
+        .longOpt("keepalive_time")
+        .desc("Seconds without activity before the server pings a client.")
+        .hasArg()
+        .argName("seconds")
+        .type(Long.class)
+        .build());
+
+    // keepalive_timeout
+    options.addOption(Option.builder()
+        .longOpt("keepalive_timeout")
+        .desc("Seconds to wait for a ping reply before closing the connection.")
+        .hasArg()
+        .argName("seconds")
+        .type(Long.class)
+        .build());
+
+    // metrics
+    options.addOption(Option.builder()
+        .longOpt("metrics")
+        .desc("Record per-method call counts and latencies, printed at shutdown.")
+        .build());
+
+    // metrics_interval
+    options.addOption(Option.builder()
+        .longOpt("metrics_interval")
+        .desc("Seconds between metrics reports. Implies --metrics.")
+        .hasArg()
+        .argName("seconds")
+        .type(Long.class)
+        .build());
+
     return options;
   }
 
+  private static long parseLong(CommandLine line, String option, long defaultValue)
+      throws ParseException {
+    if (!line.hasOption(option)) {
+      return defaultValue;
+    }
+    String value = line.getOptionValue(option);
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      throw new ParseException("Invalid value for --" + option + ": " + value);
+    }
+  }
+
   private static void printUsage(Options options) {
     HelpFormatter formatter = new HelpFormatter();
     formatter.printHelp("client",
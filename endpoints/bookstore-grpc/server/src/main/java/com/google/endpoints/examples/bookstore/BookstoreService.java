@@ -18,14 +18,22 @@ package com.google.endpoints.examples.bookstore;
 
 import com.google.protobuf.Empty;
 
+import io.grpc.Status;
+import io.grpc.StatusException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 
-import java.util.concurrent.Executor;
+import java.util.List;
 
 /**
  * Implements the Bookstore GRPC service.
  */
 public final class BookstoreService extends BookstoreGrpc.BookstoreImplBase {
+  /**
+   * The number of books in each StreamBooks response when the request has no page size.
+   */
+  private static final int DEFAULT_STREAM_PAGE_SIZE = 100;
+
   private final BookstoreData data;
 
   public BookstoreService(BookstoreData data) {
@@ -33,12 +41,20 @@ public final class BookstoreService extends BookstoreGrpc.BookstoreImplBase {
   }
 
   @Override
-  public void listShelves(Empty request, StreamObserver<ListShelvesResponse> responseObserver) {
+  public void listShelves(
+      ListShelvesRequest request, StreamObserver<ListShelvesResponse> responseObserver) {
     ListShelvesResponse response;
     try {
-      response = ListShelvesResponse.newBuilder()
-          .addAllShelves(data.listShelves())
-          .build();
+      int pageSize = getPageSize(request.getPageSize());
+      // Fetch one extra shelf to learn whether there is another page.
+      List<Shelf> shelves =
+          data.listShelves(parsePageToken(request.getPageToken()), pageLimit(pageSize));
+      ListShelvesResponse.Builder builder = ListShelvesResponse.newBuilder();
+      if (shelves.size() > pageSize) {
+        shelves = shelves.subList(0, pageSize);
+        builder.setNextPageToken(Long.toString(shelves.get(pageSize - 1).getId()));
+      }
+      response = builder.addAllShelves(shelves).build();
     } catch (Throwable t) {
       responseObserver.onError(t);
       return;
@@ -93,9 +109,16 @@ public final class BookstoreService extends BookstoreGrpc.BookstoreImplBase {
   public void listBooks(ListBooksRequest request, StreamObserver<ListBooksResponse> responseObserver) {
     ListBooksResponse response;
     try {
-      response = ListBooksResponse.newBuilder()
-          .addAllBooks(data.listBooks(request.getShelf()))
-          .build();
+      int pageSize = getPageSize(request.getPageSize());
+      // Fetch one extra book to learn whether there is another page.
+      List<Book> books = data.listBooks(
+          request.getShelf(), parsePageToken(request.getPageToken()), pageLimit(pageSize));
+      ListBooksResponse.Builder builder = ListBooksResponse.newBuilder();
+      if (books.size() > pageSize) {
+        books = books.subList(0, pageSize);
+        builder.setNextPageToken(Long.toString(books.get(pageSize - 1).getId()));
+      }
+      response = builder.addAllBooks(books).build();
     } catch (Throwable t) {
       responseObserver.onError(t);
       return;
@@ -105,6 +128,70 @@ public final class BookstoreService extends BookstoreGrpc.BookstoreImplBase {
     responseObserver.onCompleted();
   }
 
+  /**
+   * Streams the books on a shelf in responses of {@code page_size} books.
+   *
+   * <p>Each response is read from the shelf only when the transport is ready to send it, so a
+   * slow client holds back the server instead of making it buffer the whole shelf.
+   */
+  @Override
+  public void streamBooks(
+      ListBooksRequest request, StreamObserver<ListBooksResponse> responseObserver) {
+    final ServerCallStreamObserver<ListBooksResponse> observer =
+        (ServerCallStreamObserver<ListBooksResponse>) responseObserver;
+    final long shelfId = request.getShelf();
+    final int pageSize;
+    final long startAfter;
+    try {
+      pageSize = request.getPageSize() == 0
+          ? DEFAULT_STREAM_PAGE_SIZE : getPageSize(request.getPageSize());
+      startAfter = parsePageToken(request.getPageToken());
+      // Fail fast on an unknown shelf.
+      data.getShelf(shelfId);
+    } catch (Throwable t) {
+      observer.onError(t);
+      return;
+    }
+
+    Runnable drain = new Runnable() {
+      private long lastBookId = startAfter;
+      private boolean done;
+
+      @Override
+      public void run() {
+        // Called from the call's serialized executor, both directly below and when the
+        // transport becomes ready again.
+        while (!done && observer.isReady()) {
+          if (observer.isCancelled()) {
+            done = true;
+            return;
+          }
+          List<Book> books;
+          try {
+            books = data.listBooks(shelfId, lastBookId, pageSize);
+          } catch (Throwable t) {
+            done = true;
+            observer.onError(t);
+            return;
+          }
+          if (books.isEmpty()) {
+            done = true;
+            observer.onCompleted();
+            return;
+          }
+          lastBookId = books.get(books.size() - 1).getId();
+          observer.onNext(ListBooksResponse.newBuilder()
+              .addAllBooks(books)
+              .setNextPageToken(Long.toString(lastBookId))
+              .build());
+        }
+      }
+    };
+    observer.setOnReadyHandler(drain);
+    // The call may already be ready, in which case no ready event will follow.
+    drain.run();
+  }
+
   @Override
   public void createBook(CreateBookRequest request, StreamObserver<Book> responseObserver) {
     Book response;
@@ -145,4 +232,30 @@ public final class BookstoreService extends BookstoreGrpc.BookstoreImplBase {
     responseObserver.onNext(Empty.getDefaultInstance());
     responseObserver.onCompleted();
   }
+
+  private static int getPageSize(int pageSize) throws StatusException {
+    if (pageSize < 0) {
+      throw Status.INVALID_ARGUMENT
+          .withDescription("Negative page size")
+          .asException();
+    }
+    return pageSize == 0 ? Integer.MAX_VALUE : pageSize;
+  }
+
+  private static int pageLimit(int pageSize) {
+    return pageSize == Integer.MAX_VALUE ? pageSize : pageSize + 1;
+  }
+
+  private static long parsePageToken(String pageToken) throws StatusException {
+    if (pageToken.isEmpty()) {
+      return 0;
+    }
+    try {
+      return Long.parseLong(pageToken);
+    } catch (NumberFormatException e) {
+      throw Status.INVALID_ARGUMENT
+          .withDescription("Invalid page token")
+          .asException();
+    }
+  }
 }
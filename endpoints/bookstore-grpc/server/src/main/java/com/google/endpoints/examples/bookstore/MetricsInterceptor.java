@@ -0,0 +1,138 @@
+// Copyright 2018 Google Inc.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+////////////////////////////////////////////////////////////////////////////////
+
+package com.google.endpoints.examples.bookstore;
+
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records the number of calls, errors, messages sent and latency for each gRPC method.
+ *
+ * <p>Latencies are counted in power-of-two buckets of nanoseconds, so recording one is a couple
+ * of atomic adds and percentiles are accurate to within a factor of two.
+ */
+final class MetricsInterceptor implements ServerInterceptor {
+  private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+  private final long startNanos = System.nanoTime();
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+      ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+    final MethodMetrics metrics = metricsFor(call.getMethodDescriptor().getFullMethodName());
+    final long start = System.nanoTime();
+    return next.startCall(new SimpleForwardingServerCall<ReqT, RespT>(call) {
+      @Override
+      public void sendMessage(RespT message) {
+        metrics.messages.increment();
+        super.sendMessage(message);
+      }
+
+      @Override
+      public void close(Status status, Metadata trailers) {
+        metrics.record(System.nanoTime() - start, status.isOk());
+        super.close(status, trailers);
+      }
+    }, headers);
+  }
+
+  /**
+   * Returns a table of the metrics recorded so far, one row per method.
+   */
+  String report() {
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    StringBuilder report = new StringBuilder(String.format(
+        "%-40s %10s %10s %8s %10s %9s %9s %9s %9s%n",
+        "method", "calls", "calls/s", "errors", "messages", "avg ms", "p50 ms", "p99 ms",
+        "p999 ms"));
+    for (Map.Entry<String, MethodMetrics> entry : new TreeMap<>(methods).entrySet()) {
+      MethodMetrics metrics = entry.getValue();
+      long calls = metrics.calls.sum();
+      report.append(String.format(
+          "%-40s %10d %10.1f %8d %10d %9.3f %9.3f %9.3f %9.3f%n",
+          entry.getKey(), calls, calls / seconds, metrics.errors.sum(), metrics.messages.sum(),
+          calls == 0 ? 0 : toMillis(metrics.totalNanos.sum() / calls),
+          toMillis(metrics.percentile(0.5)), toMillis(metrics.percentile(0.99)),
+          toMillis(metrics.percentile(0.999))));
+    }
+    return report.toString();
+  }
+
+  private MethodMetrics metricsFor(String method) {
+    MethodMetrics metrics = methods.get(method);
+    if (metrics == null) {
+      MethodMetrics created = new MethodMetrics();
+      metrics = methods.putIfAbsent(method, created);
+      if (metrics == null) {
+        metrics = created;
+      }
+    }
+    return metrics;
+  }
+
+  private static double toMillis(long nanos) {
+    return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  private static final class MethodMetrics {
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    // Bucket i counts latencies in [2^(i-1), 2^i) nanoseconds.
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+
+    private void record(long nanos, boolean ok) {
+      calls.increment();
+      if (!ok) {
+        errors.increment();
+      }
+      totalNanos.add(nanos);
+      buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given fraction of calls.
+     */
+    private long percentile(double fraction) {
+      long total = 0;
+      for (int i = 0; i < buckets.length(); i++) {
+        total += buckets.get(i);
+      }
+      long rank = (long) Math.ceil(total * fraction);
+      long seen = 0;
+      for (int i = 0; i < buckets.length(); i++) {
+        seen += buckets.get(i);
+        if (seen >= rank && seen > 0) {
+          return i == 0 ? 0 : (1L << i) - 1;
+        }
+      }
+      return 0;
+    }
+  }
+}
@@ -19,8 +19,12 @@ package com.google.appengine.demos.asyncrest;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.servlet.AsyncContext;
@@ -44,20 +48,39 @@ import org.eclipse.jetty.util.ssl.SslContextFactory;
  * <dl>
  * <dt>appid</dt>
  * <dd>The Google app key to use</dd>
+ * <dt>cacheSize</dt>
+ * <dd>The most Places responses to cache (default 1000)</dd>
+ * <dt>cacheTtlSeconds</dt>
+ * <dd>How long a cached Places response is used (default 60)</dd>
+ * <dt>parser</dt>
+ * <dd>{@code streaming} (the default) to scan responses with {@link PlacesResponseParser}, or
+ * {@code tree} to parse each whole response with {@code JSON.parse}</dd>
  * </dl>
  *
+ * <p>Places responses are cached by request URL, and identical requests in flight at the same
+ * time share one upstream call; see {@link PlacesCache}.
  */
 public class AsyncRestServlet extends AbstractRestServlet {
 
   static final String RESULTS_ATTR = "com.google.appengine.demos.asyncrest.client";
   static final String DURATION_ATTR = "com.google.appengine.demos.asyncrest.duration";
   static final String START_ATTR = "com.google.appengine.demos.asyncrest.start";
+  static final String CACHE_ATTR = "com.google.appengine.demos.asyncrest.cache";
+  private static final String[] REQUIRED_PARAMS =
+      {LATITUDE_PARAM, LONGITUDE_PARAM, RADIUS_PARAM, ITEMS_PARAM};
 
   HttpClient client;
+  PlacesCache cache;
+  boolean streamingParser;
 
   @Override
   public void init(ServletConfig servletConfig) throws ServletException {
     super.init(servletConfig);
+    String parser = servletConfig.getInitParameter("parser");
+    if (parser != null && !"streaming".equals(parser) && !"tree".equals(parser)) {
+      throw new ServletException("Invalid parser: " + parser);
+    }
+    streamingParser = !"tree".equals(parser);
     SslContextFactory sslContextFactory = new SslContextFactory();
     client = new HttpClient(sslContextFactory);
 
@@ -66,6 +89,45 @@ public class AsyncRestServlet extends AbstractRestServlet {
     } catch (Exception e) {
       throw new ServletException(e);
     }
+
+    cache = new PlacesCache(
+        intParameter(servletConfig, "cacheSize", 1000),
+        intParameter(servletConfig, "cacheTtlSeconds", 60) * 1000L,
+        new PlacesCache.Fetcher() {
+          @Override
+          public void fetch(String url, final PlacesCache.Listener listener) {
+            final List<Map<String, Object>> found = new ArrayList<>();
+            client.newRequest(url)
+                .method(HttpMethod.GET)
+                .send(
+                    new AsyncRestRequest() {
+                      @Override
+                      void onLocationFound(Map<String, Object> result) {
+                        found.add(result);
+                      }
+
+                      @Override
+                      void doComplete() {
+                        listener.onResults(succeeded ? found : null);
+                      }
+                    });
+          }
+        });
+    // Exposes the hit, miss and coalesce counters to the rest of the app.
+    servletConfig.getServletContext().setAttribute(CACHE_ATTR, cache);
+  }
+
+  private static int intParameter(ServletConfig servletConfig, String name, int defaultValue)
+      throws ServletException {
+    String value = servletConfig.getInitParameter(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      throw new ServletException("Invalid " + name + ": " + value, e);
+    }
   }
 
   @Override
@@ -85,6 +147,14 @@ public class AsyncRestServlet extends AbstractRestServlet {
 
     // If no results, this must be the first dispatch, so send the REST request(s).
     if (results == null) {
+      // Reject a request with a missing parameter before suspending it.
+      for (String param : REQUIRED_PARAMS) {
+        if (request.getParameter(param) == null) {
+          response.sendError(400, "Missing parameter: " + param);
+          return;
+        }
+      }
+
       // define results data structures
       final Queue<Map<String, Object>> resultsQueue = new ConcurrentLinkedQueue<>();
       request.setAttribute(RESULTS_ATTR, results = resultsQueue);
@@ -95,32 +165,30 @@ public class AsyncRestServlet extends AbstractRestServlet {
       final AsyncContext async = request.startAsync();
       async.setTimeout(30000);
 
-      // Extract keywords to search for.
-      String lat = sanitize(request.getParameter(LATITUDE_PARAM));
-      String longitude = sanitize(request.getParameter(LONGITUDE_PARAM));
-      String radius = sanitize(request.getParameter(RADIUS_PARAM));
+      // Extract keywords to search for, normalized so that equivalent requests share a cache
+      // entry.
+      String lat = sanitize(request.getParameter(LATITUDE_PARAM)).trim();
+      String longitude = sanitize(request.getParameter(LONGITUDE_PARAM)).trim();
+      String radius = sanitize(request.getParameter(RADIUS_PARAM)).trim();
       String[] keywords = sanitize(request.getParameter(ITEMS_PARAM)).split(",");
 
       final AtomicInteger outstanding = new AtomicInteger(keywords.length);
 
-      // Send request each keyword.
+      // Look up each keyword, sending a request only if it is neither cached nor in flight.
       for (final String item : keywords) {
-        client.newRequest(restQuery(lat + "," + longitude, radius, item))
-            .method(HttpMethod.GET)
-            .send(
-                new AsyncRestRequest() {
-                  @Override
-                  void onLocationFound(Map<String, Object> result) {
-                    resultsQueue.add(result);
-                  }
-
-                  @Override
-                  void doComplete() {
-                    if (outstanding.decrementAndGet() <= 0) {
-                      async.dispatch();
-                    }
-                  }
-                });
+        cache.get(
+            restQuery(lat + "," + longitude, radius, item.trim().toLowerCase(Locale.ROOT)),
+            new PlacesCache.Listener() {
+              @Override
+              public void onResults(List<Map<String, Object>> found) {
+                if (found != null) {
+                  resultsQueue.addAll(found);
+                }
+                if (outstanding.decrementAndGet() <= 0) {
+                  async.dispatch();
+                }
+              }
+            });
       }
 
       // save timing info and return
@@ -160,6 +228,7 @@ public class AsyncRestServlet extends AbstractRestServlet {
             + ms(thread) + "ms (" + ms(initial)
             + " initial + " + ms(generate) + " generate )<br/>");
     out.print("Async wait (<span class='green'>green</span>): " + ms(total - thread) + "ms<br/>");
+    out.print(cache + "<br/>");
 
     out.println(
         "<img border='0px' src='asyncrest/red.png' height='20px' width='" + width(initial) + "px'>"
@@ -187,31 +256,67 @@ public class AsyncRestServlet extends AbstractRestServlet {
 
   private abstract class AsyncRestRequest extends Response.Listener.Adapter {
 
-    final Utf8StringBuilder utf8Content = new Utf8StringBuilder();
+    final Utf8StringBuilder utf8Content;
+    final PlacesResponseParser parser;
+    // Whether the response was a successful Places response, and so may be cached.
+    boolean succeeded;
 
     AsyncRestRequest() {
+      if (streamingParser) {
+        parser = new PlacesResponseParser(MAX_RESULTS, this::onLocationFound);
+        utf8Content = null;
+      } else {
+        parser = null;
+        utf8Content = new Utf8StringBuilder();
+      }
     }
 
     @Override
     public void onContent(Response response, ByteBuffer content) {
+      if (parser != null) {
+        if (!parser.parse(content)) {
+          // Everything generateResults shows has been found; drop the rest of the response.
+          response.abort(new CancellationException("Enough results"));
+        }
+        return;
+      }
       byte[] bytes = BufferUtil.toArray(content);
       utf8Content.append(bytes, 0, bytes.length);
     }
 
     @Override
     public void onComplete(Result result) {
-      // Extract results.
-      Map<String, Object> data = (Map<String, Object>) JSON.parse(utf8Content.toString());
-      if (data != null) {
-        Object[] results = (Object[]) data.get("results");
-        if (results != null) {
-          for (Object o : results) {
-            onLocationFound((Map<String, Object>) o);
+      try {
+        if (parser != null) {
+          Object status = parser.status();
+          succeeded = parser.stoppedEarly()
+              || (!result.isFailed() && result.getResponse().getStatus() == 200
+                  && ("OK".equals(status) || "ZERO_RESULTS".equals(status)));
+          return;
+        }
+
+        // Extract results.
+        Map<String, Object> data = null;
+        if (!result.isFailed() && result.getResponse().getStatus() == 200) {
+          data = (Map<String, Object>) JSON.parse(utf8Content.toString());
+        }
+        if (data != null) {
+          Object status = data.get("status");
+          succeeded = "OK".equals(status) || "ZERO_RESULTS".equals(status);
+          Object[] results = (Object[]) data.get("results");
+          if (results != null) {
+            for (Object o : results) {
+              onLocationFound((Map<String, Object>) o);
+            }
           }
         }
+      } catch (RuntimeException e) {
+        // A malformed response, such as unparseable JSON or an unexpected type, is a failure.
+        succeeded = false;
+      } finally {
+        // Always complete, or everyone waiting on this request would wait for good.
+        doComplete();
       }
-      doComplete();
-
     }
 
     abstract void onLocationFound(Map<String, Object> details);
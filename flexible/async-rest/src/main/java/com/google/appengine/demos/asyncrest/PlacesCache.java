@@ -0,0 +1,192 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.asyncrest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of Places results keyed by request URL, which also collapses concurrent
+ * requests for the same URL into one upstream call.
+ *
+ * <p>Entries expire {@code ttlMillis} after they are fetched, and the least recently used entry
+ * is evicted when the cache is full. A lookup that misses while another request for the same URL
+ * is in flight waits for that request instead of sending its own. Failed requests are passed to
+ * everyone waiting on them but are not cached.
+ */
+public class PlacesCache {
+  // Expired entries are also swept out every this many misses.
+  private static final int SWEEP_INTERVAL = 64;
+
+  /**
+   * Receives the results for a URL.
+   */
+  public interface Listener {
+    /**
+     * Called with the results, or {@code null} if the upstream request failed.
+     */
+    void onResults(List<Map<String, Object>> results);
+  }
+
+  /**
+   * Sends the upstream request for a URL. The listener must be called exactly once, unless
+   * {@code fetch} throws.
+   */
+  public interface Fetcher {
+    void fetch(String url, Listener listener);
+  }
+
+  private static final class Entry {
+    final List<Map<String, Object>> results;
+    final long expiresNanos;
+
+    Entry(List<Map<String, Object>> results, long expiresNanos) {
+      this.results = results;
+      this.expiresNanos = expiresNanos;
+    }
+  }
+
+  private final Fetcher fetcher;
+  private final long ttlNanos;
+  private final Map<String, Entry> entries;
+  private final Map<String, List<Listener>> inFlight = new HashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private int missesSinceSweep;
+
+  public PlacesCache(final int maxEntries, long ttlMillis, Fetcher fetcher) {
+    this.fetcher = fetcher;
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Passes the results for {@code url} to {@code listener}: from the cache, from a request
+   * already in flight, or from a new upstream request.
+   */
+  public void get(final String url, Listener listener) {
+    List<Map<String, Object>> cached = null;
+    synchronized (this) {
+      Entry entry = entries.get(url);
+      if (entry != null && entry.expiresNanos - System.nanoTime() > 0) {
+        cached = entry.results;
+      } else {
+        if (entry != null) {
+          entries.remove(url);
+        }
+        List<Listener> waiting = inFlight.get(url);
+        if (waiting != null) {
+          waiting.add(listener);
+          coalesced.incrementAndGet();
+          return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(listener);
+        inFlight.put(url, waiting);
+        if (++missesSinceSweep == SWEEP_INTERVAL) {
+          missesSinceSweep = 0;
+          evictExpired();
+        }
+      }
+    }
+    if (cached != null) {
+      hits.incrementAndGet();
+      listener.onResults(cached);
+      return;
+    }
+    misses.incrementAndGet();
+    final AtomicBoolean completed = new AtomicBoolean();
+    try {
+      fetcher.fetch(url, new Listener() {
+        @Override
+        public void onResults(List<Map<String, Object>> results) {
+          if (completed.compareAndSet(false, true)) {
+            complete(url, results);
+          }
+        }
+      });
+    } catch (RuntimeException e) {
+      // The fetch will never complete, so fail it now rather than leave it in flight for good.
+      if (completed.compareAndSet(false, true)) {
+        complete(url, null);
+      }
+    }
+  }
+
+  private void complete(String url, List<Map<String, Object>> results) {
+    List<Map<String, Object>> shared =
+        results == null ? null : Collections.unmodifiableList(new ArrayList<>(results));
+    List<Listener> waiting;
+    synchronized (this) {
+      waiting = inFlight.remove(url);
+      if (shared != null) {
+        entries.put(url, new Entry(shared, System.nanoTime() + ttlNanos));
+      }
+    }
+    for (Listener listener : waiting) {
+      listener.onResults(shared);
+    }
+  }
+
+  /**
+   * Drops every expired entry.
+   */
+  public synchronized void evictExpired() {
+    long now = System.nanoTime();
+    for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+      if (it.next().expiresNanos - now <= 0) {
+        it.remove();
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  public long coalesced() {
+    return coalesced.get();
+  }
+
+  @Override
+  public String toString() {
+    return "Cache: " + hits() + " hits, " + misses() + " misses, " + coalesced() + " coalesced, "
+        + size() + " entries";
+  }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.asyncrest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * An incremental parser for Places nearby search responses that keeps only what
+ * {@link AbstractRestServlet#generateResults} uses.
+ *
+ * <p>Content is fed a buffer at a time as it arrives and scanned in place, without copying it or
+ * building the document tree. Only the top-level {@code status}, and each result's {@code name}
+ * and {@code photos[0].photo_reference}, are decoded into strings. Each result is passed on as a
+ * map of the same shape {@code JSON.parse} produces, and parsing stops once
+ * {@code maxResultsWithPhotos} results with a photo have been found.
+ */
+class PlacesResponseParser {
+  private static final byte[] STATUS = "status".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] RESULTS = "results".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] NAME = "name".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] PHOTOS = "photos".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] PHOTO_REFERENCE =
+      "photo_reference".getBytes(StandardCharsets.UTF_8);
+
+  private static final int KEY_OTHER = 0;
+  private static final int KEY_STATUS = 1;
+  private static final int KEY_RESULTS = 2;
+  private static final int KEY_NAME = 3;
+  private static final int KEY_PHOTOS = 4;
+  private static final int KEY_PHOTO_REFERENCE = 5;
+
+  // Lexer states.
+  private static final int BETWEEN_TOKENS = 0;
+  private static final int IN_STRING = 1;
+  private static final int IN_ESCAPE = 2;
+  private static final int IN_UNICODE_ESCAPE = 3;
+  private static final int IN_LITERAL = 4;
+
+  // Nesting of a photo reference: root, results, result, photos, photo. Deeper containers are
+  // counted but not tracked.
+  private static final int TRACKED_DEPTH = 5;
+
+  private final int maxResultsWithPhotos;
+  private final Consumer<Map<String, Object>> handler;
+
+  private int state = BETWEEN_TOKENS;
+  private int unicodeDigits;
+  private int unicodeValue;
+  private char highSurrogate;
+  private boolean stringIsKey;
+  private boolean capturing;
+  private byte[] text = new byte[64];
+  private int textLength;
+
+  private int depth;
+  private final boolean[] isObject = new boolean[TRACKED_DEPTH];
+  private final boolean[] expectingKey = new boolean[TRACKED_DEPTH];
+  private final int[] key = new int[TRACKED_DEPTH];
+  private final int[] index = new int[TRACKED_DEPTH];
+
+  private String status;
+  private String name;
+  private String photoReference;
+  private int resultsWithPhotos;
+  private boolean stopped;
+
+  PlacesResponseParser(int maxResultsWithPhotos, Consumer<Map<String, Object>> handler) {
+    this.maxResultsWithPhotos = maxResultsWithPhotos;
+    this.handler = handler;
+  }
+
+  /**
+   * Scans {@code content}, passing on any results it completes. Returns false once enough results
+   * with photos have been found and the rest of the response can be dropped.
+   */
+  boolean parse(ByteBuffer content) {
+    for (int i = content.position(), end = content.limit(); i < end && !stopped; i++) {
+      accept(content.get(i));
+    }
+    content.position(content.limit());
+    return !stopped;
+  }
+
+  /**
+   * Returns the response's top-level status, or null if it has not been seen.
+   */
+  String status() {
+    return status;
+  }
+
+  /**
+   * Returns whether parsing stopped before the end of the response.
+   */
+  boolean stoppedEarly() {
+    return stopped;
+  }
+
+  private void accept(byte b) {
+    switch (state) {
+      case IN_STRING:
+        if (b == '"') {
+          state = BETWEEN_TOKENS;
+          endString();
+        } else if (b == '\\') {
+          state = IN_ESCAPE;
+        } else if (capturing) {
+          append(b);
+        }
+        return;
+      case IN_ESCAPE:
+        state = IN_STRING;
+        if (b == 'u') {
+          state = IN_UNICODE_ESCAPE;
+          unicodeDigits = 0;
+          unicodeValue = 0;
+        } else if (capturing) {
+          append((byte) unescape(b));
+        }
+        return;
+      case IN_UNICODE_ESCAPE:
+        unicodeValue = unicodeValue * 16 + Math.max(Character.digit(b, 16), 0);
+        if (++unicodeDigits == 4) {
+          state = IN_STRING;
+          if (capturing) {
+            appendCodeUnit((char) unicodeValue);
+          }
+        }
+        return;
+      case IN_LITERAL:
+        if (b != ',' && b != '}' && b != ']' && !isWhitespace(b)) {
+          return;
+        }
+        state = BETWEEN_TOKENS;
+        break;
+      default:
+        break;
+    }
+
+    switch (b) {
+      case '{':
+        push(true);
+        break;
+      case '[':
+        push(false);
+        break;
+      case '}':
+      case ']':
+        pop();
+        break;
+      case ',':
+        if (tracked()) {
+          int frame = depth - 1;
+          if (isObject[frame]) {
+            expectingKey[frame] = true;
+          } else {
+            index[frame]++;
+          }
+        }
+        break;
+      case '"':
+        startString();
+        break;
+      case ':':
+        break;
+      default:
+        if (!isWhitespace(b)) {
+          // A number, true, false or null, none of which are needed.
+          state = IN_LITERAL;
+        }
+        break;
+    }
+  }
+
+  private boolean tracked() {
+    return depth > 0 && depth <= TRACKED_DEPTH;
+  }
+
+  private void push(boolean object) {
+    depth++;
+    if (tracked()) {
+      int frame = depth - 1;
+      isObject[frame] = object;
+      expectingKey[frame] = object;
+      key[frame] = KEY_OTHER;
+      index[frame] = 0;
+      if (depth == 3 && inResult()) {
+        name = null;
+        photoReference = null;
+      }
+    }
+  }
+
+  private void pop() {
+    if (depth == 3 && inResult()) {
+      emitResult();
+    }
+    depth--;
+  }
+
+  /**
+   * Returns whether the third container is an element of the top-level {@code results} array.
+   */
+  private boolean inResult() {
+    return depth >= 3 && isObject[0] && key[0] == KEY_RESULTS && !isObject[1] && isObject[2];
+  }
+
+  private void startString() {
+    state = IN_STRING;
+    textLength = 0;
+    highSurrogate = 0;
+    stringIsKey = tracked() && isObject[depth - 1] && expectingKey[depth - 1];
+    capturing = stringIsKey || wantsValue();
+  }
+
+  private boolean wantsValue() {
+    switch (depth) {
+      case 1:
+        return key[0] == KEY_STATUS;
+      case 3:
+        return inResult() && key[2] == KEY_NAME;
+      case 5:
+        return inResult() && key[2] == KEY_PHOTOS && !isObject[3] && index[3] == 0
+            && isObject[4] && key[4] == KEY_PHOTO_REFERENCE;
+      default:
+        return false;
+    }
+  }
+
+  private void endString() {
+    if (stringIsKey) {
+      int frame = depth - 1;
+      key[frame] = matchKey();
+      expectingKey[frame] = false;
+    } else if (capturing) {
+      String value = new String(text, 0, textLength, StandardCharsets.UTF_8);
+      if (depth == 1) {
+        status = value;
+      } else if (depth == 3) {
+        name = value;
+      } else if (photoReference == null) {
+        photoReference = value;
+      }
+    }
+  }
+
+  private int matchKey() {
+    if (matches(NAME)) {
+      return KEY_NAME;
+    } else if (matches(PHOTOS)) {
+      return KEY_PHOTOS;
+    } else if (matches(PHOTO_REFERENCE)) {
+      return KEY_PHOTO_REFERENCE;
+    } else if (matches(RESULTS)) {
+      return KEY_RESULTS;
+    } else if (matches(STATUS)) {
+      return KEY_STATUS;
+    }
+    return KEY_OTHER;
+  }
+
+  private boolean matches(byte[] expected) {
+    if (textLength != expected.length) {
+      return false;
+    }
+    for (int i = 0; i < textLength; i++) {
+      if (text[i] != expected[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void emitResult() {
+    Map<String, Object> result = new HashMap<>(4);
+    result.put("name", name);
+    if (photoReference != null) {
+      result.put("photos",
+          new Object[] {Collections.singletonMap("photo_reference", photoReference)});
+    }
+    handler.accept(result);
+    if (photoReference != null && ++resultsWithPhotos >= maxResultsWithPhotos) {
+      stopped = true;
+    }
+  }
+
+  private void append(byte b) {
+    if (textLength == text.length) {
+      byte[] larger = new byte[text.length * 2];
+      System.arraycopy(text, 0, larger, 0, textLength);
+      text = larger;
+    }
+    text[textLength++] = b;
+  }
+
+  private void appendCodeUnit(char c) {
+    int codePoint;
+    if (Character.isHighSurrogate(c)) {
+      highSurrogate = c;
+      return;
+    } else if (Character.isLowSurrogate(c) && highSurrogate != 0) {
+      codePoint = Character.toCodePoint(highSurrogate, c);
+    } else {
+      codePoint = c;
+    }
+    highSurrogate = 0;
+    if (codePoint < 0x80) {
+      append((byte) codePoint);
+    } else if (codePoint < 0x800) {
+      append((byte) (0xc0 | codePoint >> 6));
+      append((byte) (0x80 | codePoint & 0x3f));
+    } else if (codePoint < 0x10000) {
+      append((byte) (0xe0 | codePoint >> 12));
+      append((byte) (0x80 | codePoint >> 6 & 0x3f));
+      append((byte) (0x80 | codePoint & 0x3f));
+    } else {
+      append((byte) (0xf0 | codePoint >> 18));
+      append((byte) (0x80 | codePoint >> 12 & 0x3f));
+      append((byte) (0x80 | codePoint >> 6 & 0x3f));
+      append((byte) (0x80 | codePoint & 0x3f));
+    }
+  }
+
+  private static char unescape(byte b) {
+    switch (b) {
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      default:
+        // \" \\ and \/ stand for themselves.
+        return (char) b;
+    }
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.asyncrest;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PlacesCache}. */
+@RunWith(JUnit4.class)
+public class PlacesCacheTest {
+  private static final String URL = "https://maps.example.com/nearbysearch?types=cafe";
+
+  /** Records the fetches sent, and completes them when told to. */
+  private static class RecordingFetcher implements PlacesCache.Fetcher {
+    final List<String> urls = new ArrayList<>();
+    final List<PlacesCache.Listener> listeners = new ArrayList<>();
+    RuntimeException failure;
+
+    @Override
+    public void fetch(String url, PlacesCache.Listener listener) {
+      urls.add(url);
+      if (failure != null) {
+        RuntimeException thrown = failure;
+        failure = null;
+        throw thrown;
+      }
+      listeners.add(listener);
+    }
+  }
+
+  /** Keeps the results each lookup was given. */
+  private static class RecordingListener implements PlacesCache.Listener {
+    final List<List<Map<String, Object>>> calls = new ArrayList<>();
+
+    @Override
+    public void onResults(List<Map<String, Object>> results) {
+      calls.add(results);
+    }
+  }
+
+  private static List<Map<String, Object>> results(String name) {
+    return Collections.singletonList(Collections.<String, Object>singletonMap("name", name));
+  }
+
+  @Test
+  public void get_fetchThrows_failsWaitersAndFetchesAgain() {
+    RecordingFetcher fetcher = new RecordingFetcher();
+    fetcher.failure = new IllegalStateException("client stopped");
+    PlacesCache cache = new PlacesCache(10, 60_000, fetcher);
+    RecordingListener first = new RecordingListener();
+
+    cache.get(URL, first);
+
+    assertThat(first.calls).containsExactly((Object) null);
+
+    RecordingListener second = new RecordingListener();
+    cache.get(URL, second);
+    fetcher.listeners.get(0).onResults(results("Cafe"));
+
+    assertThat(fetcher.urls).containsExactly(URL, URL);
+    assertThat(second.calls).containsExactly(results("Cafe"));
+  }
+
+  @Test
+  public void get_fetchFails_isNotCached() {
+    RecordingFetcher fetcher = new RecordingFetcher();
+    PlacesCache cache = new PlacesCache(10, 60_000, fetcher);
+    RecordingListener first = new RecordingListener();
+
+    cache.get(URL, first);
+    fetcher.listeners.get(0).onResults(null);
+    cache.get(URL, new RecordingListener());
+
+    assertThat(first.calls).containsExactly((Object) null);
+    assertThat(fetcher.urls).containsExactly(URL, URL);
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void get_concurrentMisses_shareOneFetch() {
+    RecordingFetcher fetcher = new RecordingFetcher();
+    PlacesCache cache = new PlacesCache(10, 60_000, fetcher);
+    RecordingListener first = new RecordingListener();
+    RecordingListener second = new RecordingListener();
+
+    cache.get(URL, first);
+    cache.get(URL, second);
+    fetcher.listeners.get(0).onResults(results("Cafe"));
+    RecordingListener third = new RecordingListener();
+    cache.get(URL, third);
+
+    assertThat(fetcher.urls).containsExactly(URL);
+    assertThat(first.calls).containsExactly(results("Cafe"));
+    assertThat(second.calls).containsExactly(results("Cafe"));
+    assertThat(third.calls).containsExactly(results("Cafe"));
+    assertThat(cache.misses()).isEqualTo(1L);
+    assertThat(cache.coalesced()).isEqualTo(1L);
+    assertThat(cache.hits()).isEqualTo(1L);
+  }
+
+  @Test
+  public void get_afterTtl_fetchesAgain() throws Exception {
+    RecordingFetcher fetcher = new RecordingFetcher();
+    PlacesCache cache = new PlacesCache(10, 1, fetcher);
+
+    cache.get(URL, new RecordingListener());
+    fetcher.listeners.get(0).onResults(results("Cafe"));
+    Thread.sleep(20);
+    RecordingListener late = new RecordingListener();
+    cache.get(URL, late);
+    fetcher.listeners.get(1).onResults(results("Bakery"));
+
+    assertThat(fetcher.urls).containsExactly(URL, URL);
+    assertThat(late.calls).containsExactly(results("Bakery"));
+    assertThat(cache.hits()).isEqualTo(0L);
+  }
+
+  @Test
+  public void evictExpired_dropsExpiredEntries() throws Exception {
+    RecordingFetcher fetcher = new RecordingFetcher();
+    PlacesCache cache = new PlacesCache(10, 1, fetcher);
+
+    cache.get(URL, new RecordingListener());
+    fetcher.listeners.get(0).onResults(results("Cafe"));
+    assertThat(cache.size()).isEqualTo(1);
+    Thread.sleep(20);
+    cache.evictExpired();
+
+    assertThat(cache.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void get_full_evictsLeastRecentlyUsed() {
+    RecordingFetcher fetcher = new RecordingFetcher();
+    PlacesCache cache = new PlacesCache(2, 60_000, fetcher);
+
+    cache.get("a", new RecordingListener());
+    fetcher.listeners.get(0).onResults(results("A"));
+    cache.get("b", new RecordingListener());
+    fetcher.listeners.get(1).onResults(results("B"));
+    // Using "a" leaves "b" as the least recently used entry.
+    cache.get("a", new RecordingListener());
+    cache.get("c", new RecordingListener());
+    fetcher.listeners.get(2).onResults(results("C"));
+    cache.get("a", new RecordingListener());
+    cache.get("b", new RecordingListener());
+
+    assertThat(fetcher.urls).containsExactly("a", "b", "c", "b").inOrder();
+    assertThat(cache.size()).isEqualTo(2);
+    assertThat(cache.hits()).isEqualTo(2L);
+  }
+}
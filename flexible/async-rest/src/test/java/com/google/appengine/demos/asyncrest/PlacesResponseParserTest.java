@@ -0,0 +1,221 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.appengine.demos.asyncrest;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link PlacesResponseParser}. */
+@RunWith(JUnit4.class)
+public class PlacesResponseParserTest {
+
+  private final List<Map<String, Object>> found = new ArrayList<>();
+
+  /**
+   * Feeds {@code json} to a new parser in chunks of {@code chunkSize} bytes, and returns it.
+   */
+  private PlacesResponseParser parse(String json, int maxResultsWithPhotos, int chunkSize) {
+    PlacesResponseParser parser = new PlacesResponseParser(maxResultsWithPhotos, found::add);
+    byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i < bytes.length; i += chunkSize) {
+      ByteBuffer chunk = ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i));
+      if (!parser.parse(chunk)) {
+        break;
+      }
+    }
+    return parser;
+  }
+
+  private PlacesResponseParser parse(String json) {
+    return parse(json, 5, Integer.MAX_VALUE);
+  }
+
+  private static String photoReference(Map<String, Object> result) {
+    Object[] photos = (Object[]) result.get("photos");
+    return photos == null ? null : (String) ((Map<?, ?>) photos[0]).get("photo_reference");
+  }
+
+  @Test
+  public void parse_readsStatusNamesAndFirstPhotos() {
+    PlacesResponseParser parser = parse("{\"html_attributions\":[],\"results\":["
+        + "{\"name\":\"Cafe\",\"photos\":[{\"height\":40,\"photo_reference\":\"ref1\"},"
+        + "{\"photo_reference\":\"ref2\"}]},"
+        + "{\"name\":\"Bakery\"}],\"status\":\"OK\"}");
+
+    assertThat(parser.status()).isEqualTo("OK");
+    assertThat(parser.stoppedEarly()).isFalse();
+    assertThat(found).hasSize(2);
+    assertThat(found.get(0).get("name")).isEqualTo("Cafe");
+    assertThat(photoReference(found.get(0))).isEqualTo("ref1");
+    assertThat(found.get(1).get("name")).isEqualTo("Bakery");
+    assertThat(found.get(1)).doesNotContainKey("photos");
+  }
+
+  @Test
+  public void parse_anyChunking_givesSameResults() {
+    String json = "{\"results\":[{\"name\":\"Caf\\u00e9 \\\"Z\\\"\",\"photos\":"
+        + "[{\"photo_reference\":\"r\\/1\"}]}],\"status\":\"OK\"}";
+    for (int chunkSize = 1; chunkSize < 8; chunkSize++) {
+      found.clear();
+      PlacesResponseParser parser = parse(json, 5, chunkSize);
+
+      assertThat(parser.status()).isEqualTo("OK");
+      assertThat(found).hasSize(1);
+      assertThat(found.get(0).get("name")).isEqualTo("Caf\u00e9 \"Z\"");
+      assertThat(photoReference(found.get(0))).isEqualTo("r/1");
+    }
+  }
+
+  @Test
+  public void parse_escapes() {
+    parse("{\"results\":[{\"name\":\"a\\\\b\\/c\\\"d\\be\\ff\\ng\\rh\\ti\"}]}");
+
+    assertThat(found.get(0).get("name")).isEqualTo("a\\b/c\"d\be\ff\ng\rh\ti");
+  }
+
+  @Test
+  public void parse_unicodeEscapesAndSurrogatePairs() {
+    parse("{\"results\":[{\"name\":\"\\u00e9\\u4e2d\\ud83d\\ude00 \\u0041\"}]}");
+
+    assertThat(found.get(0).get("name")).isEqualTo("\u00e9\u4e2d\ud83d\ude00 A");
+  }
+
+  @Test
+  public void parse_rawUtf8() {
+    parse("{\"results\":[{\"name\":\"Caf\u00e9 \ud83d\ude00\"}]}");
+
+    assertThat(found.get(0).get("name")).isEqualTo("Caf\u00e9 \ud83d\ude00");
+  }
+
+  @Test
+  public void parse_escapedKeys() {
+    PlacesResponseParser parser =
+        parse("{\"res\\u0075lts\":[{\"n\\u0061me\":\"Cafe\"}],\"st\\u0061tus\":\"OK\"}");
+
+    assertThat(parser.status()).isEqualTo("OK");
+    assertThat(found.get(0).get("name")).isEqualTo("Cafe");
+  }
+
+  @Test
+  public void parse_ignoresNestedFieldsOfTheSameName() {
+    parse("{\"results\":[{\"geometry\":{\"location\":{\"lat\":-33.8,\"lng\":151.2},"
+        + "\"name\":\"nested\",\"photos\":[{\"photo_reference\":\"nested\"}]},"
+        + "\"opening_hours\":{\"periods\":[{\"open\":{\"day\":0,\"name\":\"deep\"}}]},"
+        + "\"photos\":[{\"html_attributions\":[\"<a>x</a>\",[{\"photo_reference\":\"deep\"}]],"
+        + "\"photo_reference\":\"ref\"}],"
+        + "\"types\":[\"cafe\",\"food\"],\"name\":\"Cafe\"}],"
+        + "\"next\":{\"status\":\"nested\"},\"status\":\"OK\"}");
+
+    assertThat(found).hasSize(1);
+    assertThat(found.get(0).get("name")).isEqualTo("Cafe");
+    assertThat(photoReference(found.get(0))).isEqualTo("ref");
+  }
+
+  @Test
+  public void parse_ignoresResultsOutsideTheTopLevelArray() {
+    PlacesResponseParser parser = parse("{\"other\":{\"results\":[{\"name\":\"no\"}]},"
+        + "\"results\":[[{\"name\":\"no\"}],{\"name\":\"yes\"}],\"status\":\"OK\"}");
+
+    assertThat(parser.status()).isEqualTo("OK");
+    assertThat(found).hasSize(1);
+    assertThat(found.get(0).get("name")).isEqualTo("yes");
+  }
+
+  @Test
+  public void parse_numbersAndLiterals() {
+    PlacesResponseParser parser = parse("{\"results\":[{\"rating\":4.5,\"price\":-1e+3,"
+        + "\"open\":true,\"closed\":false,\"icon\":null,\"n\":0,\"name\":\"Cafe\","
+        + "\"levels\":[1,-2.5E-1,3]},{\"name\":\"Bakery\",\"rating\":4}],"
+        + "\"count\":2 ,\"status\":\"OK\"}");
+
+    assertThat(parser.status()).isEqualTo("OK");
+    assertThat(found).hasSize(2);
+    assertThat(found.get(0).get("name")).isEqualTo("Cafe");
+    assertThat(found.get(1).get("name")).isEqualTo("Bakery");
+  }
+
+  @Test
+  public void parse_enoughPhotos_stopsEarly() {
+    String json = "{\"results\":["
+        + "{\"name\":\"A\",\"photos\":[{\"photo_reference\":\"a\"}]},"
+        + "{\"name\":\"B\"},"
+        + "{\"name\":\"C\",\"photos\":[{\"photo_reference\":\"c\"}]},"
+        + "{\"name\":\"D\",\"photos\":[{\"photo_reference\":\"d\"}]}],\"status\":\"OK\"}";
+    PlacesResponseParser parser = new PlacesResponseParser(2, found::add);
+    ByteBuffer content = ByteBuffer.wrap(json.getBytes(StandardCharsets.UTF_8));
+
+    assertThat(parser.parse(content)).isFalse();
+
+    assertThat(parser.stoppedEarly()).isTrue();
+    assertThat(content.hasRemaining()).isFalse();
+    assertThat(parser.status()).isNull();
+    assertThat(found).hasSize(3);
+    assertThat(found.get(2).get("name")).isEqualTo("C");
+    // Later content is ignored.
+    assertThat(parser.parse(ByteBuffer.wrap("{\"name\":\"E\"}".getBytes(StandardCharsets.UTF_8))))
+        .isFalse();
+    assertThat(found).hasSize(3);
+  }
+
+  @Test
+  public void parse_truncated_emitsOnlyCompleteResults() {
+    PlacesResponseParser parser = parse("{\"results\":[{\"name\":\"A\"},"
+        + "{\"name\":\"B\",\"photos\":[{\"photo_reference\":\"b");
+
+    assertThat(parser.status()).isNull();
+    assertThat(parser.stoppedEarly()).isFalse();
+    assertThat(found).hasSize(1);
+    assertThat(found.get(0).get("name")).isEqualTo("A");
+  }
+
+  @Test
+  public void parse_truncatedEscape_doesNotThrow() {
+    PlacesResponseParser parser = parse("{\"status\":\"O\\u00");
+
+    assertThat(parser.status()).isNull();
+    assertThat(found).isEmpty();
+  }
+
+  @Test
+  public void parse_malformed_doesNotThrow() {
+    String[] inputs = {
+      "",
+      "not json",
+      "]]]}}}",
+      "}{\"status\":\"OK\"}",
+      "{\"results\":[}],{\"name\":\"x\"",
+      "[[[[[[[[[[\"name\":\"x\"]]]]]]]]]]",
+      "{\"results\":{\"name\":\"x\"}}",
+      "{\"status\" \"OK\"}",
+      "\"\\uzzzz\\q\"",
+    };
+    for (String input : inputs) {
+      parse(input);
+      parse(input, 5, 1);
+    }
+
+    assertThat(found).isEmpty();
+  }
+}
@@ -16,29 +16,41 @@
 
 package com.google.cloud.vision.samples.text;
 
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+import com.google.common.io.BaseEncoding;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.HashSet;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
 import java.util.stream.Stream;
+import javax.annotation.Nullable;
 import opennlp.tools.stemmer.Stemmer;
 import opennlp.tools.tokenize.Tokenizer;
 import opennlp.tools.tokenize.TokenizerModel;
-import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
 /**
- * An inverted index using Redis.
+ * An inverted index.
  *
  * <p>The {@code Index} indexes the files in which each keyword stem was found and supports queries
- * on the index.
+ * on the index. The postings themselves are kept in an {@link IndexStore}, which is Redis by
+ * default.
  */
 public class Index {
-  private static final int TOKEN_DB = 0;
-  private static final int DOCS_DB = 1;
+  private static final int PAGE_SIZE = 10;
 
   /**
    * Parses tokenizer data and creates a tokenizer.
@@ -58,75 +70,147 @@ public class Index {
 
   private final Tokenizer tokenizer;
   private final Stemmer stemmer;
-  private final JedisPool pool;
+  private final IndexStore store;
 
   /**
-   * Constructs a connection to the index.
+   * Constructs a connection to the index stored in Redis.
    */
   public Index(Tokenizer tokenizer, Stemmer stemmer, JedisPool pool) {
+    this(tokenizer, stemmer, new RedisIndexStore(pool));
+  }
+
+  /**
+   * Constructs a connection to the index kept in {@code store}.
+   */
+  public Index(Tokenizer tokenizer, Stemmer stemmer, IndexStore store) {
     this.tokenizer = tokenizer;
     this.stemmer = stemmer;
-    this.pool = pool;
+    this.store = store;
   }
 
   /**
-   * Prints {@code words} information from the index.
+   * Prints the best matches for {@code words} from the index. Returns the token for the next page
+   * of matches, or {@code null} if there are no more.
    */
-  public void printLookup(Iterable<String> words) {
-    ImmutableSet<String> hits = lookup(words);
-    if (hits.size() == 0) {
+  @Nullable
+  public String printLookup(Iterable<String> words) {
+    return printLookup(words, null);
+  }
+
+  /**
+   * Prints the page of matches for {@code words} starting at {@code pageToken}. Returns the token
+   * for the next page of matches, or {@code null} if there are no more.
+   */
+  @Nullable
+  public String printLookup(Iterable<String> words, @Nullable String pageToken) {
+    SearchPage page = search(words, Ranking.BM25, PAGE_SIZE, pageToken);
+    if (page.results().isEmpty()) {
       System.out.print("No hits found.\n\n");
     }
-    for (String document : hits) {
-      String text = "";
-      try (Jedis jedis = pool.getResource()) {
-        jedis.select(DOCS_DB);
-        text = jedis.get(document);
-      }
-      System.out.printf("***Image %s has text:\n%s\n", document, text);
+    Map<String, String> texts = page.texts();
+    for (SearchResult result : page.results()) {
+      System.out.printf(
+          "***Image %s (score %.2f) has text:\n%s\n",
+          result.path(), result.score(), texts.get(result.path()));
     }
+    if (page.nextPageToken() != null) {
+      System.out.print("More hits available.\n\n");
+    }
+    return page.nextPageToken();
   }
 
   /**
    * Looks up the set of documents containing each word. Returns the intersection of these.
    */
   public ImmutableSet<String> lookup(Iterable<String> words) {
-    HashSet<String> documents = null;
-    try (Jedis jedis = pool.getResource()) {
-      jedis.select(TOKEN_DB);
-      for (String word : words) {
-        word = stemmer.stem(word.toLowerCase()).toString();
-        if (documents == null) {
-          documents = new HashSet();
-          documents.addAll(jedis.smembers(word));
-        } else {
-          documents.retainAll(jedis.smembers(word));
-        }
+    return ImmutableSet.<String>copyOf(store.intersect(stemTerms(words)));
+  }
+
+  /**
+   * Returns up to {@code pageSize} of the documents containing each word, best first by
+   * {@code ranking}, starting after the page that returned {@code pageToken}.
+   *
+   * <p>Only the top {@code pageSize} scores are kept while ranking, and the page token records
+   * the last result returned, so no state is held between pages.
+   */
+  public SearchPage search(
+      Iterable<String> words, Ranking ranking, int pageSize, @Nullable String pageToken) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("pageSize must be positive");
+    }
+    List<String> terms = stemTerms(words);
+    Set<String> hits = store.intersect(terms);
+    if (hits.isEmpty()) {
+      return new SearchPage(store, ImmutableList.<SearchResult>of(), null);
+    }
+    TermStatistics stats = store.statistics(terms, hits);
+    SearchResult after = pageToken == null ? null : decodePageToken(pageToken);
+
+    // A heap of the best pageSize + 1 results, with the worst at the head.
+    PriorityQueue<SearchResult> best =
+        new PriorityQueue<>(pageSize + 2, SearchResult.BEST_FIRST.reversed());
+    for (String path : hits) {
+      SearchResult result = new SearchResult(path, ranking.score(terms, path, stats));
+      if (after != null && SearchResult.BEST_FIRST.compare(result, after) <= 0) {
+        continue;
+      }
+      best.add(result);
+      if (best.size() > pageSize + 1) {
+        best.poll();
       }
     }
-    if (documents == null) {
-      return ImmutableSet.<String>of();
+    List<SearchResult> results = new ArrayList<>(best);
+    Collections.sort(results, SearchResult.BEST_FIRST);
+    String nextPageToken = null;
+    if (results.size() > pageSize) {
+      results = results.subList(0, pageSize);
+      nextPageToken = encodePageToken(results.get(pageSize - 1));
     }
-    return ImmutableSet.<String>copyOf(documents);
+    return new SearchPage(store, results, nextPageToken);
+  }
+
+  private ImmutableList<String> stemTerms(Iterable<String> words) {
+    ImmutableList.Builder<String> terms = ImmutableList.builder();
+    for (String word : words) {
+      terms.add(stemmer.stem(word.toLowerCase()).toString());
+    }
+    return terms.build();
+  }
+
+  private static String encodePageToken(SearchResult last) {
+    String token = Long.toHexString(Double.doubleToLongBits(last.score())) + "/" + last.path();
+    return BaseEncoding.base64Url().encode(token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static SearchResult decodePageToken(String pageToken) {
+    String token;
+    try {
+      token = new String(BaseEncoding.base64Url().decode(pageToken), StandardCharsets.UTF_8);
+    } catch (IllegalArgumentException ex) {
+      throw new IllegalArgumentException("Invalid page token: " + pageToken, ex);
+    }
+    int slash = token.indexOf('/');
+    if (slash < 0) {
+      throw new IllegalArgumentException("Invalid page token: " + pageToken);
+    }
+    double score = Double.longBitsToDouble(Long.parseUnsignedLong(token.substring(0, slash), 16));
+    return new SearchResult(token.substring(slash + 1), score);
   }
 
   /**
    * Checks if the document at {@code path} needs to be processed.
    */
   public boolean isDocumentUnprocessed(Path path) {
-    try (Jedis jedis = pool.getResource()) {
-      jedis.select(DOCS_DB);
-      String result = jedis.get(path.toString());
-      if (result == null) {
-        return true;
-      }
-      if (result.equals("")) {
-        System.out.printf("File %s was already checked, and contains no text.\n", path);
-        return false;
-      }
-      System.out.printf("%s already added to index.\n", path);
+    String result = store.getDocument(path.toString());
+    if (result == null) {
+      return true;
+    }
+    if (result.equals("")) {
+      System.out.printf("File %s was already checked, and contains no text.\n", path);
       return false;
     }
+    System.out.printf("%s already added to index.\n", path);
+    return false;
   }
 
   /**
@@ -157,22 +241,105 @@ public class Index {
    * Adds a {@code document} to the index.
    */
   public void addDocument(Word document) {
-    try (Jedis jedis = pool.getResource()) {
-      jedis.select(DOCS_DB);
-      jedis.set(document.path().toString(), document.word());
-    }
+    store.putDocument(document.path().toString(), document.word());
     extractTokens(document)
         .map(this::stem)
         .forEach(this::add);
   }
 
+  /**
+   * Adds a batch of {@code documents} to the index in a single write to the store.
+   *
+   * <p>The tokens are grouped by term so that each term is written once, no matter how many of
+   * the documents contain it.
+   */
+  public void addDocuments(List<Word> documents) {
+    if (documents.isEmpty()) {
+      return;
+    }
+    Map<String, String> texts = new LinkedHashMap<>();
+    for (Word document : documents) {
+      texts.put(document.path().toString(), document.word());
+    }
+    store.addDocuments(texts, countTokens(documents));
+  }
+
+  /**
+   * Adds a batch of {@code documents} to the index, first removing the terms of any earlier
+   * version of each document so that they no longer match it.
+   */
+  public void replaceDocuments(List<Word> documents) {
+    if (documents.isEmpty()) {
+      return;
+    }
+    List<String> paths = new ArrayList<>(documents.size());
+    for (Word document : documents) {
+      paths.add(document.path().toString());
+    }
+    removeDocuments(paths);
+    addDocuments(documents);
+  }
+
+  /**
+   * Removes the documents at {@code paths} and their terms from the index.
+   */
+  public void removeDocuments(List<String> paths) {
+    if (paths.isEmpty()) {
+      return;
+    }
+    Map<String, String> previous = store.getDocuments(paths);
+    List<Word> documents = new ArrayList<>(previous.size());
+    for (Map.Entry<String, String> document : previous.entrySet()) {
+      documents.add(
+          Word.builder().path(Paths.get(document.getKey())).word(document.getValue()).build());
+    }
+    store.removeDocuments(paths, countTokens(documents));
+  }
+
+  /**
+   * Returns the texts stored for the documents at {@code paths}, keyed by path.
+   */
+  public Map<String, String> getDocuments(List<String> paths) {
+    return store.getDocuments(paths);
+  }
+
+  /**
+   * Returns what was last indexed for each file, keyed by path.
+   */
+  public Map<String, ManifestEntry> manifest() {
+    return store.getManifest();
+  }
+
+  /**
+   * Records what was indexed for each file, keyed by path.
+   */
+  public void putManifest(Map<String, ManifestEntry> entries) {
+    store.putManifest(entries);
+  }
+
+  /**
+   * Counts the stemmed tokens of {@code documents}, giving the number of times each term (row)
+   * occurs in each document path (column).
+   */
+  public Table<String, String, Integer> countTokens(List<Word> documents) {
+    Table<String, String, Integer> counts = HashBasedTable.create();
+    for (Word document : documents) {
+      extractTokens(document)
+          .map(this::stem)
+          .forEach(word -> {
+            String term = word.word().toLowerCase();
+            String path = word.path().toString();
+            Integer count = counts.get(term, path);
+            counts.put(term, path, count == null ? 1 : count + 1);
+          });
+    }
+    return counts;
+  }
+
   /**
    * Adds a {@code word} to the index.
    */
   public void add(Word word) {
-    try (Jedis jedis = pool.getResource()) {
-      jedis.select(TOKEN_DB);
-      jedis.sadd(word.word().toLowerCase(), word.path().toString());
-    }
+    store.addPosting(word.word().toLowerCase(), word.path().toString());
   }
 }
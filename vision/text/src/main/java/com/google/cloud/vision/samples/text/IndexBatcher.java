@@ -0,0 +1,162 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import com.google.common.collect.ImmutableList;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Buffers documents and hands them to the index in batches.
+ *
+ * <p>A batch is flushed when it reaches {@code batchSize} documents, or when the oldest buffered
+ * document has waited {@code flushInterval}, whichever comes first.
+ *
+ * <p>If a timed flush fails, its batch is kept to be written by the next flush, and the failure
+ * is rethrown from the next call to {@link #add}, {@link #flush} or {@link #close}.
+ */
+public class IndexBatcher implements AutoCloseable {
+  private final Consumer<List<Word>> sink;
+  private final int batchSize;
+  private final Duration flushInterval;
+  private final ScheduledExecutorService scheduler;
+
+  private List<Word> buffer = new ArrayList<>();
+  private long oldestNanos;
+  private RuntimeException failure;
+
+  /**
+   * Constructs a batcher that writes to {@code index} with {@link Index#addDocuments}.
+   */
+  public IndexBatcher(Index index, int batchSize, Duration flushInterval) {
+    this(index::addDocuments, batchSize, flushInterval);
+  }
+
+  /**
+   * Constructs a batcher that passes each batch of documents to {@code sink}.
+   */
+  public IndexBatcher(Consumer<List<Word>> sink, int batchSize, Duration flushInterval) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batchSize must be positive");
+    }
+    this.sink = sink;
+    this.batchSize = batchSize;
+    this.flushInterval = flushInterval;
+    if (flushInterval.isZero() || flushInterval.isNegative()) {
+      this.scheduler = null;
+    } else {
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "index-batcher");
+        thread.setDaemon(true);
+        return thread;
+      });
+      long millis = flushInterval.toMillis();
+      scheduler.scheduleWithFixedDelay(this::flushIfExpired, millis, millis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Adds a {@code document} to the current batch, flushing it if it is full.
+   */
+  public void add(Word document) {
+    List<Word> batch = null;
+    synchronized (this) {
+      throwIfFailed();
+      if (buffer.isEmpty()) {
+        oldestNanos = System.nanoTime();
+      }
+      buffer.add(document);
+      if (buffer.size() >= batchSize) {
+        batch = takeBuffer();
+      }
+    }
+    write(batch);
+  }
+
+  /**
+   * Writes any buffered documents to the index.
+   */
+  public void flush() {
+    List<Word> batch;
+    synchronized (this) {
+      throwIfFailed();
+      batch = takeBuffer();
+    }
+    write(batch);
+  }
+
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdown();
+    }
+    flush();
+  }
+
+  private void flushIfExpired() {
+    List<Word> batch = null;
+    synchronized (this) {
+      if (!buffer.isEmpty() && System.nanoTime() - oldestNanos >= flushInterval.toNanos()) {
+        batch = takeBuffer();
+      }
+    }
+    try {
+      write(batch);
+    } catch (RuntimeException e) {
+      synchronized (this) {
+        // Put the batch back ahead of anything added since, for the next flush to retry.
+        List<Word> restored = new ArrayList<>(batch);
+        restored.addAll(buffer);
+        buffer = restored;
+        oldestNanos = System.nanoTime();
+        if (failure == null) {
+          failure = e;
+        } else if (failure != e) {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+  }
+
+  private void throwIfFailed() {
+    if (failure != null) {
+      RuntimeException e = failure;
+      failure = null;
+      throw e;
+    }
+  }
+
+  private List<Word> takeBuffer() {
+    if (buffer.isEmpty()) {
+      return null;
+    }
+    List<Word> batch = ImmutableList.copyOf(buffer);
+    buffer = new ArrayList<>();
+    return batch;
+  }
+
+  private void write(List<Word> batch) {
+    if (batch != null) {
+      sink.accept(batch);
+    }
+  }
+}
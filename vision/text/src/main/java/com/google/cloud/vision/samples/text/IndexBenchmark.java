@@ -0,0 +1,153 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import com.google.common.collect.Lists;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import opennlp.tools.stemmer.PorterStemmer;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * Compares per-token and pipelined indexing against a scratch Redis server, and lookups on the
+ * Redis and in-process index stores.
+ *
+ * <p>The benchmark writes synthetic documents into Redis dbs 0 and 1 and their ranking counts
+ * and manifest into db 2, which are the dbs the real index uses, and empties all three before,
+ * between and after its runs. It only runs when given {@code --flush} and an explicit host, so
+ * that it cannot wipe an index by default; never point it at the server holding your index.
+ */
+public class IndexBenchmark {
+  private static final int WORDS_PER_DOCUMENT = 200;
+  private static final int VOCABULARY_SIZE = 5000;
+  private static final int LOOKUPS = 1000;
+  // The token, document and stats dbs used by RedisIndexStore.
+  private static final int[] INDEX_DBS = {0, 1, 2};
+
+  /**
+   * Runs the benchmark.
+   */
+  public static void main(String[] args) {
+    if (args.length < 2 || args.length > 4 || !"--flush".equals(args[0])) {
+      System.err.println("Usage:");
+      System.err.printf(
+          "\tjava %s --flush <redisHost> [documents] [batchSize]\n",
+          IndexBenchmark.class.getCanonicalName());
+      System.err.println(
+          "The benchmark empties Redis dbs 0, 1 and 2 on redisHost, which hold the real index.");
+      System.exit(1);
+    }
+    String host = args[1];
+    int documentCount = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+
+    JedisPool pool = new JedisPool(new JedisPoolConfig(), host);
+    try {
+      Index index = new Index(SimpleTokenizer.INSTANCE, new PorterStemmer(), pool);
+      List<Word> documents = generateDocuments(documentCount);
+      int tokens = 0;
+      for (Word document : documents) {
+        tokens += index.extractTokens(document).count();
+      }
+
+      clear(pool);
+      long start = System.nanoTime();
+      documents.forEach(index::addDocument);
+      long perToken = System.nanoTime() - start;
+      // SELECT + SET per document, then one pipeline of SADD and counts per token.
+      report("per-token", tokens, 2L * documentCount + tokens, perToken);
+
+      clear(pool);
+      start = System.nanoTime();
+      for (List<Word> batch : Lists.partition(documents, batchSize)) {
+        index.addDocuments(batch);
+      }
+      long pipelined = System.nanoTime() - start;
+      // One pipeline sync per batch.
+      report("pipelined", tokens, (documentCount + batchSize - 1) / batchSize, pipelined);
+
+      Index memoryIndex =
+          new Index(SimpleTokenizer.INSTANCE, new PorterStemmer(), new MemoryIndexStore());
+      for (List<Word> batch : Lists.partition(documents, batchSize)) {
+        memoryIndex.addDocuments(batch);
+      }
+      reportLookups("redis", index);
+      reportLookups("memory", memoryIndex);
+    } finally {
+      try {
+        clear(pool);
+      } finally {
+        pool.destroy();
+      }
+    }
+  }
+
+  private static void clear(JedisPool pool) {
+    try (Jedis jedis = pool.getResource()) {
+      for (int db : INDEX_DBS) {
+        jedis.select(db);
+        jedis.flushDB();
+      }
+    }
+  }
+
+  private static List<Word> generateDocuments(int count) {
+    Random random = new Random(42);
+    List<Word> documents = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int j = 0; j < WORDS_PER_DOCUMENT; j++) {
+        text.append("word").append(random.nextInt(VOCABULARY_SIZE)).append(' ');
+      }
+      documents.add(
+          Word.builder()
+              .path(Paths.get("benchmark", "doc" + i + ".jpg"))
+              .word(text.toString())
+              .build());
+    }
+    return documents;
+  }
+
+  private static void reportLookups(String backend, Index index) {
+    Random random = new Random(7);
+    long start = System.nanoTime();
+    long hits = 0;
+    for (int i = 0; i < LOOKUPS; i++) {
+      hits += index.lookup(
+          Arrays.asList(
+              "word" + random.nextInt(VOCABULARY_SIZE / 10),
+              "word" + random.nextInt(VOCABULARY_SIZE / 10))).size();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf(
+        "%-10s %8d lookups %14.3f s %12.0f lookups/s (%d hits)\n",
+        backend, LOOKUPS, seconds, LOOKUPS / seconds, hits);
+  }
+
+  private static void report(String mode, int tokens, long roundTrips, long nanos) {
+    double seconds = nanos / 1e9;
+    System.out.printf(
+        "%-10s %8d round trips %10.3f s %12.0f tokens/s\n",
+        mode, roundTrips, seconds, tokens / seconds);
+  }
+}
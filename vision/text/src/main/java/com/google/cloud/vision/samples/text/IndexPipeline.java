@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import com.google.api.services.vision.v1.model.AnnotateImageRequest;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * A bounded pipeline that reads, annotates and indexes batches of images concurrently.
+ *
+ * <p>Image files are read on a pool of reader threads and sent to the Vision API on a pool of
+ * annotate threads. At most {@code maxInFlightBatches} batches are being read or annotated at
+ * once; when that window is full, the caller indexes the oldest finished batch before another
+ * one is started, so indexing overlaps with the remote calls and results arrive in order.
+ */
+public class IndexPipeline implements AutoCloseable {
+  private final TextApp app;
+  private final int maxInFlightBatches;
+  private final ExecutorService readExecutor;
+  private final ExecutorService annotateExecutor;
+
+  /**
+   * Constructs a pipeline that uses {@code app} to read and annotate images.
+   */
+  public IndexPipeline(TextApp app, int readThreads, int maxInFlightBatches) {
+    if (readThreads < 1 || maxInFlightBatches < 1) {
+      throw new IllegalArgumentException("readThreads and maxInFlightBatches must be positive");
+    }
+    this.app = app;
+    this.maxInFlightBatches = maxInFlightBatches;
+    this.readExecutor = Executors.newFixedThreadPool(readThreads);
+    this.annotateExecutor = Executors.newFixedThreadPool(maxInFlightBatches);
+  }
+
+  /**
+   * Reads and annotates each of the {@code batches}, passing every image to {@code sink} on the
+   * calling thread.
+   */
+  public Stats run(List<List<Path>> batches, Consumer<ImageText> sink) {
+    Stats stats = new Stats();
+    Deque<CompletableFuture<ImmutableList<ImageText>>> inFlight = new ArrayDeque<>();
+    for (List<Path> batch : batches) {
+      if (inFlight.size() >= maxInFlightBatches) {
+        drain(inFlight.poll(), sink, stats);
+      }
+      inFlight.add(submit(batch));
+      stats.recordQueueDepth(inFlight.size());
+    }
+    while (!inFlight.isEmpty()) {
+      drain(inFlight.poll(), sink, stats);
+    }
+    stats.finish();
+    return stats;
+  }
+
+  private CompletableFuture<ImmutableList<ImageText>> submit(List<Path> batch) {
+    return CompletableFuture
+        .supplyAsync(() -> read(batch), readExecutor)
+        .handleAsync(
+            (requests, ex) -> {
+              if (ex != null) {
+                Throwable cause = ex instanceof CompletionException ? ex.getCause() : ex;
+                return TextApp.failedBatch(batch, cause);
+              }
+              try {
+                return app.annotate(batch, requests);
+              } catch (IOException annotateEx) {
+                return TextApp.failedBatch(batch, annotateEx);
+              }
+            },
+            annotateExecutor);
+  }
+
+  private ImmutableList<AnnotateImageRequest> read(List<Path> batch) {
+    try {
+      return app.readImages(batch);
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private static void drain(
+      CompletableFuture<ImmutableList<ImageText>> batch, Consumer<ImageText> sink, Stats stats) {
+    ImmutableList<ImageText> images = batch.join();
+    images.forEach(sink);
+    stats.recordBatch(images.size());
+  }
+
+  @Override
+  public void close() {
+    readExecutor.shutdown();
+    annotateExecutor.shutdown();
+  }
+
+  /**
+   * Throughput and queue depth for one run of the pipeline.
+   */
+  public static class Stats {
+    private final long startNanos = System.nanoTime();
+    private long elapsedNanos;
+    private int batches;
+    private int images;
+    private int maxQueueDepth;
+    private long totalQueueDepth;
+    private int queueSamples;
+
+    Stats() {}
+
+    void recordQueueDepth(int depth) {
+      maxQueueDepth = Math.max(maxQueueDepth, depth);
+      totalQueueDepth += depth;
+      queueSamples++;
+    }
+
+    void recordBatch(int size) {
+      batches++;
+      images += size;
+    }
+
+    void finish() {
+      elapsedNanos = System.nanoTime() - startNanos;
+    }
+
+    public int batches() {
+      return batches;
+    }
+
+    public int images() {
+      return images;
+    }
+
+    public int maxQueueDepth() {
+      return maxQueueDepth;
+    }
+
+    public double averageQueueDepth() {
+      return queueSamples == 0 ? 0 : (double) totalQueueDepth / queueSamples;
+    }
+
+    public double imagesPerSecond() {
+      return elapsedNanos == 0 ? 0 : images / (elapsedNanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "Annotated %d images in %d batches (%.1f images/s), queue depth avg %.1f max %d.",
+          images, batches, imagesPerSecond(), averageQueueDepth(), maxQueueDepth);
+    }
+  }
+}
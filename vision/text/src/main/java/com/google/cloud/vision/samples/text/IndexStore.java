@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import com.google.common.collect.Table;
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Storage for the document texts and term postings of an {@link Index}.
+ */
+public interface IndexStore extends Closeable {
+  /**
+   * Returns the text stored for the document at {@code path}, or {@code null} if it has not been
+   * indexed.
+   */
+  @Nullable
+  String getDocument(String path);
+
+  /**
+   * Returns the texts stored for the documents at {@code paths}, keyed by path, reading them all
+   * at once. Documents that have not been indexed are left out.
+   */
+  Map<String, String> getDocuments(List<String> paths);
+
+  /**
+   * Stores the {@code text} of the document at {@code path}.
+   */
+  void putDocument(String path, String text);
+
+  /**
+   * Records one occurrence of {@code term} in the document at {@code path}.
+   */
+  void addPosting(String term, String path);
+
+  /**
+   * Stores a batch of {@code documents}, keyed by path, together with their {@code termCounts},
+   * the number of times each term (row) occurs in each document path (column).
+   */
+  void addDocuments(Map<String, String> documents, Table<String, String, Integer> termCounts);
+
+  /**
+   * Removes the documents at {@code paths}, together with their manifest entries and their
+   * {@code termCounts}, the number of times each term (row) occurred in each path (column).
+   */
+  void removeDocuments(Collection<String> paths, Table<String, String, Integer> termCounts);
+
+  /**
+   * Returns every manifest entry, keyed by path.
+   */
+  Map<String, ManifestEntry> getManifest();
+
+  /**
+   * Stores the manifest {@code entries}, keyed by path.
+   */
+  void putManifest(Map<String, ManifestEntry> entries);
+
+  /**
+   * Returns the paths of the documents that contain every one of {@code terms}.
+   */
+  Set<String> intersect(List<String> terms);
+
+  /**
+   * Returns the counts needed to rank the {@code candidates} for {@code terms}.
+   */
+  TermStatistics statistics(List<String> terms, Set<String> candidates);
+}
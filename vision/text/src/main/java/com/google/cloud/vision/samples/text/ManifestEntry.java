@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * What was indexed for a file: its size, modification time and a hash of its content.
+ */
+public class ManifestEntry {
+  private final long size;
+  private final long modifiedMillis;
+  private final String contentHash;
+
+  public ManifestEntry(long size, long modifiedMillis, String contentHash) {
+    this.size = size;
+    this.modifiedMillis = modifiedMillis;
+    this.contentHash = contentHash;
+  }
+
+  /**
+   * Reads the size and modification time of the file at {@code path} and hashes its content.
+   */
+  public static ManifestEntry of(Path path) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    return new ManifestEntry(
+        attributes.size(), attributes.lastModifiedTime().toMillis(), hash(path));
+  }
+
+  /**
+   * Returns a SHA-256 hash of the content of the file at {@code path}.
+   */
+  public static String hash(Path path) throws IOException {
+    return Hashing.sha256().hashBytes(Files.readAllBytes(path)).toString();
+  }
+
+  /**
+   * Parses an entry written by {@link #encode}.
+   */
+  public static ManifestEntry parse(String encoded) {
+    String[] parts = encoded.split(":", 3);
+    if (parts.length != 3) {
+      throw new IllegalArgumentException("Invalid manifest entry: " + encoded);
+    }
+    return new ManifestEntry(Long.parseLong(parts[0]), Long.parseLong(parts[1]), parts[2]);
+  }
+
+  public long size() {
+    return size;
+  }
+
+  public long modifiedMillis() {
+    return modifiedMillis;
+  }
+
+  public String contentHash() {
+    return contentHash;
+  }
+
+  /**
+   * Checks whether the file at {@code path} still has the size and modification time recorded in
+   * this entry, in which case its content is assumed unchanged without hashing it.
+   */
+  public boolean matchesAttributes(Path path) throws IOException {
+    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    return attributes.size() == size && attributes.lastModifiedTime().toMillis() == modifiedMillis;
+  }
+
+  /**
+   * Encodes the entry as a string.
+   */
+  public String encode() {
+    return size + ":" + modifiedMillis + ":" + contentHash;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof ManifestEntry)) {
+      return false;
+    }
+    ManifestEntry otherEntry = (ManifestEntry) other;
+    return size == otherEntry.size
+        && modifiedMillis == otherEntry.modifiedMillis
+        && contentHash.equals(otherEntry.contentHash);
+  }
+
+  @Override
+  public int hashCode() {
+    return contentHash.hashCode() ^ Long.hashCode(size) ^ Long.hashCode(modifiedMillis);
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * An in-process {@link IndexStore}.
+ *
+ * <p>Documents are numbered with integer IDs and each term maps to a compressed
+ * {@link PostingList} of those IDs. When the store is backed by a file, it is loaded through a
+ * memory map when opened and written back when closed.
+ */
+public class MemoryIndexStore implements IndexStore {
+  private static final int MAGIC = 0x56545833;
+
+  @Nullable private final Path file;
+  private final Map<String, Integer> docIds = new HashMap<>();
+  private final List<String> paths = new ArrayList<>();
+  private final List<String> texts = new ArrayList<>();
+  private final List<Integer> lengths = new ArrayList<>();
+  private long totalTokens;
+  private final Map<String, PostingList> postings = new HashMap<>();
+  private final Map<String, ManifestEntry> manifest = new HashMap<>();
+  private int liveDocuments;
+
+  /**
+   * Constructs an empty store that is not saved anywhere.
+   */
+  public MemoryIndexStore() {
+    this.file = null;
+  }
+
+  private MemoryIndexStore(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * Opens the store saved at {@code file}, or an empty one if the file does not exist yet. The
+   * store is saved back to {@code file} when it is closed.
+   */
+  public static MemoryIndexStore open(Path file) throws IOException {
+    MemoryIndexStore store = new MemoryIndexStore(file);
+    if (Files.exists(file)) {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        store.read(buffer);
+      }
+    }
+    return store;
+  }
+
+  @Override
+  public synchronized String getDocument(String path) {
+    Integer id = docIds.get(path);
+    return id == null ? null : texts.get(id);
+  }
+
+  @Override
+  public synchronized Map<String, String> getDocuments(List<String> paths) {
+    Map<String, String> documents = new LinkedHashMap<>();
+    for (String path : paths) {
+      String text = getDocument(path);
+      if (text != null) {
+        documents.put(path, text);
+      }
+    }
+    return documents;
+  }
+
+  @Override
+  public synchronized void putDocument(String path, String text) {
+    if (texts.set(docId(path), text) == null) {
+      liveDocuments++;
+    }
+  }
+
+  @Override
+  public synchronized void addPosting(String term, String path) {
+    int id = docId(path);
+    postings.computeIfAbsent(term, t -> new PostingList()).add(id);
+    lengths.set(id, lengths.get(id) + 1);
+    totalTokens++;
+  }
+
+  @Override
+  public synchronized void addDocuments(
+      Map<String, String> documents, Table<String, String, Integer> termCounts) {
+    for (Map.Entry<String, String> document : documents.entrySet()) {
+      putDocument(document.getKey(), document.getValue());
+    }
+    for (Map.Entry<String, Map<String, Integer>> row : termCounts.rowMap().entrySet()) {
+      long[] idCounts = new long[row.getValue().size()];
+      int i = 0;
+      for (Map.Entry<String, Integer> count : row.getValue().entrySet()) {
+        int id = docId(count.getKey());
+        idCounts[i++] = ((long) id << 32) | count.getValue();
+        lengths.set(id, lengths.get(id) + count.getValue());
+        totalTokens += count.getValue();
+      }
+      // Sorting by ID lets the posting list append rather than re-encode.
+      Arrays.sort(idCounts);
+      PostingList list = postings.computeIfAbsent(row.getKey(), t -> new PostingList());
+      for (long idCount : idCounts) {
+        list.add((int) (idCount >>> 32), (int) idCount);
+      }
+    }
+  }
+
+  /**
+   * Removes the documents, keeping their IDs so that existing posting lists stay valid.
+   */
+  @Override
+  public synchronized void removeDocuments(
+      Collection<String> paths, Table<String, String, Integer> termCounts) {
+    for (String path : paths) {
+      Integer id = docIds.get(path);
+      if (id == null) {
+        continue;
+      }
+      if (texts.set(id, null) != null) {
+        liveDocuments--;
+      }
+      totalTokens -= lengths.set(id, 0);
+      manifest.remove(path);
+    }
+    for (Map.Entry<String, Map<String, Integer>> row : termCounts.rowMap().entrySet()) {
+      PostingList list = postings.get(row.getKey());
+      if (list == null) {
+        continue;
+      }
+      for (String path : row.getValue().keySet()) {
+        Integer id = docIds.get(path);
+        if (id != null) {
+          list.remove(id);
+        }
+      }
+      if (list.size() == 0) {
+        postings.remove(row.getKey());
+      }
+    }
+  }
+
+  @Override
+  public synchronized Map<String, ManifestEntry> getManifest() {
+    return new HashMap<>(manifest);
+  }
+
+  @Override
+  public synchronized void putManifest(Map<String, ManifestEntry> entries) {
+    manifest.putAll(entries);
+  }
+
+  @Override
+  public synchronized Set<String> intersect(List<String> terms) {
+    if (terms.isEmpty()) {
+      return ImmutableSet.<String>of();
+    }
+    List<PostingList> lists = new ArrayList<>(terms.size());
+    for (String term : terms) {
+      PostingList list = postings.get(term);
+      if (list == null) {
+        return ImmutableSet.<String>of();
+      }
+      lists.add(list);
+    }
+    ImmutableSet.Builder<String> output = ImmutableSet.builder();
+    for (int id : PostingList.intersect(lists)) {
+      output.add(paths.get(id));
+    }
+    return output.build();
+  }
+
+  @Override
+  public synchronized TermStatistics statistics(List<String> terms, Set<String> candidates) {
+    int[] ids = new int[candidates.size()];
+    int i = 0;
+    for (String path : candidates) {
+      Integer id = docIds.get(path);
+      if (id != null) {
+        ids[i++] = id;
+      }
+    }
+    ids = Arrays.copyOf(ids, i);
+    Arrays.sort(ids);
+
+    TermStatistics.Builder stats =
+        TermStatistics.builder().documentCount(liveDocuments).totalTokens(totalTokens);
+    for (int id : ids) {
+      stats.documentLength(paths.get(id), lengths.get(id));
+    }
+    for (String term : terms) {
+      PostingList list = postings.get(term);
+      if (list == null) {
+        continue;
+      }
+      stats.documentFrequency(term, list.size());
+      PostingList.Cursor cursor = list.cursor();
+      for (int id : ids) {
+        if (!cursor.advance(id)) {
+          break;
+        }
+        if (cursor.doc() == id) {
+          stats.termFrequency(term, paths.get(id), cursor.frequency());
+        }
+      }
+    }
+    return stats.build();
+  }
+
+  private int docId(String path) {
+    Integer id = docIds.get(path);
+    if (id == null) {
+      id = paths.size();
+      docIds.put(path, id);
+      paths.add(path);
+      texts.add(null);
+      lengths.add(0);
+    }
+    return id;
+  }
+
+  /**
+   * Saves the store to {@code target}, replacing it atomically.
+   */
+  public synchronized void save(Path target) throws IOException {
+    Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(paths.size());
+      out.writeLong(totalTokens);
+      for (int i = 0; i < paths.size(); i++) {
+        writeString(out, paths.get(i));
+        writeString(out, texts.get(i));
+        out.writeInt(lengths.get(i));
+      }
+      out.writeInt(postings.size());
+      for (Map.Entry<String, PostingList> posting : postings.entrySet()) {
+        writeString(out, posting.getKey());
+        posting.getValue().write(out);
+      }
+      out.writeInt(manifest.size());
+      for (Map.Entry<String, ManifestEntry> entry : manifest.entrySet()) {
+        writeString(out, entry.getKey());
+        writeString(out, entry.getValue().encode());
+      }
+    }
+    Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private void read(ByteBuffer in) throws IOException {
+    if (in.getInt() != MAGIC) {
+      throw new IOException("Not an index file: " + file);
+    }
+    int documents = in.getInt();
+    totalTokens = in.getLong();
+    for (int i = 0; i < documents; i++) {
+      String path = readString(in);
+      docIds.put(path, i);
+      paths.add(path);
+      String text = readString(in);
+      texts.add(text);
+      lengths.add(in.getInt());
+      if (text != null) {
+        liveDocuments++;
+      }
+    }
+    int terms = in.getInt();
+    for (int i = 0; i < terms; i++) {
+      String term = readString(in);
+      postings.put(term, PostingList.read(in));
+    }
+    int entries = in.getInt();
+    for (int i = 0; i < entries; i++) {
+      String path = readString(in);
+      manifest.put(path, ManifestEntry.parse(readString(in)));
+    }
+  }
+
+  private static void writeString(DataOutputStream out, @Nullable String value)
+      throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  @Nullable
+  private static String readString(ByteBuffer in) {
+    int length = in.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (file != null) {
+      save(file);
+    }
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A sorted list of integer document IDs, compressed as variable-length deltas, with the number of
+ * times the term occurs in each document.
+ *
+ * <p>Every {@value #SKIP_INTERVAL} entries a skip pointer records the document ID and its byte
+ * offset, so a {@link Cursor} can jump over long runs of IDs when it is advanced to a target.
+ */
+public class PostingList {
+  static final int SKIP_INTERVAL = 64;
+
+  private byte[] data = new byte[16];
+  private int[] frequencies = new int[4];
+  private int length;
+  private int size;
+  private int last;
+  private int[] skipDocs = new int[0];
+  private int[] skipOffsets = new int[0];
+
+  /**
+   * Returns the number of document IDs in the list.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Adds one occurrence of the term in {@code docId} to the list.
+   */
+  public void add(int docId) {
+    add(docId, 1);
+  }
+
+  /**
+   * Adds {@code count} occurrences of the term in {@code docId} to the list. Appending IDs in
+   * increasing order is cheap; adding a smaller ID re-encodes the list.
+   */
+  public void add(int docId, int count) {
+    if (size > 0 && docId <= last) {
+      if (docId == last) {
+        frequencies[size - 1] += count;
+        return;
+      }
+      int[] docs = toArray();
+      int position = Arrays.binarySearch(docs, docId);
+      if (position >= 0) {
+        frequencies[position] += count;
+        return;
+      }
+      position = -position - 1;
+      int[] mergedDocs = new int[docs.length + 1];
+      int[] mergedFrequencies = new int[docs.length + 1];
+      System.arraycopy(docs, 0, mergedDocs, 0, position);
+      System.arraycopy(frequencies, 0, mergedFrequencies, 0, position);
+      mergedDocs[position] = docId;
+      mergedFrequencies[position] = count;
+      System.arraycopy(docs, position, mergedDocs, position + 1, docs.length - position);
+      System.arraycopy(
+          frequencies, position, mergedFrequencies, position + 1, docs.length - position);
+      reset(mergedDocs, mergedFrequencies);
+      return;
+    }
+    append(docId, count);
+  }
+
+  /**
+   * Removes {@code docId} from the list, re-encoding it. Returns the number of occurrences the
+   * term had in the document, or 0 if it was not in the list.
+   */
+  public int remove(int docId) {
+    if (size == 0 || docId > last) {
+      return 0;
+    }
+    int[] docs = toArray();
+    int position = Arrays.binarySearch(docs, docId);
+    if (position < 0) {
+      return 0;
+    }
+    int count = frequencies[position];
+    int[] remainingDocs = new int[docs.length - 1];
+    int[] remainingFrequencies = new int[docs.length - 1];
+    System.arraycopy(docs, 0, remainingDocs, 0, position);
+    System.arraycopy(frequencies, 0, remainingFrequencies, 0, position);
+    System.arraycopy(docs, position + 1, remainingDocs, position, docs.length - position - 1);
+    System.arraycopy(
+        frequencies, position + 1, remainingFrequencies, position, docs.length - position - 1);
+    reset(remainingDocs, remainingFrequencies);
+    return count;
+  }
+
+  /**
+   * Decodes the list into an array of document IDs.
+   */
+  public int[] toArray() {
+    int[] docs = new int[size];
+    Cursor cursor = cursor();
+    for (int i = 0; cursor.next(); i++) {
+      docs[i] = cursor.doc();
+    }
+    return docs;
+  }
+
+  /**
+   * Returns a cursor positioned before the first document ID.
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  private void append(int docId, int count) {
+    writeVarint(size == 0 ? docId : docId - last);
+    if (size == frequencies.length) {
+      frequencies = Arrays.copyOf(frequencies, size * 2);
+    }
+    frequencies[size] = count;
+    last = docId;
+    size++;
+    if (size % SKIP_INTERVAL == 0) {
+      int skips = size / SKIP_INTERVAL;
+      skipDocs = Arrays.copyOf(skipDocs, skips);
+      skipOffsets = Arrays.copyOf(skipOffsets, skips);
+      skipDocs[skips - 1] = docId;
+      skipOffsets[skips - 1] = length;
+    }
+  }
+
+  private void reset(int[] docs, int[] counts) {
+    data = new byte[Math.max(16, docs.length * 2)];
+    frequencies = new int[Math.max(4, docs.length)];
+    length = 0;
+    size = 0;
+    last = 0;
+    skipDocs = new int[0];
+    skipOffsets = new int[0];
+    for (int i = 0; i < docs.length; i++) {
+      append(docs[i], counts[i]);
+    }
+  }
+
+  private void writeVarint(int value) {
+    if (length + 5 > data.length) {
+      data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+    }
+    while ((value & ~0x7F) != 0) {
+      data[length++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    data[length++] = (byte) value;
+  }
+
+  /**
+   * Writes the list to {@code out}, in the format read by {@link #read}.
+   */
+  public void write(DataOutputStream out) throws IOException {
+    out.writeInt(size);
+    out.writeInt(last);
+    out.writeInt(length);
+    out.write(data, 0, length);
+    for (int i = 0; i < size; i++) {
+      out.writeInt(frequencies[i]);
+    }
+    out.writeInt(skipDocs.length);
+    for (int i = 0; i < skipDocs.length; i++) {
+      out.writeInt(skipDocs[i]);
+      out.writeInt(skipOffsets[i]);
+    }
+  }
+
+  /**
+   * Reads a list written by {@link #write} from {@code in}.
+   */
+  public static PostingList read(ByteBuffer in) {
+    PostingList list = new PostingList();
+    list.size = in.getInt();
+    list.last = in.getInt();
+    list.length = in.getInt();
+    list.data = new byte[Math.max(16, list.length)];
+    in.get(list.data, 0, list.length);
+    list.frequencies = new int[Math.max(4, list.size)];
+    for (int i = 0; i < list.size; i++) {
+      list.frequencies[i] = in.getInt();
+    }
+    int skips = in.getInt();
+    list.skipDocs = new int[skips];
+    list.skipOffsets = new int[skips];
+    for (int i = 0; i < skips; i++) {
+      list.skipDocs[i] = in.getInt();
+      list.skipOffsets[i] = in.getInt();
+    }
+    return list;
+  }
+
+  /**
+   * Returns the document IDs present in every one of {@code lists}, in increasing order.
+   *
+   * <p>The shortest list drives the intersection, and the others are advanced to each of its
+   * candidates with their skip pointers.
+   */
+  public static int[] intersect(List<PostingList> lists) {
+    if (lists.isEmpty()) {
+      return new int[0];
+    }
+    PostingList[] sorted = lists.toArray(new PostingList[0]);
+    Arrays.sort(sorted, Comparator.comparingInt(PostingList::size));
+    if (sorted[0].size() == 0) {
+      return new int[0];
+    }
+    Cursor[] cursors = new Cursor[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      cursors[i] = sorted[i].cursor();
+    }
+
+    int[] output = new int[sorted[0].size()];
+    int count = 0;
+    Cursor lead = cursors[0];
+    if (!lead.next()) {
+      return new int[0];
+    }
+    int doc = lead.doc();
+    search:
+    while (true) {
+      for (int i = 1; i < cursors.length; i++) {
+        if (!cursors[i].advance(doc)) {
+          break search;
+        }
+        if (cursors[i].doc() > doc) {
+          if (!lead.advance(cursors[i].doc())) {
+            break search;
+          }
+          doc = lead.doc();
+          continue search;
+        }
+      }
+      output[count++] = doc;
+      if (!lead.next()) {
+        break;
+      }
+      doc = lead.doc();
+    }
+    return Arrays.copyOf(output, count);
+  }
+
+  /**
+   * An iterator over the document IDs in a {@link PostingList}.
+   */
+  public class Cursor {
+    private int offset;
+    private int index;
+    private int doc;
+
+    Cursor() {}
+
+    /**
+     * Moves to the next document ID, returning {@code false} if there are no more.
+     */
+    public boolean next() {
+      if (index >= size) {
+        return false;
+      }
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[offset++];
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      doc = index == 0 ? value : doc + value;
+      index++;
+      return true;
+    }
+
+    /**
+     * Moves to the first document ID at or after {@code target}, returning {@code false} if there
+     * is none.
+     */
+    public boolean advance(int target) {
+      if (index > 0 && doc >= target) {
+        return true;
+      }
+      for (int skip = index / SKIP_INTERVAL;
+          skip < skipDocs.length && skipDocs[skip] < target;
+          skip++) {
+        doc = skipDocs[skip];
+        offset = skipOffsets[skip];
+        index = (skip + 1) * SKIP_INTERVAL;
+      }
+      while (next()) {
+        if (doc >= target) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Returns the current document ID.
+     */
+    public int doc() {
+      return doc;
+    }
+
+    /**
+     * Returns the number of times the term occurs in the current document.
+     */
+    public int frequency() {
+      return frequencies[index - 1];
+    }
+  }
+}
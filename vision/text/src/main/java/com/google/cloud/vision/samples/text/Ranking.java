@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import java.util.List;
+
+/**
+ * Functions for scoring how well a document matches a set of query terms.
+ */
+public enum Ranking {
+  /**
+   * The total number of times the query terms occur in the document.
+   */
+  TERM_FREQUENCY {
+    @Override
+    public double score(List<String> terms, String path, TermStatistics stats) {
+      double score = 0;
+      for (String term : terms) {
+        score += stats.termFrequency(term, path);
+      }
+      return score;
+    }
+  },
+
+  /**
+   * Okapi BM25, which weighs rare terms higher and normalizes for document length.
+   */
+  BM25 {
+    @Override
+    public double score(List<String> terms, String path, TermStatistics stats) {
+      double lengthNorm =
+          K1 * (1 - B + B * stats.documentLength(path) / stats.averageDocumentLength());
+      double score = 0;
+      for (String term : terms) {
+        double documentFrequency = stats.documentFrequency(term);
+        double idf =
+            Math.log(
+                1 + (stats.documentCount() - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        int termFrequency = stats.termFrequency(term, path);
+        score += idf * termFrequency * (K1 + 1) / (termFrequency + lengthNorm);
+      }
+      return score;
+    }
+  };
+
+  private static final double K1 = 1.2;
+  private static final double B = 0.75;
+
+  /**
+   * Scores the document at {@code path} for {@code terms}. Higher scores rank first.
+   */
+  public abstract double score(List<String> terms, String path, TermStatistics stats);
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Table;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * An {@link IndexStore} using Redis.
+ *
+ * <p>Each term is a Redis set of document paths in db 0, and each document's text is a string
+ * keyed by its path in db 1. The counts used for ranking are kept in db 2: a hash of term
+ * frequencies per document for each term, a hash of document lengths, a total token count and a
+ * hash of manifest entries.
+ */
+public class RedisIndexStore implements IndexStore {
+  private static final int TOKEN_DB = 0;
+  private static final int DOCS_DB = 1;
+  private static final int STATS_DB = 2;
+  private static final String TERM_FREQUENCIES_PREFIX = "tf:";
+  private static final String DOCUMENT_LENGTHS = "doclen";
+  private static final String TOTAL_TOKENS = "tokens";
+  private static final String MANIFEST = "manifest";
+
+  private final JedisPool pool;
+
+  /**
+   * Constructs a store using connections from {@code pool}. The caller owns the pool.
+   */
+  public RedisIndexStore(JedisPool pool) {
+    this.pool = pool;
+  }
+
+  @Override
+  public String getDocument(String path) {
+    try (Jedis jedis = pool.getResource()) {
+      jedis.select(DOCS_DB);
+      return jedis.get(path);
+    }
+  }
+
+  /**
+   * Reads the texts with a single {@code MGET}.
+   */
+  @Override
+  public Map<String, String> getDocuments(List<String> paths) {
+    Map<String, String> documents = new LinkedHashMap<>();
+    if (paths.isEmpty()) {
+      return documents;
+    }
+    List<String> texts;
+    try (Jedis jedis = pool.getResource()) {
+      jedis.select(DOCS_DB);
+      texts = jedis.mget(paths.toArray(new String[0]));
+    }
+    for (int i = 0; i < paths.size(); i++) {
+      if (texts.get(i) != null) {
+        documents.put(paths.get(i), texts.get(i));
+      }
+    }
+    return documents;
+  }
+
+  @Override
+  public void putDocument(String path, String text) {
+    try (Jedis jedis = pool.getResource()) {
+      jedis.select(DOCS_DB);
+      jedis.set(path, text);
+    }
+  }
+
+  @Override
+  public void addPosting(String term, String path) {
+    try (Jedis jedis = pool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+      pipeline.select(TOKEN_DB);
+      pipeline.sadd(term, path);
+      pipeline.select(STATS_DB);
+      pipeline.hincrBy(TERM_FREQUENCIES_PREFIX + term, path, 1);
+      pipeline.hincrBy(DOCUMENT_LENGTHS, path, 1);
+      pipeline.incr(TOTAL_TOKENS);
+      pipeline.sync();
+    }
+  }
+
+  /**
+   * Writes the document texts with one {@code MSET}, then one {@code SADD} and one {@code HMSET}
+   * of frequencies per term, all sent together on a single pipeline.
+   */
+  @Override
+  public void addDocuments(
+      Map<String, String> documents, Table<String, String, Integer> termCounts) {
+    List<String> keysValues = new ArrayList<>(documents.size() * 2);
+    for (Map.Entry<String, String> document : documents.entrySet()) {
+      keysValues.add(document.getKey());
+      keysValues.add(document.getValue());
+    }
+    Map<String, String> lengths = new HashMap<>();
+    long tokens = 0;
+    for (Map.Entry<String, Map<String, Integer>> column : termCounts.columnMap().entrySet()) {
+      int length = 0;
+      for (int count : column.getValue().values()) {
+        length += count;
+      }
+      lengths.put(column.getKey(), Integer.toString(length));
+      tokens += length;
+    }
+    try (Jedis jedis = pool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+      if (!keysValues.isEmpty()) {
+        pipeline.select(DOCS_DB);
+        pipeline.mset(keysValues.toArray(new String[0]));
+      }
+      pipeline.select(TOKEN_DB);
+      for (Map.Entry<String, Map<String, Integer>> row : termCounts.rowMap().entrySet()) {
+        pipeline.sadd(row.getKey(), row.getValue().keySet().toArray(new String[0]));
+      }
+      if (!lengths.isEmpty()) {
+        pipeline.select(STATS_DB);
+        for (Map.Entry<String, Map<String, Integer>> row : termCounts.rowMap().entrySet()) {
+          Map<String, String> frequencies = new HashMap<>();
+          for (Map.Entry<String, Integer> count : row.getValue().entrySet()) {
+            frequencies.put(count.getKey(), count.getValue().toString());
+          }
+          pipeline.hmset(TERM_FREQUENCIES_PREFIX + row.getKey(), frequencies);
+        }
+        pipeline.hmset(DOCUMENT_LENGTHS, lengths);
+        pipeline.incrBy(TOTAL_TOKENS, tokens);
+      }
+      pipeline.sync();
+    }
+  }
+
+  /**
+   * Removes the documents and their counts in a single pipeline.
+   */
+  @Override
+  public void removeDocuments(
+      Collection<String> paths, Table<String, String, Integer> termCounts) {
+    if (paths.isEmpty()) {
+      return;
+    }
+    String[] keys = paths.toArray(new String[0]);
+    long tokens = 0;
+    for (int count : termCounts.values()) {
+      tokens += count;
+    }
+    try (Jedis jedis = pool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+      pipeline.select(DOCS_DB);
+      pipeline.del(keys);
+      pipeline.select(TOKEN_DB);
+      for (Map.Entry<String, Map<String, Integer>> row : termCounts.rowMap().entrySet()) {
+        pipeline.srem(row.getKey(), row.getValue().keySet().toArray(new String[0]));
+      }
+      pipeline.select(STATS_DB);
+      for (Map.Entry<String, Map<String, Integer>> row : termCounts.rowMap().entrySet()) {
+        pipeline.hdel(
+            TERM_FREQUENCIES_PREFIX + row.getKey(),
+            row.getValue().keySet().toArray(new String[0]));
+      }
+      pipeline.hdel(DOCUMENT_LENGTHS, keys);
+      pipeline.decrBy(TOTAL_TOKENS, tokens);
+      pipeline.hdel(MANIFEST, keys);
+      pipeline.sync();
+    }
+  }
+
+  @Override
+  public Map<String, ManifestEntry> getManifest() {
+    Map<String, String> encoded;
+    try (Jedis jedis = pool.getResource()) {
+      jedis.select(STATS_DB);
+      encoded = jedis.hgetAll(MANIFEST);
+    }
+    Map<String, ManifestEntry> manifest = new HashMap<>();
+    for (Map.Entry<String, String> entry : encoded.entrySet()) {
+      manifest.put(entry.getKey(), ManifestEntry.parse(entry.getValue()));
+    }
+    return manifest;
+  }
+
+  @Override
+  public void putManifest(Map<String, ManifestEntry> entries) {
+    if (entries.isEmpty()) {
+      return;
+    }
+    Map<String, String> encoded = new HashMap<>();
+    for (Map.Entry<String, ManifestEntry> entry : entries.entrySet()) {
+      encoded.put(entry.getKey(), entry.getValue().encode());
+    }
+    try (Jedis jedis = pool.getResource()) {
+      jedis.select(STATS_DB);
+      jedis.hmset(MANIFEST, encoded);
+    }
+  }
+
+  /**
+   * Intersects the term sets on the server with {@code SINTER}, so only the matching paths are
+   * sent back.
+   */
+  @Override
+  public Set<String> intersect(List<String> terms) {
+    if (terms.isEmpty()) {
+      return ImmutableSet.<String>of();
+    }
+    try (Jedis jedis = pool.getResource()) {
+      jedis.select(TOKEN_DB);
+      return jedis.sinter(terms.toArray(new String[0]));
+    }
+  }
+
+  /**
+   * Reads every count in a single pipeline: the document frequencies with {@code SCARD}, and the
+   * term frequencies and lengths of the candidates with {@code HMGET}.
+   */
+  @Override
+  public TermStatistics statistics(List<String> terms, Set<String> candidates) {
+    String[] paths = candidates.toArray(new String[0]);
+    Map<String, Response<Long>> documentFrequencies = new HashMap<>();
+    Map<String, Response<List<String>>> termFrequencies = new HashMap<>();
+    Response<Long> documentCount;
+    Response<String> totalTokens;
+    Response<List<String>> lengths = null;
+    try (Jedis jedis = pool.getResource()) {
+      Pipeline pipeline = jedis.pipelined();
+      pipeline.select(TOKEN_DB);
+      for (String term : terms) {
+        documentFrequencies.put(term, pipeline.scard(term));
+      }
+      pipeline.select(DOCS_DB);
+      documentCount = pipeline.dbSize();
+      pipeline.select(STATS_DB);
+      totalTokens = pipeline.get(TOTAL_TOKENS);
+      if (paths.length > 0) {
+        for (String term : terms) {
+          termFrequencies.put(term, pipeline.hmget(TERM_FREQUENCIES_PREFIX + term, paths));
+        }
+        lengths = pipeline.hmget(DOCUMENT_LENGTHS, paths);
+      }
+      pipeline.sync();
+    }
+
+    TermStatistics.Builder stats =
+        TermStatistics.builder()
+            .documentCount(documentCount.get())
+            .totalTokens(totalTokens.get() == null ? 0 : Long.parseLong(totalTokens.get()));
+    for (Map.Entry<String, Response<Long>> frequency : documentFrequencies.entrySet()) {
+      stats.documentFrequency(frequency.getKey(), frequency.getValue().get());
+    }
+    for (Map.Entry<String, Response<List<String>>> frequencies : termFrequencies.entrySet()) {
+      List<String> values = frequencies.getValue().get();
+      for (int i = 0; i < paths.length; i++) {
+        if (values.get(i) != null) {
+          stats.termFrequency(frequencies.getKey(), paths[i], Integer.parseInt(values.get(i)));
+        }
+      }
+    }
+    if (lengths != null) {
+      List<String> values = lengths.get();
+      for (int i = 0; i < paths.length; i++) {
+        if (values.get(i) != null) {
+          stats.documentLength(paths[i], Integer.parseInt(values.get(i)));
+        }
+      }
+    }
+    return stats.build();
+  }
+
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * One page of ranked results for a query.
+ *
+ * <p>The document texts are not read until {@link #texts} is first called, and then all of the
+ * page's texts are read from the store together.
+ */
+public class SearchPage {
+  private final IndexStore store;
+  private final ImmutableList<SearchResult> results;
+  @Nullable private final String nextPageToken;
+  private ImmutableMap<String, String> texts;
+
+  SearchPage(IndexStore store, List<SearchResult> results, @Nullable String nextPageToken) {
+    this.store = store;
+    this.results = ImmutableList.copyOf(results);
+    this.nextPageToken = nextPageToken;
+  }
+
+  public ImmutableList<SearchResult> results() {
+    return results;
+  }
+
+  /**
+   * Returns the token for the following page, or {@code null} if this is the last page.
+   */
+  @Nullable
+  public String nextPageToken() {
+    return nextPageToken;
+  }
+
+  /**
+   * Returns the text of each document on the page, keyed by path.
+   */
+  public synchronized ImmutableMap<String, String> texts() {
+    if (texts == null) {
+      List<String> paths = new ArrayList<>(results.size());
+      for (SearchResult result : results) {
+        paths.add(result.path());
+      }
+      texts = ImmutableMap.copyOf(store.getDocuments(paths));
+    }
+    return texts;
+  }
+}
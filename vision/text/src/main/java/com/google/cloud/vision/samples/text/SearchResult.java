@@ -0,0 +1,47 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import java.util.Comparator;
+
+/**
+ * A document that matched a query, with its score.
+ */
+public class SearchResult {
+  /**
+   * Orders results from the highest score to the lowest, breaking ties by path.
+   */
+  public static final Comparator<SearchResult> BEST_FIRST =
+      Comparator.comparingDouble(SearchResult::score).reversed()
+          .thenComparing(SearchResult::path);
+
+  private final String path;
+  private final double score;
+
+  public SearchResult(String path, double score) {
+    this.path = path;
+    this.score = score;
+  }
+
+  public String path() {
+    return path;
+  }
+
+  public double score() {
+    return score;
+  }
+}
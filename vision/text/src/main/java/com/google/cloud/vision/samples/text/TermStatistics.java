@@ -0,0 +1,112 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The corpus and per-document counts needed to rank documents for a set of query terms.
+ *
+ * <p>Documents indexed before counts were recorded have no term frequency or length; they are
+ * treated as containing each term once and being of average length.
+ */
+public class TermStatistics {
+  private long documentCount;
+  private long totalTokens;
+  private final Map<String, Long> documentFrequencies = new HashMap<>();
+  private final Table<String, String, Integer> termFrequencies = HashBasedTable.create();
+  private final Map<String, Integer> documentLengths = new HashMap<>();
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  private TermStatistics() {}
+
+  public long documentCount() {
+    return documentCount;
+  }
+
+  public double averageDocumentLength() {
+    if (documentCount == 0 || totalTokens == 0) {
+      return 1;
+    }
+    return (double) totalTokens / documentCount;
+  }
+
+  /**
+   * Returns the number of documents that contain {@code term}.
+   */
+  public long documentFrequency(String term) {
+    Long frequency = documentFrequencies.get(term);
+    return frequency == null ? 0 : frequency;
+  }
+
+  /**
+   * Returns the number of times {@code term} occurs in the document at {@code path}.
+   */
+  public int termFrequency(String term, String path) {
+    Integer frequency = termFrequencies.get(term, path);
+    return frequency == null ? 1 : frequency;
+  }
+
+  /**
+   * Returns the number of tokens in the document at {@code path}.
+   */
+  public double documentLength(String path) {
+    Integer length = documentLengths.get(path);
+    return length == null ? averageDocumentLength() : length;
+  }
+
+  public static class Builder {
+    private final TermStatistics stats = new TermStatistics();
+
+    Builder() {}
+
+    public Builder documentCount(long documentCount) {
+      stats.documentCount = documentCount;
+      return this;
+    }
+
+    public Builder totalTokens(long totalTokens) {
+      stats.totalTokens = totalTokens;
+      return this;
+    }
+
+    public Builder documentFrequency(String term, long frequency) {
+      stats.documentFrequencies.put(term, frequency);
+      return this;
+    }
+
+    public Builder termFrequency(String term, String path, int frequency) {
+      stats.termFrequencies.put(term, path, frequency);
+      return this;
+    }
+
+    public Builder documentLength(String path, int length) {
+      stats.documentLengths.put(path, length);
+      return this;
+    }
+
+    public TermStatistics build() {
+      return stats;
+    }
+  }
+}
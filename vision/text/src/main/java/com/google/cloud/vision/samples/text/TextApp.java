@@ -40,8 +40,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import opennlp.tools.stemmer.snowball.SnowballStemmer;
 import opennlp.tools.tokenize.TokenizerME;
 import redis.clients.jedis.JedisPool;
@@ -55,6 +63,33 @@ public class TextApp {
   private static final int MAX_RESULTS = 6;
   private static final int BATCH_SIZE = 10;
 
+  /**
+   * The number of documents to write to the index in one Redis pipeline, and the longest a
+   * document may wait for its batch to fill up.
+   */
+  private static final int INDEX_BATCH_SIZE = Integer.getInteger("indexBatchSize", 100);
+  private static final Duration INDEX_FLUSH_INTERVAL =
+      Duration.ofMillis(Long.getLong("indexFlushIntervalMillis", 1000));
+
+  /**
+   * The number of threads reading image files, and the most annotate batches that may be read or
+   * waiting on the Vision API at once.
+   */
+  private static final int READ_THREADS = Integer.getInteger("readThreads", 4);
+  private static final int MAX_IN_FLIGHT_BATCHES = Integer.getInteger("maxInFlightBatches", 4);
+
+  /**
+   * Where the index is kept: {@code redis} (the default), or {@code memory} for an in-process
+   * index saved to {@code indexFile}.
+   */
+  private static final String INDEX_BACKEND = System.getProperty("indexBackend", "redis");
+  private static final Path INDEX_FILE = Paths.get(System.getProperty("indexFile", "index.bin"));
+
+  /**
+   * Whether to re-index only the files whose content changed since the last run.
+   */
+  private static final boolean INCREMENTAL = Boolean.getBoolean("incremental");
+
   /**
    * Be sure to specify the name of your application. If the application name is {@code null} or
    * blank, the application will log a warning. Suggested format is "MyCompany-ProductName/1.0".
@@ -85,13 +120,20 @@ public class TextApp {
       System.exit(1);
     }
 
-    JedisPool pool = Index.getJedisPool();
-    try {
+    JedisPool pool = null;
+    IndexStore store;
+    if (INDEX_BACKEND.equals("memory")) {
+      store = MemoryIndexStore.open(INDEX_FILE);
+    } else {
+      pool = Index.getJedisPool();
+      store = new RedisIndexStore(pool);
+    }
+    try (IndexStore openStore = store) {
       Index index =
           new Index(
               new TokenizerME(Index.getEnglishTokenizerMeModel()),
               new SnowballStemmer(SnowballStemmer.ALGORITHM.ENGLISH),
-              pool);
+              openStore);
       TextApp app = new TextApp(TextApp.getVisionService(), index);
 
       if (args.length == 0) {
@@ -99,7 +141,11 @@ public class TextApp {
         return;
       }
       Path inputPath = Paths.get(args[0]);
-      app.indexDirectory(inputPath);
+      if (INCREMENTAL) {
+        app.indexDirectoryIncrementally(inputPath);
+      } else {
+        app.indexDirectory(inputPath);
+      }
     } finally {
       if (pool != null) {
         pool.destroy();
@@ -133,13 +179,23 @@ public class TextApp {
       System.exit(1);
     }
 
+    Iterable<String> lastWords = null;
+    String nextPage = null;
     while (true) {
-      String words =
-          console.readLine("Enter word(s) (comma-separated, leave blank to exit): ").trim();
+      String prompt =
+          nextPage == null
+              ? "Enter word(s) (comma-separated, leave blank to exit): "
+              : "Enter word(s) (comma-separated, + for more hits, leave blank to exit): ";
+      String words = console.readLine(prompt).trim();
       if (words.equals("")) {
         break;
       }
-      index.printLookup(Splitter.on(',').split(words));
+      if (words.equals("+") && nextPage != null) {
+        nextPage = index.printLookup(lastWords, nextPage);
+        continue;
+      }
+      lastWords = Splitter.on(',').split(words);
+      nextPage = index.printLookup(lastWords);
     }
   }
 
@@ -152,69 +208,202 @@ public class TextApp {
             .filter(Files::isRegularFile)
             .filter(index::isDocumentUnprocessed)
             .collect(Collectors.toList());
-    Lists.<Path>partition(unprocessedImages, BATCH_SIZE)
-        .stream()
-        .map(this::detectText)
-        .flatMap(l -> l.stream())
-        .filter(this::successfullyDetectedText)
-        .map(this::extractDescriptions)
-        .forEach(index::addDocument);
+    annotateAndIndex(unprocessedImages, index::addDocuments);
   }
 
   /**
-   * Gets up to {@code maxResults} text annotations for images stored at {@code paths}.
+   * Indexes the images in the {@code inputPath} directory whose content changed since they were
+   * last indexed.
+   *
+   * <p>The manifest of indexed files is read once for the whole walk. Files whose size and
+   * modification time are unchanged are skipped without being read; the others are hashed, and
+   * only those whose content differs are annotated again. A file moved within the directory
+   * reuses the text indexed at its old path, and files that no longer exist are removed.
    */
-  public ImmutableList<ImageText> detectText(List<Path> paths) {
-    ImmutableList.Builder<AnnotateImageRequest> requests = ImmutableList.builder();
-    try {
-      for (Path path : paths) {
-        byte[] data;
-        data = Files.readAllBytes(path);
-        requests.add(
-            new AnnotateImageRequest()
-                .setImage(new Image().encodeContent(data))
-                .setFeatures(ImmutableList.of(
-                    new Feature()
-                        .setType("TEXT_DETECTION")
-                        .setMaxResults(MAX_RESULTS))));
+  public void indexDirectoryIncrementally(Path inputPath) throws IOException {
+    List<Path> files;
+    try (Stream<Path> walk = Files.walk(inputPath)) {
+      files = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+    }
+    Set<String> present = new HashSet<>();
+    for (Path path : files) {
+      present.add(path.toString());
+    }
+    Map<String, ManifestEntry> manifest = index.manifest();
+    // Indexed files under the directory that are gone, by content hash, to recognize moves.
+    List<String> missing = new ArrayList<>();
+    Map<String, String> missingByHash = new HashMap<>();
+    for (Map.Entry<String, ManifestEntry> entry : manifest.entrySet()) {
+      if (Paths.get(entry.getKey()).startsWith(inputPath) && !present.contains(entry.getKey())) {
+        missing.add(entry.getKey());
+        missingByHash.put(entry.getValue().contentHash(), entry.getKey());
       }
+    }
 
-      Vision.Images.Annotate annotate =
-          vision.images()
-              .annotate(new BatchAnnotateImagesRequest().setRequests(requests.build()));
-      // Due to a bug: requests to Vision API containing large images fail when GZipped.
-      annotate.setDisableGZipContent(true);
-      BatchAnnotateImagesResponse batchResponse = annotate.execute();
-      assert batchResponse.getResponses().size() == paths.size();
-
-      ImmutableList.Builder<ImageText> output = ImmutableList.builder();
-      for (int i = 0; i < paths.size(); i++) {
-        Path path = paths.get(i);
-        AnnotateImageResponse response = batchResponse.getResponses().get(i);
-        output.add(
-            ImageText.builder()
-                .path(path)
-                .textAnnotations(
-                    MoreObjects.firstNonNull(
-                        response.getTextAnnotations(),
-                        ImmutableList.<EntityAnnotation>of()))
-                .error(response.getError())
-                .build());
+    Map<String, ManifestEntry> unchanged = new HashMap<>();
+    Map<String, ManifestEntry> current = new HashMap<>();
+    Map<String, String> movedFrom = new HashMap<>();
+    List<Path> unlisted = new ArrayList<>();
+    List<Path> changed = new ArrayList<>();
+    for (Path path : files) {
+      String key = path.toString();
+      ManifestEntry previous = manifest.get(key);
+      if (previous != null && previous.matchesAttributes(path)) {
+        continue;
       }
-      return output.build();
-    } catch (IOException ex) {
-      // Got an exception, which means the whole batch had an error.
-      ImmutableList.Builder<ImageText> output = ImmutableList.builder();
-      for (Path path : paths) {
-        output.add(
-            ImageText.builder()
-                .path(path)
-                .textAnnotations(ImmutableList.<EntityAnnotation>of())
-                .error(new Status().setMessage(ex.getMessage()))
-                .build());
+      ManifestEntry entry = ManifestEntry.of(path);
+      if (previous != null && previous.contentHash().equals(entry.contentHash())) {
+        unchanged.put(key, entry);
+        continue;
+      }
+      current.put(key, entry);
+      if (previous != null) {
+        changed.add(path);
+      } else if (missingByHash.containsKey(entry.contentHash())) {
+        movedFrom.put(key, missingByHash.remove(entry.contentHash()));
+      } else {
+        unlisted.add(path);
+      }
+    }
+
+    // Files indexed before the manifest existed are taken as they are, not annotated again.
+    List<String> unlistedKeys = new ArrayList<>();
+    for (Path path : unlisted) {
+      unlistedKeys.add(path.toString());
+    }
+    Map<String, String> alreadyIndexed = index.getDocuments(unlistedKeys);
+    for (Path path : unlisted) {
+      String key = path.toString();
+      if (alreadyIndexed.containsKey(key)) {
+        unchanged.put(key, current.remove(key));
+      } else {
+        changed.add(path);
+      }
+    }
+
+    Map<String, String> movedTexts = index.getDocuments(new ArrayList<>(movedFrom.values()));
+    List<Word> moved = new ArrayList<>();
+    for (Map.Entry<String, String> move : movedFrom.entrySet()) {
+      String text = movedTexts.get(move.getValue());
+      if (text == null) {
+        changed.add(Paths.get(move.getKey()));
+        continue;
       }
-      return output.build();
+      moved.add(Word.builder().path(Paths.get(move.getKey())).word(text).build());
+      unchanged.put(move.getKey(), current.remove(move.getKey()));
+    }
+
+    System.out.printf(
+        "%d files unchanged, %d moved, %d removed, %d to annotate.\n",
+        files.size() - changed.size() - moved.size(), moved.size(), missing.size(),
+        changed.size());
+    index.removeDocuments(missing);
+    index.replaceDocuments(moved);
+    index.putManifest(unchanged);
+    annotateAndIndex(
+        changed,
+        batch -> {
+          index.replaceDocuments(batch);
+          Map<String, ManifestEntry> indexed = new HashMap<>();
+          for (Word document : batch) {
+            indexed.put(document.path().toString(), current.get(document.path().toString()));
+          }
+          index.putManifest(indexed);
+        });
+  }
+
+  /**
+   * Annotates the {@code images} and passes batches of the resulting documents to {@code sink}.
+   */
+  private void annotateAndIndex(List<Path> images, Consumer<List<Word>> sink) {
+    try (IndexBatcher batcher = new IndexBatcher(sink, INDEX_BATCH_SIZE, INDEX_FLUSH_INTERVAL);
+        IndexPipeline pipeline = new IndexPipeline(this, READ_THREADS, MAX_IN_FLIGHT_BATCHES)) {
+      IndexPipeline.Stats stats =
+          pipeline.run(
+              Lists.<Path>partition(images, BATCH_SIZE),
+              image -> {
+                if (successfullyDetectedText(image)) {
+                  batcher.add(extractDescriptions(image));
+                }
+              });
+      System.out.printf("\n%s\n", stats);
+    }
+  }
+
+  /**
+   * Gets up to {@code maxResults} text annotations for images stored at {@code paths}.
+   */
+  public ImmutableList<ImageText> detectText(List<Path> paths) {
+    try {
+      return annotate(paths, readImages(paths));
+    } catch (IOException ex) {
+      return failedBatch(paths, ex);
+    }
+  }
+
+  /**
+   * Reads the images stored at {@code paths} into text detection requests.
+   */
+  public ImmutableList<AnnotateImageRequest> readImages(List<Path> paths) throws IOException {
+    ImmutableList.Builder<AnnotateImageRequest> requests = ImmutableList.builder();
+    for (Path path : paths) {
+      byte[] data;
+      data = Files.readAllBytes(path);
+      requests.add(
+          new AnnotateImageRequest()
+              .setImage(new Image().encodeContent(data))
+              .setFeatures(ImmutableList.of(
+                  new Feature()
+                      .setType("TEXT_DETECTION")
+                      .setMaxResults(MAX_RESULTS))));
+    }
+    return requests.build();
+  }
+
+  /**
+   * Sends the text detection {@code requests} for images stored at {@code paths} in one batch.
+   */
+  public ImmutableList<ImageText> annotate(List<Path> paths, List<AnnotateImageRequest> requests)
+      throws IOException {
+    Vision.Images.Annotate annotate =
+        vision.images()
+            .annotate(new BatchAnnotateImagesRequest().setRequests(requests));
+    // Due to a bug: requests to Vision API containing large images fail when GZipped.
+    annotate.setDisableGZipContent(true);
+    BatchAnnotateImagesResponse batchResponse = annotate.execute();
+    assert batchResponse.getResponses().size() == paths.size();
+
+    ImmutableList.Builder<ImageText> output = ImmutableList.builder();
+    for (int i = 0; i < paths.size(); i++) {
+      Path path = paths.get(i);
+      AnnotateImageResponse response = batchResponse.getResponses().get(i);
+      output.add(
+          ImageText.builder()
+              .path(path)
+              .textAnnotations(
+                  MoreObjects.firstNonNull(
+                      response.getTextAnnotations(),
+                      ImmutableList.<EntityAnnotation>of()))
+              .error(response.getError())
+              .build());
+    }
+    return output.build();
+  }
+
+  /**
+   * Marks every image stored at {@code paths} as failed, for when the whole batch had an error.
+   */
+  public static ImmutableList<ImageText> failedBatch(List<Path> paths, Throwable ex) {
+    ImmutableList.Builder<ImageText> output = ImmutableList.builder();
+    for (Path path : paths) {
+      output.add(
+          ImageText.builder()
+              .path(path)
+              .textAnnotations(ImmutableList.<EntityAnnotation>of())
+              .error(new Status().setMessage(ex.getMessage()))
+              .build());
     }
+    return output.build();
   }
 
   /**
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.vision.v1.Vision;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import opennlp.tools.stemmer.PorterStemmer;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link TextApp#indexDirectoryIncrementally}.
+ */
+@RunWith(JUnit4.class)
+public class IncrementalIndexTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private AtomicInteger annotated;
+  private Index index;
+  private TextApp app;
+  private Path directory;
+
+  @Before public void setUp() throws Exception {
+    annotated = new AtomicInteger();
+    // A fake Vision service that reports the word "cat" for image files containing "cat", and
+    // "dog" for the others.
+    JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            List<String> responses = new ArrayList<>();
+            for (String image : getContentAsString().split("\"features\"")) {
+              if (!image.contains("\"content\"")) {
+                continue;
+              }
+              annotated.incrementAndGet();
+              // "Y2F0" is the base64 encoding of "cat".
+              String text = image.contains("Y2F0") ? "cat" : "dog";
+              responses.add("{\"textAnnotations\": [{\"description\": \"" + text + "\"}]}");
+            }
+            MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+            response.setStatusCode(200);
+            response.setContentType(Json.MEDIA_TYPE);
+            response.setContent("{\"responses\": [" + Joiner.on(',').join(responses) + "]}");
+            return response;
+          }
+        };
+      }
+    };
+    index = new Index(SimpleTokenizer.INSTANCE, new PorterStemmer(), new MemoryIndexStore());
+    app = new TextApp(new Vision(transport, jsonFactory, null), index);
+    directory = folder.getRoot().toPath();
+  }
+
+  private Path write(String name, String content) throws IOException {
+    return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Test public void indexDirectoryIncrementally_unchangedFiles_areNotAnnotatedAgain()
+      throws Exception {
+    write("a.jpg", "cat");
+    write("b.jpg", "bone");
+
+    app.indexDirectoryIncrementally(directory);
+    app.indexDirectoryIncrementally(directory);
+
+    assertThat(annotated.get()).isEqualTo(2);
+    assertThat(index.lookup(ImmutableList.of("dog"))).containsExactly(path("b.jpg"));
+  }
+
+  @Test public void indexDirectoryIncrementally_changedFile_replacesOldTerms() throws Exception {
+    Path image = write("a.jpg", "cat");
+    app.indexDirectoryIncrementally(directory);
+
+    write("a.jpg", "bone");
+    Files.setLastModifiedTime(image, FileTime.fromMillis(image.toFile().lastModified() + 2000));
+    app.indexDirectoryIncrementally(directory);
+
+    assertThat(annotated.get()).isEqualTo(2);
+    assertThat(index.lookup(ImmutableList.of("cat"))).isEmpty();
+    assertThat(index.lookup(ImmutableList.of("dog"))).containsExactly(path("a.jpg"));
+  }
+
+  @Test public void indexDirectoryIncrementally_touchedFile_isNotAnnotatedAgain()
+      throws Exception {
+    Path image = write("a.jpg", "cat");
+    app.indexDirectoryIncrementally(directory);
+
+    Files.setLastModifiedTime(image, FileTime.fromMillis(image.toFile().lastModified() + 2000));
+    app.indexDirectoryIncrementally(directory);
+
+    assertThat(annotated.get()).isEqualTo(1);
+  }
+
+  @Test public void indexDirectoryIncrementally_movedFile_reusesText() throws Exception {
+    Path image = write("a.jpg", "cat");
+    app.indexDirectoryIncrementally(directory);
+
+    Files.move(image, directory.resolve("b.jpg"));
+    app.indexDirectoryIncrementally(directory);
+
+    assertThat(annotated.get()).isEqualTo(1);
+    assertThat(index.lookup(ImmutableList.of("cat"))).containsExactly(path("b.jpg"));
+  }
+
+  private String path(String name) {
+    return directory.resolve(name).toString();
+  }
+}
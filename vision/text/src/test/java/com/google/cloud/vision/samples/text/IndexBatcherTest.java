@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import opennlp.tools.stemmer.PorterStemmer;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link IndexBatcher} and batched indexing in {@link Index}.
+ */
+@RunWith(JUnit4.class)
+public class IndexBatcherTest {
+  private List<List<Word>> batches;
+
+  @Before public void setUp() {
+    batches = new CopyOnWriteArrayList<>();
+  }
+
+  private static Word document(String name, String text) {
+    return Word.builder().path(Paths.get(name)).word(text).build();
+  }
+
+  @Test public void add_fullBatch_flushes() {
+    IndexBatcher batcher = new IndexBatcher(batches::add, 2, Duration.ZERO);
+
+    batcher.add(document("a.jpg", "a"));
+    assertThat(batches).isEmpty();
+    batcher.add(document("b.jpg", "b"));
+
+    assertThat(batches).hasSize(1);
+    assertThat(batches.get(0)).hasSize(2);
+  }
+
+  @Test public void close_partialBatch_flushes() {
+    try (IndexBatcher batcher = new IndexBatcher(batches::add, 10, Duration.ZERO)) {
+      batcher.add(document("a.jpg", "a"));
+    }
+
+    assertThat(batches).hasSize(1);
+    assertThat(batches.get(0)).hasSize(1);
+  }
+
+  @Test public void add_flushIntervalElapsed_flushes() throws Exception {
+    try (IndexBatcher batcher = new IndexBatcher(batches::add, 10, Duration.ofMillis(10))) {
+      batcher.add(document("a.jpg", "a"));
+      for (int i = 0; i < 100 && batches.isEmpty(); i++) {
+        Thread.sleep(10);
+      }
+
+      assertThat(batches).hasSize(1);
+    }
+  }
+
+  @Test public void add_timedFlushFailed_rethrowsAndKeepsBatch() throws Exception {
+    RuntimeException failure = new IllegalStateException("index unavailable");
+    AtomicInteger calls = new AtomicInteger();
+    IndexBatcher batcher =
+        new IndexBatcher(
+            batch -> {
+              if (calls.getAndIncrement() == 0) {
+                throw failure;
+              }
+              batches.add(batch);
+            },
+            10,
+            Duration.ofMillis(10));
+    try {
+      batcher.add(document("a.jpg", "a"));
+      for (int i = 0; i < 100 && calls.get() == 0; i++) {
+        Thread.sleep(10);
+      }
+
+      try {
+        batcher.add(document("b.jpg", "b"));
+        fail("expected the timed flush failure");
+      } catch (IllegalStateException e) {
+        assertThat(e).isSameAs(failure);
+      }
+    } finally {
+      batcher.close();
+    }
+
+    List<Word> written = new ArrayList<>();
+    batches.forEach(written::addAll);
+    assertThat(written).hasSize(1);
+    assertThat(written.get(0).path()).isEqualTo(Paths.get("a.jpg"));
+  }
+
+  @Test public void countTokens_sharedTerm_countsPerPath() {
+    Index index = new Index(SimpleTokenizer.INSTANCE, new PorterStemmer(), new MemoryIndexStore());
+
+    List<Word> documents =
+        Arrays.asList(document("a.jpg", "Cats sleep cat"), document("b.jpg", "cat"));
+
+    assertThat(index.countTokens(documents).row("cat")).containsExactly("a.jpg", 2, "b.jpg", 1);
+    assertThat(index.countTokens(documents).row("sleep")).containsExactly("a.jpg", 1);
+  }
+}
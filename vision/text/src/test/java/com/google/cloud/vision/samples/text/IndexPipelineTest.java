@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.Json;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.vision.v1.Vision;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link IndexPipeline}.
+ */
+@RunWith(JUnit4.class)
+public class IndexPipelineTest {
+  private static final ImmutableList<Path> IMAGES =
+      ImmutableList.of(
+          Paths.get("data/bonito.gif"),
+          Paths.get("data/mountain.jpg"),
+          Paths.get("data/no-text.jpg"),
+          Paths.get("data/sabertooth.gif"),
+          Paths.get("data/succulents.jpg"),
+          Paths.get("data/sunbeamkitties.jpg"),
+          Paths.get("data/wakeupcat.jpg"));
+
+  private AtomicInteger inFlight;
+  private AtomicInteger maxInFlight;
+  private TextApp app;
+
+  @Before public void setUp() throws Exception {
+    inFlight = new AtomicInteger();
+    maxInFlight = new AtomicInteger();
+    // A fake Vision service that answers every image in a batch after a short delay.
+    JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
+    HttpTransport transport = new MockHttpTransport() {
+      @Override
+      public LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new MockLowLevelHttpRequest() {
+          @Override
+          public LowLevelHttpResponse execute() throws IOException {
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+              Thread.sleep(20);
+            } catch (InterruptedException ex) {
+              Thread.currentThread().interrupt();
+            }
+            int images = getContentAsString().split("\"features\"", -1).length - 1;
+            MockLowLevelHttpResponse response = new MockLowLevelHttpResponse();
+            response.setStatusCode(200);
+            response.setContentType(Json.MEDIA_TYPE);
+            response.setContent(
+                "{\"responses\": ["
+                    + Joiner.on(',').join(Collections.nCopies(images, "{\"textAnnotations\": []}"))
+                    + "]}");
+            inFlight.decrementAndGet();
+            return response;
+          }
+        };
+      }
+    };
+    app = new TextApp(new Vision(transport, jsonFactory, null), null /* index */);
+  }
+
+  @Test public void run_manyBatches_preservesOrder() {
+    List<Path> seen = new ArrayList<>();
+
+    IndexPipeline.Stats stats;
+    try (IndexPipeline pipeline = new IndexPipeline(app, 2, 3)) {
+      stats = pipeline.run(Lists.partition(IMAGES, 2), image -> seen.add(image.path()));
+    }
+
+    assertThat(seen).containsExactlyElementsIn(IMAGES).inOrder();
+    assertThat(stats.images()).isEqualTo(IMAGES.size());
+    assertThat(stats.batches()).isEqualTo(4);
+  }
+
+  @Test public void run_manyBatches_boundsInFlightRequests() {
+    List<List<Path>> batches = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      batches.add(IMAGES.subList(0, 1));
+    }
+
+    IndexPipeline.Stats stats;
+    try (IndexPipeline pipeline = new IndexPipeline(app, 4, 2)) {
+      stats = pipeline.run(batches, image -> { });
+    }
+
+    assertThat(maxInFlight.get()).isAtMost(2);
+    assertThat(stats.maxQueueDepth()).isEqualTo(2);
+  }
+
+  @Test public void run_missingFile_reportsError() {
+    List<ImageText> seen = new ArrayList<>();
+
+    try (IndexPipeline pipeline = new IndexPipeline(app, 1, 1)) {
+      pipeline.run(
+          ImmutableList.of(ImmutableList.of(Paths.get("data/does-not-exist.jpg"))), seen::add);
+    }
+
+    assertThat(seen).hasSize(1);
+    assertThat(seen.get(0).error()).isNotNull();
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import opennlp.tools.stemmer.PorterStemmer;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for ranked search in {@link Index}.
+ */
+@RunWith(JUnit4.class)
+public class IndexTest {
+  private Index index;
+
+  private static Word document(String name, String text) {
+    return Word.builder().path(Paths.get(name)).word(text).build();
+  }
+
+  @Before public void setUp() {
+    index = new Index(SimpleTokenizer.INSTANCE, new PorterStemmer(), new MemoryIndexStore());
+    index.addDocuments(
+        ImmutableList.of(
+            document("once.jpg", "cat on a long mat with many other words"),
+            document("twice.jpg", "cat cat"),
+            document("thrice.jpg", "cat cat cat"),
+            document("dog.jpg", "dog")));
+  }
+
+  @Test public void search_termFrequency_ranksMostOccurrencesFirst() {
+    SearchPage page = index.search(ImmutableList.of("cat"), Ranking.TERM_FREQUENCY, 10, null);
+
+    assertThat(paths(page)).containsExactly("thrice.jpg", "twice.jpg", "once.jpg").inOrder();
+    assertThat(page.nextPageToken()).isNull();
+  }
+
+  @Test public void search_bm25_ranksShortDocumentsAboveLongOnes() {
+    SearchPage page = index.search(ImmutableList.of("cat"), Ranking.BM25, 10, null);
+
+    assertThat(paths(page).get(0)).isEqualTo("thrice.jpg");
+    assertThat(paths(page).get(2)).isEqualTo("once.jpg");
+  }
+
+  @Test public void search_pageToken_continuesWhereLastPageEnded() {
+    List<String> seen = new ArrayList<>();
+    String pageToken = null;
+    do {
+      SearchPage page =
+          index.search(ImmutableList.of("cat"), Ranking.TERM_FREQUENCY, 1, pageToken);
+      assertThat(page.results()).hasSize(1);
+      seen.addAll(paths(page));
+      pageToken = page.nextPageToken();
+    } while (pageToken != null);
+
+    assertThat(seen).containsExactly("thrice.jpg", "twice.jpg", "once.jpg").inOrder();
+  }
+
+  @Test public void search_texts_readsPageDocuments() {
+    SearchPage page = index.search(ImmutableList.of("dog"), Ranking.BM25, 10, null);
+
+    assertThat(page.texts()).containsExactly("dog.jpg", "dog");
+  }
+
+  private static List<String> paths(SearchPage page) {
+    List<String> paths = new ArrayList<>();
+    for (SearchResult result : page.results()) {
+      paths.add(result.path());
+    }
+    return paths;
+  }
+}
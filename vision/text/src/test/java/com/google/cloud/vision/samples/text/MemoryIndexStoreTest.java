@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import opennlp.tools.stemmer.PorterStemmer;
+import opennlp.tools.tokenize.SimpleTokenizer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link MemoryIndexStore}.
+ */
+@RunWith(JUnit4.class)
+public class MemoryIndexStoreTest {
+  private static Word document(String name, String text) {
+    return Word.builder().path(Paths.get(name)).word(text).build();
+  }
+
+  private static Index index(IndexStore store) {
+    return new Index(SimpleTokenizer.INSTANCE, new PorterStemmer(), store);
+  }
+
+  @Test public void lookup_severalWords_returnsIntersection() {
+    Index index = index(new MemoryIndexStore());
+    index.addDocuments(
+        ImmutableList.of(
+            document("a.jpg", "wake up human"),
+            document("b.jpg", "wake up cat"),
+            document("c.jpg", "sleeping cat")));
+
+    assertThat(index.lookup(ImmutableList.of("wake"))).containsExactly("a.jpg", "b.jpg");
+    assertThat(index.lookup(ImmutableList.of("wake", "cat"))).containsExactly("b.jpg");
+    assertThat(index.lookup(ImmutableList.of("wake", "dog"))).isEmpty();
+    assertThat(index.lookup(ImmutableList.<String>of())).isEmpty();
+  }
+
+  @Test public void open_savedStore_restoresIndex() throws Exception {
+    Path file = Files.createTempFile("index", ".bin");
+    Files.delete(file);
+    try {
+      try (MemoryIndexStore store = MemoryIndexStore.open(file)) {
+        index(store).addDocument(document("a.jpg", "wake up human"));
+        store.putDocument("empty.jpg", "");
+      }
+
+      try (MemoryIndexStore store = MemoryIndexStore.open(file)) {
+        assertThat(index(store).lookup(ImmutableList.of("human"))).containsExactly("a.jpg");
+        assertThat(store.getDocument("a.jpg")).isEqualTo("wake up human");
+        assertThat(store.getDocument("empty.jpg")).isEmpty();
+        assertThat(store.getDocument("missing.jpg")).isNull();
+      }
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+}
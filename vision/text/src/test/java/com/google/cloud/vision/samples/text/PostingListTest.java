@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.cloud.vision.samples.text;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link PostingList}.
+ */
+@RunWith(JUnit4.class)
+public class PostingListTest {
+  private static PostingList of(int... docs) {
+    PostingList list = new PostingList();
+    for (int doc : docs) {
+      list.add(doc);
+    }
+    return list;
+  }
+
+  private static PostingList range(int start, int end, int step) {
+    PostingList list = new PostingList();
+    for (int doc = start; doc < end; doc += step) {
+      list.add(doc);
+    }
+    return list;
+  }
+
+  @Test public void add_outOfOrderAndDuplicates_keepsSortedUnique() {
+    PostingList list = of(5, 300, 2, 300, 70000, 5);
+
+    assertThat(list.toArray()).asList().containsExactly(2, 5, 300, 70000).inOrder();
+    assertThat(list.size()).isEqualTo(4);
+  }
+
+  @Test public void advance_pastSkipPointers_findsTarget() {
+    PostingList list = range(0, 10000, 3);
+    PostingList.Cursor cursor = list.cursor();
+
+    assertThat(cursor.advance(5000)).isTrue();
+    assertThat(cursor.doc()).isEqualTo(5001);
+    assertThat(cursor.advance(9999)).isTrue();
+    assertThat(cursor.doc()).isEqualTo(9999);
+    assertThat(cursor.advance(10000)).isFalse();
+  }
+
+  @Test public void intersect_manyLists_returnsCommonDocs() {
+    int[] docs =
+        PostingList.intersect(
+            Arrays.asList(range(0, 10000, 2), range(0, 10000, 3), of(6, 7, 12, 9000, 9001)));
+
+    assertThat(docs).asList().containsExactly(6, 12, 9000).inOrder();
+  }
+
+  @Test public void intersect_emptyList_returnsNothing() {
+    int[] docs = PostingList.intersect(Arrays.asList(range(0, 100, 1), new PostingList()));
+
+    assertThat(docs).isEmpty();
+  }
+}